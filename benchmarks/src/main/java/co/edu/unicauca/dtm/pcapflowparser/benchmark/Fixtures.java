@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import co.edu.unicauca.dtm.pcapflowparser.io.FlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager.Backend;
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Fixtures shared by the benchmarks. Captures are generated from a fixed seed,
+ * so every run measures the same packets: Ethernet frames truncated to their
+ * headers, 70% IPv4 TCP, 20% IPv4 UDP and 10% IPv6 TCP, with packets spread
+ * uniformly at random or in turn among the flows, and timestamps 10
+ * microseconds apart.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public final class Fixtures {
+
+	/**
+	 * Seed of the generated captures
+	 */
+	public static final long SEED = 20180101L;
+
+	/**
+	 * Timestamp in microseconds of the first packet
+	 */
+	private static final long START_TIME = 1514764800000000L;
+
+	/**
+	 * Captured bytes of each frame, enough for Ethernet, IPv6 and TCP headers
+	 */
+	private static final int SNAP_LENGTH = 74;
+
+	/**
+	 * 
+	 */
+	private Fixtures() {
+	}
+
+	/**
+	 * Writes a classic PCAP file with Ethernet link type and timestamps in
+	 * microseconds
+	 * 
+	 * @param file
+	 *            the file to write
+	 * @param nFlows
+	 *            number of distinct flows
+	 * @param nPackets
+	 *            number of packets
+	 * @param inTurn
+	 *            whether the flows take turns instead of being picked at
+	 *            random, so that every flow has a packet if there are enough
+	 * @throws IOException
+	 */
+	public static void writePcap(File file, int nFlows, int nPackets, boolean inTurn) throws IOException {
+		Random random = new Random(SEED);
+		ByteBuffer record = ByteBuffer.allocate(16 + SNAP_LENGTH);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			// Global header
+			ByteBuffer header = ByteBuffer.allocate(24).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(0xa1b2c3d4).putShort((short) 2).putShort((short) 4).putInt(0).putInt(0)
+					.putInt(65535).putInt(1);
+			out.write(header.array());
+			for (int i = 0; i < nPackets; i++) {
+				int flow = inTurn ? i % nFlows : random.nextInt(nFlows);
+				int size = 64 + random.nextInt(1437);
+				long timestamp = START_TIME + i * 10L;
+				record.clear();
+				// Record header
+				record.order(ByteOrder.LITTLE_ENDIAN);
+				record.putInt((int) (timestamp / 1000000)).putInt((int) (timestamp % 1000000));
+				int captured = Math.min(size, SNAP_LENGTH);
+				record.putInt(captured).putInt(size);
+				// Frame
+				record.order(ByteOrder.BIG_ENDIAN);
+				putFrame(record, flow, size);
+				out.write(record.array(), 0, 16 + captured);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the headers of a frame of a flow. The protocols and addresses of a
+	 * flow depend only on its number
+	 * 
+	 * @param frame
+	 * @param flow
+	 * @param size
+	 */
+	private static void putFrame(ByteBuffer frame, int flow, int size) {
+		int start = frame.position();
+		int kind = flow % 10;
+		boolean ipv6 = kind == 9;
+		boolean udp = kind == 7 || kind == 8;
+		// Ethernet
+		frame.putShort((short) 0x0200).putInt(flow);
+		frame.putShort((short) 0x0200).putInt(~flow);
+		frame.putShort((short) (ipv6 ? 0x86DD : 0x0800));
+		// IPv4/IPv6
+		if (ipv6) {
+			frame.putInt(0x60000000).putShort((short) (size - 54)).put((byte) 6).put((byte) 64);
+			frame.putLong(0x20010db800000000L).putLong(flow);
+			frame.putLong(0x20010db8ffff0000L).putLong(flow >>> 8);
+		} else {
+			frame.put((byte) 0x45).put((byte) 0).putShort((short) (size - 14)).putInt(0);
+			frame.put((byte) 64).put((byte) (udp ? 17 : 6)).putShort((short) 0);
+			frame.putInt(0x0A000000 | flow & 0x00FFFFFF).putInt(0xC0A80000 | flow >>> 8 & 0xFFFF);
+		}
+		// TCP/UDP ports
+		frame.putShort((short) (1024 + flow % 60000)).putShort((short) (udp ? 53 : 443));
+		// Remaining captured bytes of the transport header
+		while (frame.position() - start < Math.min(size, SNAP_LENGTH)) {
+			frame.put((byte) 0);
+		}
+	}
+
+	/**
+	 * Creates a temporary PCAP file, deleted on exit
+	 * 
+	 * @param nFlows
+	 * @param nPackets
+	 * @param inTurn
+	 * @return the file
+	 * @throws IOException
+	 */
+	public static File createPcap(int nFlows, int nPackets, boolean inTurn) throws IOException {
+		File file = File.createTempFile("pcapflowparser-bench-", ".pcap");
+		file.deleteOnExit();
+		writePcap(file, nFlows, nPackets, inTurn);
+		return file;
+	}
+
+	/**
+	 * Decodes the packets of a generated capture, whose flows are picked at
+	 * random, into separate instances
+	 * 
+	 * @param nFlows
+	 * @param nPackets
+	 * @return the decoded packets in capture order
+	 * @throws IOException
+	 */
+	public static Packet[] packets(int nFlows, int nPackets) throws IOException {
+		File file = createPcap(nFlows, nPackets, false);
+		PacketManager packetManager = new PacketManager(Backend.NIO);
+		if (!packetManager.config(file.getPath())) {
+			throw new IOException("Can not read fixture " + file);
+		}
+		List<Packet> packets = new ArrayList<Packet>(nPackets);
+		try {
+			Packet packet;
+			while ((packet = packetManager.nextPacket()) != null && packet.getTimestamp() != -1) {
+				packets.add(packet.copy());
+			}
+		} finally {
+			packetManager.close();
+			file.delete();
+		}
+		return packets.toArray(new Packet[packets.size()]);
+	}
+
+	/**
+	 * Writer that discards the flows, so benchmarks do not measure the output
+	 */
+	public static class NullFlowWriter implements FlowWriter {
+
+		/**
+		 * Number of flows written
+		 */
+		private long flows;
+
+		@Override
+		public void write(Flow flow) throws IOException {
+			flows++;
+		}
+
+		/**
+		 * @return the number of flows written
+		 */
+		public long getFlows() {
+			return flows;
+		}
+
+		@Override
+		public void close() throws IOException {
+		}
+	}
+
+}
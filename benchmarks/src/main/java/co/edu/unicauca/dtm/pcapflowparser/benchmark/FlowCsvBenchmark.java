@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.benchmark;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Export of flows as CSV lines through {@link Flow#toCSV(Set, int)}, and
+ * through {@link Flow#appendCSV(StringBuilder, FlowFeature[], int)} with the
+ * columns compiled once, as the CSV writer does. The feature sets are all
+ * features, the flow identifier only and a few counters only.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowCsvBenchmark {
+
+	/**
+	 * Number of fixture flows, a power of two
+	 */
+	private static final int N_FLOWS = 1 << 10;
+
+	/**
+	 * Included features, as given to the --include option
+	 */
+	@Param({ "all", "ip_src,ip_dst,ip_proto,port_src,port_dst", "tot_size,tot_pkts,duration" })
+	public String features;
+
+	/**
+	 * Number of first packets whose sizes and IATs are exported
+	 */
+	@Param({ "10" })
+	public int nFirst;
+
+	/**
+	 * 
+	 */
+	private Set<Integer> featureIds;
+
+	/**
+	 * 
+	 */
+	private FlowFeature[] columns;
+
+	/**
+	 * 
+	 */
+	private Flow[] flows;
+
+	/**
+	 * Reused builder of the lines
+	 */
+	private StringBuilder csv;
+
+	/**
+	 * Index of the next flow
+	 */
+	private int next;
+
+	/**
+	 * Builds flows of 20 packets from the fixture packets
+	 * 
+	 * @throws IOException
+	 */
+	@Setup
+	public void setup() throws IOException {
+		featureIds = features.equals("all") ? FlowFeature.allFeatureIds() : FlowFeature.featureIdByName(features);
+		columns = FlowFeature.columns(featureIds);
+		Packet[] packets = Fixtures.packets(N_FLOWS, N_FLOWS * 20);
+		flows = new Flow[N_FLOWS];
+		for (int i = 0; i < N_FLOWS; i++) {
+			flows[i] = new Flow(packets[i]);
+		}
+		for (int i = N_FLOWS; i < packets.length; i++) {
+			Flow flow = flows[i % N_FLOWS];
+			flow.addPacketSize(packets[i].getSize(), nFirst);
+			flow.addPacketIAT(packets[i].getTimestamp() - flow.getLastSeen(), nFirst);
+			flow.setLastSeen(packets[i].getTimestamp());
+		}
+		csv = new StringBuilder(1024);
+	}
+
+	/**
+	 * @return the CSV line
+	 */
+	@Benchmark
+	public String toCSV() {
+		return flows[next++ & (N_FLOWS - 1)].toCSV(featureIds, nFirst);
+	}
+
+	/**
+	 * @return the builder with the CSV line
+	 */
+	@Benchmark
+	public StringBuilder appendCSV() {
+		csv.setLength(0);
+		flows[next++ & (N_FLOWS - 1)].appendCSV(csv, columns, nFirst);
+		return csv;
+	}
+
+}
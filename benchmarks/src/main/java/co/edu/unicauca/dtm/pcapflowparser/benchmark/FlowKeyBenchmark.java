@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.edu.unicauca.dtm.pcapflowparser.manager.FlowManager;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Computation of the flow identifier of a packet: a new key from
+ * {@link FlowManager#generateFlowId(Packet)}, the reused key that the flow
+ * managers look up, and the textual identifier of the packet IAT report.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowKeyBenchmark {
+
+	/**
+	 * Number of fixture packets, a power of two
+	 */
+	private static final int N_PACKETS = 1 << 12;
+
+	/**
+	 * 
+	 */
+	private Packet[] packets;
+
+	/**
+	 * 
+	 */
+	private FlowKey flowKey;
+
+	/**
+	 * Index of the next packet
+	 */
+	private int next;
+
+	/**
+	 * @throws IOException
+	 */
+	@Setup
+	public void setup() throws IOException {
+		packets = Fixtures.packets(1000, N_PACKETS);
+		flowKey = new FlowKey();
+	}
+
+	/**
+	 * @return the flow identifier
+	 */
+	@Benchmark
+	public FlowKey generateFlowId() {
+		return FlowManager.generateFlowId(packets[next++ & (N_PACKETS - 1)]);
+	}
+
+	/**
+	 * @return the hash of the reused flow key
+	 */
+	@Benchmark
+	public int reusedFlowKey() {
+		return flowKey.set(packets[next++ & (N_PACKETS - 1)]).hashCode();
+	}
+
+	/**
+	 * @return the textual flow identifier
+	 */
+	@Benchmark
+	public String flowIdString() {
+		return flowKey.set(packets[next++ & (N_PACKETS - 1)]).toString();
+	}
+
+}
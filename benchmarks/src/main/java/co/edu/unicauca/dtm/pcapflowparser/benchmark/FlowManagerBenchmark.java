@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.edu.unicauca.dtm.pcapflowparser.manager.FlowAggregator;
+import co.edu.unicauca.dtm.pcapflowparser.manager.FlowManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.OffHeapFlowManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager.Backend;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Aggregation of packets into a flow table that already holds a given number
+ * of flows through {@link FlowManager#addPacket(Packet)}, or through the
+ * off-heap table. Timeouts are disabled, so the table keeps its size and every
+ * packet updates an existing flow.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = { "-Xmx4g", "-XX:MaxDirectMemorySize=4g" })
+public class FlowManagerBenchmark {
+
+	/**
+	 * Number of fixture packets, a power of two
+	 */
+	private static final int N_PACKETS = 1 << 16;
+
+	/**
+	 * Number of flows in the table
+	 */
+	@Param({ "1000", "100000", "1000000" })
+	public int flows;
+
+	/**
+	 * Flow table: heap or offHeap
+	 */
+	@Param({ "heap", "offHeap" })
+	public String table;
+
+	/**
+	 * Number of first packets whose sizes and IATs are kept
+	 */
+	@Param({ "0" })
+	public int nFirst;
+
+	/**
+	 * 
+	 */
+	private FlowAggregator flowManager;
+
+	/**
+	 * 
+	 */
+	private Packet[] packets;
+
+	/**
+	 * Index of the next packet
+	 */
+	private int next;
+
+	/**
+	 * Creates the flow table and adds a packet of every flow
+	 * 
+	 * @throws IOException
+	 */
+	@Setup
+	public void setup() throws IOException {
+		Set<Integer> features = FlowFeature.allFeatureIds();
+		if (table.equals("offHeap")) {
+			flowManager = new OffHeapFlowManager(new Fixtures.NullFlowWriter(), null, flows * 2, 0, 0, 0, features,
+					nFirst);
+		} else {
+			flowManager = new FlowManager(new Fixtures.NullFlowWriter(), null, 0, 0, 0, features, nFirst);
+		}
+		File file = Fixtures.createPcap(flows, flows, true);
+		PacketManager packetManager = new PacketManager(Backend.NIO);
+		if (!packetManager.config(file.getPath())) {
+			throw new IOException("Can not read fixture " + file);
+		}
+		try {
+			Packet packet;
+			while ((packet = packetManager.nextPacket()) != null && packet.getTimestamp() != -1) {
+				flowManager.addPacket(packet);
+			}
+		} finally {
+			packetManager.close();
+			file.delete();
+		}
+		packets = Fixtures.packets(flows, N_PACKETS);
+	}
+
+	/**
+	 * 
+	 */
+	@Benchmark
+	public void addPacket() {
+		flowManager.addPacket(packets[next++ & (N_PACKETS - 1)]);
+	}
+
+}
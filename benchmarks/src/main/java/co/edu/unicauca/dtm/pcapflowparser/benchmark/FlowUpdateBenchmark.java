@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.benchmark;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+
+/**
+ * Update of the statistics of a flow with the size and IAT of a packet through
+ * {@link Flow#addPacketSize(int, int)} and {@link Flow#addPacketIAT(long, int)}.
+ * The flow is recreated every iteration, so the first packets are kept only at
+ * the start of an iteration, as in a flow of many packets.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowUpdateBenchmark {
+
+	/**
+	 * Number of fixture sizes and IATs, a power of two
+	 */
+	private static final int N_PACKETS = 1 << 12;
+
+	/**
+	 * Number of first packets whose sizes and IATs are kept
+	 */
+	@Param({ "0", "10" })
+	public int nFirst;
+
+	/**
+	 * 
+	 */
+	private int[] sizes;
+
+	/**
+	 * 
+	 */
+	private long[] iats;
+
+	/**
+	 * 
+	 */
+	private Flow flow;
+
+	/**
+	 * Index of the next packet
+	 */
+	private int next;
+
+	/**
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void createPackets() throws IOException {
+		sizes = new int[N_PACKETS];
+		iats = new long[N_PACKETS];
+		Random random = new Random(Fixtures.SEED);
+		for (int i = 0; i < N_PACKETS; i++) {
+			sizes[i] = 64 + random.nextInt(1437);
+			// Heavy-tailed IATs in microseconds
+			iats[i] = (long) (10 / Math.pow(1 - random.nextDouble(), 1.5));
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	@Setup(Level.Iteration)
+	public void createFlow() throws IOException {
+		flow = new Flow(Fixtures.packets(1, 1)[0]);
+	}
+
+	/**
+	 * 
+	 */
+	@Benchmark
+	public void addPacketSize() {
+		flow.addPacketSize(sizes[next++ & (N_PACKETS - 1)], nFirst);
+	}
+
+	/**
+	 * 
+	 */
+	@Benchmark
+	public void addPacketIAT() {
+		flow.addPacketIAT(iats[next++ & (N_PACKETS - 1)], nFirst);
+	}
+
+	/**
+	 * Both updates, as done for every packet of an existing flow
+	 */
+	@Benchmark
+	public void addPacket() {
+		int i = next++ & (N_PACKETS - 1);
+		flow.addPacketSize(sizes[i], nFirst);
+		flow.addPacketIAT(iats[i], nFirst);
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager.Backend;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Reading and decoding of a fixture capture through
+ * {@link PacketManager#nextPacket()}. Each invocation reads the whole capture,
+ * and the score is the time per packet.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketDecodeBenchmark {
+
+	/**
+	 * Number of packets of the fixture capture
+	 */
+	private static final int N_PACKETS = 100000;
+
+	/**
+	 * Reader backend; jnetpcap requires the native libpcap library
+	 */
+	@Param({ "nio" })
+	public String backend;
+
+	/**
+	 * Whether the Ethernet addresses are always decoded
+	 */
+	@Param({ "false", "true" })
+	public boolean ethAddresses;
+
+	/**
+	 * 
+	 */
+	private File pcapFile;
+
+	/**
+	 * 
+	 */
+	private PacketManager packetManager;
+
+	/**
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void createPcap() throws IOException {
+		pcapFile = Fixtures.createPcap(10000, N_PACKETS, false);
+	}
+
+	/**
+	 * Opens the capture before each invocation
+	 */
+	@Setup(Level.Invocation)
+	public void open() {
+		packetManager = new PacketManager(Backend.byName(backend), ethAddresses);
+		if (!packetManager.config(pcapFile.getPath())) {
+			throw new IllegalStateException("Can not read fixture " + pcapFile);
+		}
+	}
+
+	/**
+	 * 
+	 */
+	@TearDown(Level.Invocation)
+	public void close() {
+		packetManager.close();
+	}
+
+	/**
+	 * 
+	 */
+	@TearDown(Level.Trial)
+	public void deletePcap() {
+		pcapFile.delete();
+	}
+
+	/**
+	 * @param blackhole
+	 */
+	@Benchmark
+	@OperationsPerInvocation(N_PACKETS)
+	public void nextPacket(Blackhole blackhole) {
+		Packet packet;
+		while ((packet = packetManager.nextPacket()) != null && packet.getTimestamp() != -1) {
+			blackhole.consume(packet.getPortSrc());
+		}
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.util.HashMap;
+import java.util.Map;
+
+import co.edu.unicauca.dtm.pcapflowparser.io.BinaryPacketIATReader;
+import co.edu.unicauca.dtm.pcapflowparser.io.CompressedInput;
+import co.edu.unicauca.dtm.pcapflowparser.io.PeekableChannel;
+import co.edu.unicauca.dtm.pcapflowparser.model.PacketIATFeature;
+import co.edu.unicauca.dtm.pcapflowparser.util.Utils;
+
+/**
+ * Converter of a binary packet IAT report, generated with the option
+ * '--iatFormat binary' of the parser, to the CSV packet IAT report. The report
+ * may be compressed with gzip, zstd or LZ4.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class IATReportConverter {
+
+	/**
+	 * 
+	 */
+	private static final Map<String, Integer> options;
+	static {
+		options = new HashMap<String, Integer>();
+		options.put("--help", 0);
+		options.put("--in", 1);
+		options.put("--out", 2);
+	}
+
+	/**
+	 * 
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		String inPath = null;
+		String outPath = null;
+		// Get parameters from arguments
+		for (int i = 0; i < args.length; i++) {
+			// Check that given option exists
+			int option = 0;
+			if (options.containsKey(args[i])) {
+				option = options.get(args[i]);
+				i++;
+			} else {
+				System.out.println("Option " + args[i] + " does not exist");
+				printHelp();
+				System.exit(1);
+			}
+			if (option != 0 && i == args.length) {
+				System.out.println("Option " + args[i - 1] + " requires a value");
+				printHelp();
+				System.exit(1);
+			}
+			// Set parameter corresponding to option
+			switch (option) {
+			case 0:
+				printHelp();
+				System.exit(1);
+				break;
+			case 1:
+				inPath = args[i];
+				break;
+			case 2:
+				outPath = args[i];
+				break;
+			default:
+				System.err.println("Internal error. Option " + option + " is not implemented");
+				System.exit(1);
+				break;
+			}
+		}
+		// Check that the binary report exists
+		if (inPath == null) {
+			System.out.println("Option '--in' is required");
+			printHelp();
+			System.exit(1);
+		}
+		File inFile = new File(inPath);
+		if (!inFile.isFile()) {
+			System.out.println("Binary packet IAT report '" + inFile.getAbsolutePath() + "' does not exist");
+			System.exit(1);
+		}
+		// By default, write the CSV report next to the binary report
+		File outFile = new File(outPath != null ? outPath : Utils.getFilePath(inFile.getAbsoluteFile(), ".csv"));
+		if (outFile.getAbsoluteFile().getParentFile() != null && !outFile.getAbsoluteFile().getParentFile().exists()) {
+			System.out.println("Creating output parent folder path '" + outFile.getAbsoluteFile().getParent() + "'");
+			outFile.getAbsoluteFile().getParentFile().mkdirs();
+		}
+		if (outFile.exists()) {
+			System.out.println("Overriding existing output file '" + outFile.getName() + "'");
+		}
+		// Convert records
+		long startTime = System.currentTimeMillis();
+		long nRecords = 0;
+		BinaryPacketIATReader reader = null;
+		OutputStream output = null;
+		try {
+			PeekableChannel input = new PeekableChannel(new FileInputStream(inFile).getChannel(), 4);
+			reader = new BinaryPacketIATReader(
+					Channels.newInputStream(CompressedInput.open(input, inFile.getName())));
+			output = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 20);
+			output.write(String.valueOf(PacketIATFeature.csvHeader() + "\n").getBytes());
+			StringBuilder line = new StringBuilder(128);
+			while (reader.next()) {
+				line.setLength(0);
+				line.append(reader.getFlowId()).append(",");
+				line.append(reader.getPacketNumber()).append(",");
+				line.append(reader.getIat()).append("\n");
+				output.write(line.toString().getBytes());
+				nRecords++;
+			}
+			output.close();
+			reader.close();
+		} catch (IOException e) {
+			System.err.println("Error converting file '" + inFile.getAbsolutePath() + "': " + e.getMessage());
+			System.exit(1);
+		}
+		long endTime = System.currentTimeMillis();
+		System.out.println("Done! " + nRecords + " packet IATs written to '" + outFile.getAbsolutePath() + "' in "
+				+ (endTime - startTime) / 1000.0 + " seconds");
+	}
+
+	/**
+	 * Prints help
+	 */
+	private static void printHelp() {
+		System.out.println("");
+		System.out.println("==================");
+		System.out.println("IATReportConverter");
+		System.out.println("==================");
+		System.out.println("Options:");
+		System.out.println("  --help\tDisplay this help");
+		System.out.println(
+				"  --in\t\tBinary packet IAT report ('_packetIAT.bin') to convert, also compressed with gzip, zstd or LZ4");
+		System.out.println(
+				"  --out\t\tCSV packet IAT report to write (default: the binary report path with the '.csv' extension)");
+	}
+
+}
@@ -20,13 +20,32 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
+import co.edu.unicauca.dtm.pcapflowparser.io.AsyncOutputWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.BinaryPacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.CsvFlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.CsvPacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.FlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.PacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.ParallelCompressedOutputStream;
+import co.edu.unicauca.dtm.pcapflowparser.io.ParquetFlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.manager.Checkpoint;
+import co.edu.unicauca.dtm.pcapflowparser.manager.FlowAggregator;
 import co.edu.unicauca.dtm.pcapflowparser.manager.FlowManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.FlowSampler;
+import co.edu.unicauca.dtm.pcapflowparser.manager.OffHeapFlowManager;
 import co.edu.unicauca.dtm.pcapflowparser.manager.PacketManager;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketMerger;
+import co.edu.unicauca.dtm.pcapflowparser.manager.PacketSource;
+import co.edu.unicauca.dtm.pcapflowparser.manager.ShardedFlowManager;
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics;
 import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
 import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
 import co.edu.unicauca.dtm.pcapflowparser.util.Utils;
@@ -57,6 +76,27 @@ public class PCAPFlowParser {
 		options.put("--include", 6);
 		options.put("--exclude", 7);
 		options.put("--iatReport", 8);
+		options.put("--reader", 9);
+		options.put("--historyTO", 10);
+		options.put("--shards", 11);
+		options.put("--merge", 12);
+		options.put("--outBuffer", 13);
+		options.put("--outFlush", 14);
+		options.put("--format", 15);
+		options.put("--parquetCodec", 16);
+		options.put("--parquetRowGroup", 17);
+		options.put("--offHeap", 18);
+		options.put("--memBudget", 19);
+		options.put("--spillDir", 20);
+		options.put("--progress", 21);
+		options.put("--checkpoint", 22);
+		options.put("--resume", 23);
+		options.put("--bidirectional", 24);
+		options.put("--compress", 25);
+		options.put("--iatFormat", 26);
+		options.put("--sampleFlows", 27);
+		options.put("--samplePackets", 28);
+		options.put("--quantiles", 29);
 	}
 
 	/**
@@ -69,6 +109,32 @@ public class PCAPFlowParser {
 	 */
 	private static final String FEATURE_NONE = "none";
 
+	/**
+	 * Number of packets after which the reading thread publishes its counters to
+	 * the metrics; a power of two
+	 */
+	private static final int METRICS_BATCH = 4096;
+
+	/**
+	 * Output format of flows as CSV lines
+	 */
+	private static final String FORMAT_CSV = "csv";
+
+	/**
+	 * Output format of flows as Parquet rows
+	 */
+	private static final String FORMAT_PARQUET = "parquet";
+
+	/**
+	 * Format of the packet IAT report as CSV lines
+	 */
+	private static final String IAT_FORMAT_CSV = "csv";
+
+	/**
+	 * Format of the packet IAT report as binary records
+	 */
+	private static final String IAT_FORMAT_BINARY = "binary";
+
 	/**
 	 * 
 	 * 
@@ -81,13 +147,52 @@ public class PCAPFlowParser {
 		// Define default timeouts in seconds
 		String sFlowActiveTimeout = "0";
 		String sFlowIdleTimeout = "0";
+		String sFlowHistoryTimeout = null;
 		// Define default number of first packets to collect info
 		String sNFirstPackets = "0";
+		// Define default number of flow manager shards
+		String sNShards = "1";
+		// By default, keep flows in a heap table instead of an off-heap table of
+		// fixed capacity
+		String sOffHeapCapacity = "0";
+		// By default, do not limit the memory of flows; spill files are created in
+		// the output folder
+		String sMemBudget = "0";
+		String spillPath = null;
+		// By default, aggregate all flows and packets instead of 1 in N
+		String sFlowSampling = "1";
+		String sPacketSampling = "1";
+		// By default, do not print progress lines
+		String sProgressInterval = "0";
+		// By default, do not write checkpoints nor resume from one
+		String sCheckpointInterval = "0";
+		boolean resume = false;
+		// Define default size in kilobytes of output buffers and flush interval in
+		// milliseconds
+		String sOutBufferSize = String.valueOf(AsyncOutputWriter.DEFAULT_BUFFER_SIZE / 1024);
+		String sOutFlushInterval = String.valueOf(AsyncOutputWriter.DEFAULT_FLUSH_INTERVAL);
 		// Define default features to include and exclude
 		String featureInclude = FEATURE_ALL;
 		String featureExclude = FEATURE_NONE;
+		// By default, write flows in CSV format
+		String outFormat = FORMAT_CSV;
+		// Define default Parquet compression codec and row group size in megabytes
+		String parquetCodec = ParquetFlowWriter.DEFAULT_CODEC;
+		String sParquetRowGroupSize = String.valueOf(ParquetFlowWriter.DEFAULT_ROW_GROUP_SIZE);
+		// By default, do not compress the CSV output results
+		ParallelCompressedOutputStream.Codec compressCodec = null;
 		// By default, do not generate the report of packet IATs
 		boolean iatReport = false;
+		// By default, write the report of packet IATs in CSV format
+		String iatFormat = null;
+		// By default, parse the files of a folder one after another
+		boolean merge = false;
+		// By default, do not add the quantile features to the included features
+		boolean quantiles = false;
+		// By default, aggregate each direction of a flow in a separate flow
+		boolean bidirectional = false;
+		// By default, read PCAP files through jnetpcap
+		PacketManager.Backend readerBackend = PacketManager.Backend.JNETPCAP;
 		// Get parameters from arguments
 		for (int i = 0; i < args.length; i++) {
 			// Check that given option exists
@@ -141,6 +246,98 @@ public class PCAPFlowParser {
 				iatReport = true;
 				i--;
 				break;
+			case 9:
+				readerBackend = PacketManager.Backend.byName(args[i]);
+				if (readerBackend == null) {
+					System.out.println("Value '" + args[i] + "' is not applicable to the option '--reader'");
+					printHelp();
+					System.exit(1);
+				}
+				break;
+			case 10:
+				sFlowHistoryTimeout = args[i];
+				break;
+			case 11:
+				sNShards = args[i];
+				break;
+			case 12:
+				merge = true;
+				i--;
+				break;
+			case 13:
+				sOutBufferSize = args[i];
+				break;
+			case 14:
+				sOutFlushInterval = args[i];
+				break;
+			case 15:
+				outFormat = args[i].toLowerCase();
+				if (!outFormat.equals(FORMAT_CSV) && !outFormat.equals(FORMAT_PARQUET)) {
+					System.out.println("Value '" + args[i] + "' is not applicable to the option '--format'");
+					printHelp();
+					System.exit(1);
+				}
+				break;
+			case 16:
+				parquetCodec = args[i];
+				if (ParquetFlowWriter.codecByName(parquetCodec) == null) {
+					System.out.println("Value '" + args[i] + "' is not applicable to the option '--parquetCodec'");
+					printHelp();
+					System.exit(1);
+				}
+				break;
+			case 17:
+				sParquetRowGroupSize = args[i];
+				break;
+			case 18:
+				sOffHeapCapacity = args[i];
+				break;
+			case 19:
+				sMemBudget = args[i];
+				break;
+			case 20:
+				spillPath = args[i];
+				break;
+			case 21:
+				sProgressInterval = args[i];
+				break;
+			case 22:
+				sCheckpointInterval = args[i];
+				break;
+			case 23:
+				resume = true;
+				i--;
+				break;
+			case 24:
+				bidirectional = true;
+				i--;
+				break;
+			case 25:
+				compressCodec = ParallelCompressedOutputStream.Codec.byName(args[i]);
+				if (compressCodec == null) {
+					System.out.println("Value '" + args[i] + "' is not applicable to the option '--compress'");
+					printHelp();
+					System.exit(1);
+				}
+				break;
+			case 26:
+				iatFormat = args[i];
+				if (!iatFormat.equals(IAT_FORMAT_CSV) && !iatFormat.equals(IAT_FORMAT_BINARY)) {
+					System.out.println("Value '" + iatFormat + "' is not applicable to the option '--iatFormat'");
+					printHelp();
+					System.exit(1);
+				}
+				break;
+			case 27:
+				sFlowSampling = args[i];
+				break;
+			case 28:
+				sPacketSampling = args[i];
+				break;
+			case 29:
+				quantiles = true;
+				i--;
+				break;
 			default:
 				System.err.println("Internal error. Option " + option + " is not implemented");
 				System.exit(1);
@@ -150,7 +347,7 @@ public class PCAPFlowParser {
 		// Get features to include
 		Set<Integer> features = null;
 		if (featureInclude.equalsIgnoreCase(FEATURE_ALL)) {
-			features = FlowFeature.allFeatureIds();
+			features = FlowFeature.allFeatureIds(bidirectional);
 		} else {
 			features = FlowFeature.featureIdByName(featureInclude);
 			if (features == null) {
@@ -160,6 +357,10 @@ public class PCAPFlowParser {
 				System.exit(1);
 			}
 		}
+		// Add the quantile features, which are not part of all features
+		if (quantiles) {
+			features.addAll(FlowFeature.quantileFeatureIds());
+		}
 		// Get the features to exclude
 		if (!featureExclude.equalsIgnoreCase(FEATURE_NONE)) {
 			Set<Integer> excludeIds = FlowFeature.featureIdByName(featureExclude);
@@ -173,32 +374,79 @@ public class PCAPFlowParser {
 				features.remove(excludeId);
 			}
 		}
-		// Check if PCAP path exists
+		// Check that the features of each direction are only included for
+		// bidirectional flows
+		if (!bidirectional) {
+			for (FlowFeature feature : FlowFeature.values()) {
+				if (feature.isDirectional() && features.contains(feature.getId())) {
+					System.out.println("Feature '" + feature.getName()
+							+ "' is only applicable with the option '--bidirectional'");
+					printHelp();
+					System.exit(1);
+				}
+			}
+		}
+		// Parquet files compress their own columns
+		if (compressCodec != null && outFormat.equals(FORMAT_PARQUET)) {
+			System.out.println("Option '--compress' is not applicable with the Parquet format in '--format'");
+			printHelp();
+			System.exit(1);
+		}
+		// The format of the packet IAT report requires the report
+		if (iatFormat != null && !iatReport) {
+			System.out.println("Option '--iatFormat' is only applicable with the option '--iatReport'");
+			printHelp();
+			System.exit(1);
+		}
+		boolean binaryIAT = IAT_FORMAT_BINARY.equals(iatFormat);
+		// Extension of the output results
+		String outExtension = "." + outFormat + (compressCodec != null ? compressCodec.getExtension() : "");
+		// Check if PCAP path exists; the standard input is read as a single stream
 		File pcapFile = new File(pcapPath);
+		boolean stdin = pcapPath.equals(PacketManager.STDIN);
 		String pcapName = "";
-		if (pcapFile.exists()) {
-			// Get PCAP file/folder name with CSV extension
-			pcapName = Utils.getFileName(pcapFile, ".csv");
+		if (stdin) {
+			pcapName = "stdin" + outExtension;
+			if (merge) {
+				System.out.println("Option '--merge' is not applicable with the standard input in '--pcap'");
+				printHelp();
+				System.exit(1);
+			}
+		} else if (pcapFile.exists()) {
+			// Get PCAP file/folder name with the extension of the output format
+			pcapName = Utils.getFileName(pcapFile, outExtension);
 		} else {
 			System.out.println("PCAP path '" + pcapPath + "' does not exist");
 			System.exit(1);
 		}
-		// Check if output path exists
+		// Add the extension of the compression codec to an output file, as to the files in a folder
 		File outFile = new File(outPath);
+		if (compressCodec != null && !outFile.isDirectory() && outFile.getName().matches(".+\\..+")
+				&& !outFile.getName().endsWith(compressCodec.getExtension())) {
+			for (ParallelCompressedOutputStream.Codec codec : ParallelCompressedOutputStream.Codec.values()) {
+				if (outFile.getName().endsWith(codec.getExtension())) {
+					System.out.println("Output file '" + outPath + "' is not applicable with the codec '"
+							+ compressCodec.getName() + "' in '--compress'");
+					printHelp();
+					System.exit(1);
+				}
+			}
+			outPath += compressCodec.getExtension();
+			outFile = new File(outPath);
+		}
+		// Check if output path exists
 		if (outFile.exists()) {
 			if (outFile.isDirectory()) {
 				System.out.println("Output path '" + outPath + "' points to an existing folder");
 				System.out.println("Creating output file '" + pcapName + "' in this folder path");
 				outFile = new File(outFile.getAbsolutePath() + File.separator + pcapName);
 				if (outFile.exists()) {
-					System.out.println("Overriding existing output file '" + outFile.getName() + "'");
-					outFile.delete();
+					replaceFile(outFile, resume);
 				}
 				createFile(outFile);
 			} else {
 				System.out.println("Output path '" + outPath + "' points to an existing file");
-				System.out.println("Overriding existing output file '" + outFile.getName() + "'");
-				outFile.delete();
+				replaceFile(outFile, resume);
 				createFile(outFile);
 			}
 		} else {
@@ -240,6 +488,17 @@ public class PCAPFlowParser {
 			System.out.println("Error parsing flow idle timeout = " + sFlowIdleTimeout
 					+ " to integer. Using default flow idle timeout = " + flowIdleTimeout + " seconds");
 		}
+		// Parse flow history timeout to integer
+		// The history is kept as long as the longest timeout by default, so it stays bounded
+		int flowHistoryTimeout;
+		try {
+			flowHistoryTimeout = sFlowHistoryTimeout == null ? Math.max(flowActiveTimeout, flowIdleTimeout)
+					: Integer.parseInt(sFlowHistoryTimeout);
+		} catch (Exception e) {
+			flowHistoryTimeout = Math.max(flowActiveTimeout, flowIdleTimeout);
+			System.out.println("Error parsing flow history timeout = " + sFlowHistoryTimeout
+					+ " to integer. Using default flow history timeout = " + flowHistoryTimeout + " seconds");
+		}
 		// Parse initial packets to integer
 		int nFirstPackets;
 		try {
@@ -249,31 +508,366 @@ public class PCAPFlowParser {
 			System.out.println("Error parsing number of initial packets = " + sNFirstPackets
 					+ " to integer. Using default number of initial packets = " + nFirstPackets);
 		}
+		// Parse number of shards to integer
+		int nShards;
+		try {
+			nShards = Integer.parseInt(sNShards);
+		} catch (Exception e) {
+			nShards = 1;
+			System.out.println("Error parsing number of shards = " + sNShards
+					+ " to integer. Using default number of shards = " + nShards);
+		}
+		if (nShards < 1) {
+			nShards = 1;
+			System.out.println("Number of shards must be positive. Using default number of shards = " + nShards);
+		}
+		// Parse capacity of the off-heap flow table to integer
+		int offHeapCapacity;
+		try {
+			offHeapCapacity = Integer.parseInt(sOffHeapCapacity);
+		} catch (Exception e) {
+			offHeapCapacity = 0;
+			System.out.println("Error parsing capacity of the off-heap flow table = " + sOffHeapCapacity
+					+ " to integer. Using the heap flow table");
+		}
+		if (offHeapCapacity < 0 || offHeapCapacity > OffHeapFlowManager.MAX_CAPACITY) {
+			offHeapCapacity = 0;
+			System.out.println("Capacity of the off-heap flow table must be between 1 and "
+					+ OffHeapFlowManager.MAX_CAPACITY + ". Using the heap flow table");
+		}
+		if (offHeapCapacity > 0 && nShards > 1) {
+			System.out.println("Option '--offHeap' is not applicable with more than one shard in '--shards'");
+			printHelp();
+			System.exit(1);
+		}
+		if (offHeapCapacity > 0 && bidirectional) {
+			System.out.println("Option '--offHeap' is not applicable with '--bidirectional'");
+			printHelp();
+			System.exit(1);
+		}
+		// Slots of the off-heap flow table have a fixed size, which does not fit
+		// quantile sketches
+		if (offHeapCapacity > 0 && FlowFeature.hasQuantiles(features)) {
+			System.out.println("Option '--offHeap' is not applicable with the quantile features");
+			printHelp();
+			System.exit(1);
+		}
+		// Parse memory budget of flows to integer
+		int memBudget;
+		try {
+			memBudget = Integer.parseInt(sMemBudget);
+		} catch (Exception e) {
+			memBudget = 0;
+			System.out.println("Error parsing memory budget of flows = " + sMemBudget
+					+ " to integer. Using no memory budget");
+		}
+		if (memBudget < 0) {
+			memBudget = 0;
+			System.out.println("Memory budget of flows must be positive. Using no memory budget");
+		}
+		if (memBudget > 0 && offHeapCapacity > 0) {
+			System.out.println("Option '--memBudget' is not applicable with '--offHeap'");
+			printHelp();
+			System.exit(1);
+		}
+		// Parse flow and packet sampling rates to integer; invalid rates are not
+		// replaced by defaults, since they would silently parse all packets
+		int flowSampling = parseSamplingRate(sFlowSampling, "--sampleFlows");
+		int packetSampling = parseSamplingRate(sPacketSampling, "--samplePackets");
+		// Parse size of output buffers to integer
+		int outBufferSize;
+		try {
+			outBufferSize = Integer.parseInt(sOutBufferSize);
+		} catch (Exception e) {
+			outBufferSize = AsyncOutputWriter.DEFAULT_BUFFER_SIZE / 1024;
+			System.out.println("Error parsing size of output buffers = " + sOutBufferSize
+					+ " to integer. Using default size of output buffers = " + outBufferSize + " KB");
+		}
+		if (outBufferSize < 1 || outBufferSize > Integer.MAX_VALUE / 1024) {
+			outBufferSize = AsyncOutputWriter.DEFAULT_BUFFER_SIZE / 1024;
+			System.out.println("Size of output buffers must be positive. Using default size of output buffers = "
+					+ outBufferSize + " KB");
+		}
+		// Parse output flush interval to integer
+		int outFlushInterval;
+		try {
+			outFlushInterval = Integer.parseInt(sOutFlushInterval);
+		} catch (Exception e) {
+			outFlushInterval = AsyncOutputWriter.DEFAULT_FLUSH_INTERVAL;
+			System.out.println("Error parsing output flush interval = " + sOutFlushInterval
+					+ " to integer. Using default output flush interval = " + outFlushInterval + " milliseconds");
+		}
+		// Parse Parquet row group size to integer
+		int parquetRowGroupSize;
+		try {
+			parquetRowGroupSize = Integer.parseInt(sParquetRowGroupSize);
+		} catch (Exception e) {
+			parquetRowGroupSize = ParquetFlowWriter.DEFAULT_ROW_GROUP_SIZE;
+			System.out.println("Error parsing Parquet row group size = " + sParquetRowGroupSize
+					+ " to integer. Using default Parquet row group size = " + parquetRowGroupSize + " MB");
+		}
+		if (parquetRowGroupSize < 1) {
+			parquetRowGroupSize = ParquetFlowWriter.DEFAULT_ROW_GROUP_SIZE;
+			System.out.println("Parquet row group size must be positive. Using default Parquet row group size = "
+					+ parquetRowGroupSize + " MB");
+		}
+		// Parse interval of progress lines to integer
+		int progressInterval;
+		try {
+			progressInterval = Integer.parseInt(sProgressInterval);
+		} catch (Exception e) {
+			progressInterval = 0;
+			System.out.println("Error parsing progress interval = " + sProgressInterval
+					+ " to integer. Printing no progress lines");
+		}
+		if (progressInterval < 0) {
+			progressInterval = 0;
+			System.out.println("Progress interval must be positive. Printing no progress lines");
+		}
+		// Parse interval of checkpoints in files to integer
+		int checkpointInterval;
+		try {
+			checkpointInterval = Integer.parseInt(sCheckpointInterval);
+		} catch (Exception e) {
+			checkpointInterval = 0;
+			System.out.println("Error parsing checkpoint interval = " + sCheckpointInterval
+					+ " to integer. Writing no checkpoints");
+		}
+		if (checkpointInterval < 0) {
+			checkpointInterval = 0;
+			System.out.println("Checkpoint interval must be positive. Writing no checkpoints");
+		}
+		// Checkpoints hold the state of a single heap flow manager between files
+		// appended to a CSV output
+		if (checkpointInterval > 0 || resume) {
+			String option = resume ? "--resume" : "--checkpoint";
+			String conflict = null;
+			if (merge) {
+				conflict = "'--merge'";
+			} else if (stdin) {
+				conflict = "the standard input in '--pcap'";
+			} else if (nShards > 1) {
+				conflict = "more than one shard in '--shards'";
+			} else if (offHeapCapacity > 0) {
+				conflict = "'--offHeap'";
+			} else if (outFormat.equals(FORMAT_PARQUET)) {
+				conflict = "the Parquet format in '--format'";
+			}
+			if (conflict != null) {
+				System.out.println("Option '" + option + "' is not applicable with " + conflict);
+				printHelp();
+				System.exit(1);
+			}
+		}
 		// Check if report of packet IATs must be generated
 		File iatFile = null;
 		if (iatReport) {
-			String iatPath = Utils.getFilePath(outFile, "_packetIAT.csv");
+			String iatPath = Utils.getFilePath(outFile, "_packetIAT." + (binaryIAT ? "bin" : IAT_FORMAT_CSV)
+					+ (compressCodec != null ? compressCodec.getExtension() : ""));
 			iatFile = new File(iatPath);
 			System.out.println("Creating packet IAT report file '" + iatFile.getName() + "' in the output folder path");
-			if (iatFile.exists()) {
+			if (iatFile.exists() && !resume) {
 				System.out.println("Overriding existing packet IAT report file '" + iatFile.getName() + "'");
 				iatFile.delete();
 			}
 			createFile(iatFile);
 		}
+		// Options that determine the results, which must match those of a resumed
+		// checkpoint
+		String checkpointOptions = "pcap=" + pcapFile.getAbsolutePath() + ",activeTO=" + flowActiveTimeout
+				+ ",idleTO=" + flowIdleTimeout + ",historyTO=" + flowHistoryTimeout + ",nFirst=" + nFirstPackets
+				+ ",features=" + new TreeSet<Integer>(features) + ",iatReport=" + iatReport + ",iatFormat="
+				+ (binaryIAT ? IAT_FORMAT_BINARY : IAT_FORMAT_CSV) + ",bidirectional=" + bidirectional + ",compress="
+				+ (compressCodec != null ? compressCodec.getName() : "none") + ",sampleFlows=" + flowSampling
+				+ ",samplePackets=" + packetSampling;
+		// Open the checkpoint to resume from, if any
+		File checkpointFile = null;
+		Checkpoint checkpoint = null;
+		if (checkpointInterval > 0 || resume) {
+			checkpointFile = new File(Utils.getFilePath(outFile, "_checkpoint.bin"));
+			// A checkpoint of a previous run does not match the new output results
+			if (!resume && checkpointFile.exists()) {
+				checkpointFile.delete();
+			}
+		}
+		if (resume) {
+			if (!checkpointFile.exists()) {
+				System.out.println("Checkpoint file '" + checkpointFile.getName()
+						+ "' does not exist. Parsing from the first file");
+			} else {
+				try {
+					checkpoint = Checkpoint.open(checkpointFile);
+				} catch (IOException e) {
+					System.out.println("Checkpoint file '" + checkpointFile.getAbsolutePath() + "' can not be read: "
+							+ e.getMessage());
+					System.exit(1);
+				}
+				if (!checkpoint.getOptions().equals(checkpointOptions)) {
+					System.out.println("Checkpoint file '" + checkpointFile.getName()
+							+ "' was written with different options: " + checkpoint.getOptions());
+					System.exit(1);
+				}
+				if (outFile.length() < checkpoint.getOutLength()
+						|| (iatFile != null && iatFile.length() < checkpoint.getIatLength())) {
+					System.out.println("Output files are shorter than recorded in the checkpoint file '"
+							+ checkpointFile.getName() + "'");
+					System.exit(1);
+				}
+				System.out.println("Resuming from checkpoint file '" + checkpointFile.getName() + "' after file '"
+						+ checkpoint.getLastFile() + "'");
+			}
+		}
 		System.out.println("");
 		// ---------------------
 		// Start parsing process
 		long start = System.currentTimeMillis();
+		// Writers of the output results; a resumed run appends to the output
+		// results as they were at the checkpoint
+		FlowWriter flowWriter = null;
+		AsyncOutputWriter csvOutput = null;
+		AsyncOutputWriter iatOutput = null;
+		PacketIATWriter iatWriter = null;
+		FileOutputStream outStream = null;
+		FileOutputStream iatStream = null;
+		try {
+			if (outFormat.equals(FORMAT_PARQUET)) {
+				ParquetFlowWriter parquetWriter = new ParquetFlowWriter(outFile, features, nFirstPackets,
+						parquetCodec, parquetRowGroupSize * 1024L * 1024L);
+				parquetWriter.setPacketScale(packetSampling);
+				flowWriter = parquetWriter;
+			} else {
+				if (checkpoint != null) {
+					truncateFile(outFile, checkpoint.getOutLength());
+				}
+				outStream = new FileOutputStream(outFile, checkpoint != null);
+				csvOutput = new AsyncOutputWriter(compressed(outStream, compressCodec), outBufferSize * 1024,
+						outFlushInterval);
+				CsvFlowWriter csvWriter = new CsvFlowWriter(csvOutput, features, nFirstPackets, checkpoint == null);
+				csvWriter.setPacketScale(packetSampling);
+				flowWriter = csvWriter;
+			}
+			if (iatFile != null) {
+				if (checkpoint != null) {
+					truncateFile(iatFile, checkpoint.getIatLength());
+				}
+				iatStream = new FileOutputStream(iatFile, checkpoint != null);
+				iatOutput = new AsyncOutputWriter(compressed(iatStream, compressCodec), outBufferSize * 1024,
+						outFlushInterval);
+				if (binaryIAT) {
+					iatWriter = new BinaryPacketIATWriter(iatOutput, checkpoint == null);
+				} else {
+					iatWriter = new CsvPacketIATWriter(iatOutput, checkpoint == null);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Internal error. Exception thrown when opening the output files: " + e.getMessage());
+			System.exit(1);
+		}
+		// Spill file of the flows over the memory budget
+		File spillFile = null;
+		if (memBudget > 0) {
+			File spillDir = spillPath != null ? new File(spillPath) : outFile.getAbsoluteFile().getParentFile();
+			if (!spillDir.isDirectory() && !spillDir.mkdirs()) {
+				System.out.println("Spill folder '" + spillDir.getAbsolutePath() + "' can not be created");
+				System.exit(1);
+			}
+			spillFile = new File(spillDir, outFile.getName() + ".spill");
+		}
 		// Flow manager
-		FlowManager flowManager = new FlowManager(outFile, flowActiveTimeout, flowIdleTimeout, features, nFirstPackets,
-				iatFile);
+		FlowAggregator flowManager = null;
+		FlowManager singleManager = null;
+		if (nShards > 1) {
+			System.out.println("Aggregating flows in " + nShards + " shards");
+			ShardedFlowManager shardedManager = new ShardedFlowManager(nShards, flowWriter, iatWriter,
+					flowActiveTimeout, flowIdleTimeout, flowHistoryTimeout, features, nFirstPackets);
+			shardedManager.setBidirectional(bidirectional);
+			if (spillFile != null) {
+				try {
+					shardedManager.setMemoryBudget(memBudget * 1024L * 1024L, spillFile);
+				} catch (IOException e) {
+					System.err.println("Internal error. Exception thrown when creating the spill files: "
+							+ e.getMessage());
+					System.exit(1);
+				}
+				System.out.println("Keeping up to " + shardedManager.getMaxFlows()
+						+ " flows in memory; the least recently used ones are spilled to '" + spillFile.getPath()
+						+ ".*'");
+			}
+			flowManager = shardedManager;
+		} else if (offHeapCapacity > 0) {
+			OffHeapFlowManager offHeapManager = null;
+			try {
+				offHeapManager = new OffHeapFlowManager(flowWriter, iatWriter, offHeapCapacity, flowActiveTimeout,
+						flowIdleTimeout, flowHistoryTimeout, features, nFirstPackets);
+			} catch (IllegalArgumentException | OutOfMemoryError e) {
+				System.err.println("Error allocating the off-heap flow table: " + e.getMessage());
+				System.exit(1);
+			}
+			System.out.println("Aggregating up to " + offHeapCapacity + " flows in an off-heap table of "
+					+ (offHeapManager.getMemorySize() / (1024 * 1024)) + " MB");
+			flowManager = offHeapManager;
+		} else {
+			singleManager = new FlowManager(flowWriter, iatWriter, flowActiveTimeout, flowIdleTimeout,
+					flowHistoryTimeout, features, nFirstPackets);
+			singleManager.setBidirectional(bidirectional);
+			if (spillFile != null) {
+				try {
+					singleManager.setMemoryBudget(memBudget * 1024L * 1024L, spillFile);
+				} catch (IOException e) {
+					System.err.println("Internal error. Exception thrown when creating the spill file: "
+							+ e.getMessage());
+					System.exit(1);
+				}
+				System.out.println("Keeping up to " + singleManager.getMaxFlows()
+						+ " flows in memory; the least recently used ones are spilled to '" + spillFile.getPath()
+						+ "'");
+			}
+			if (checkpoint != null) {
+				try {
+					checkpoint.restore(singleManager);
+				} catch (IOException e) {
+					System.out.println("Checkpoint file '" + checkpointFile.getAbsolutePath() + "' can not be read: "
+							+ e.getMessage());
+					System.exit(1);
+				}
+			}
+			flowManager = singleManager;
+		}
+		// Sample flows and packets before they reach the flow manager
+		if (flowSampling > 1 || packetSampling > 1) {
+			if (flowSampling > 1) {
+				System.out.println("Sampling 1 in " + flowSampling + " flows by their flow identifier");
+			}
+			if (packetSampling > 1) {
+				System.out.println("Sampling 1 in " + packetSampling
+						+ " packets; packet and byte counters of flows are scaled by " + packetSampling);
+			}
+			FlowSampler sampler = new FlowSampler(flowManager, flowSampling, packetSampling);
+			sampler.setBidirectional(bidirectional);
+			flowManager = sampler;
+		}
+		// Live metrics, exposed through JMX and the progress lines
+		ParserMetrics metrics = new ParserMetrics(new File[] { outFile, iatFile }, progressInterval);
+		metrics.setFlowManager(flowManager);
+		flowManager.setMetrics(metrics);
+		metrics.start();
 		// Report parameters
 		int nValidFiles = 0;
 		int nErrorFiles = 0;
 		long nPackets = 0;
 		long nValidPackets = 0;
 		long nErrorPackets = 0;
+		long nBytes = 0;
+		long captureTime = -1;
+		if (checkpoint != null) {
+			nValidFiles = checkpoint.getNValidFiles();
+			nErrorFiles = checkpoint.getNErrorFiles();
+			nPackets = checkpoint.getNPackets();
+			nValidPackets = checkpoint.getNValidPackets();
+			nErrorPackets = checkpoint.getNErrorPackets();
+			nBytes = checkpoint.getNBytes();
+			captureTime = checkpoint.getCaptureTime();
+		}
 		// Get the PCAP files
 		File[] pcapFiles = { pcapFile };
 		if (pcapFile.isDirectory()) {
@@ -281,40 +875,112 @@ public class PCAPFlowParser {
 			Arrays.sort(pcapFiles);
 			System.out.println(
 					"Processing " + pcapFiles.length + " files in folder '" + pcapFile.getAbsolutePath() + "'");
+		} else if (stdin) {
+			System.out.println("Processing the standard input");
 		} else {
 			System.out.println("Processing file '" + pcapFile.getAbsolutePath() + "'");
 		}
 		int nFiles = pcapFiles.length;
-		for (File pcap : pcapFiles) {
-			System.out.println("Parsing file: '" + pcap.getName() + "' ...");
-			// Read and check PCAP file
-			PacketManager packetMgr = new PacketManager();
-			if (!packetMgr.config(pcap.getAbsolutePath())) {
-				nErrorFiles++;
-				System.err.println("Error while opening file: " + pcap.getName());
+		// Continue with the file after the last one parsed before the checkpoint
+		int firstFile = 0;
+		if (checkpoint != null) {
+			firstFile = checkpoint.getNextFile();
+			if (firstFile < 1 || firstFile > nFiles
+					|| !pcapFiles[firstFile - 1].getName().equals(checkpoint.getLastFile())) {
+				System.out.println("Checkpoint file '" + checkpointFile.getName() + "' does not match the files in '"
+						+ pcapFile.getAbsolutePath() + "'");
+				System.exit(1);
+			}
+			System.out.println("Skipping " + firstFile + " files parsed before the checkpoint");
+		}
+		// Decode Ethernet addresses of IP packets only if a feature reports them
+		boolean ethAddresses = features.contains(FlowFeature.ETH_SRC.getId())
+				|| features.contains(FlowFeature.ETH_DST.getId());
+		// Merge all files in a single source, or parse each file as a source
+		int nSources = merge ? 1 : nFiles;
+		for (int f = firstFile; f < nSources; f++) {
+			PacketSource source;
+			String sourceName;
+			if (merge) {
+				System.out.println("Merging " + nFiles + " files by packet timestamp ...");
+				PacketMerger merger = new PacketMerger(readerBackend, ethAddresses);
+				nValidFiles = merger.config(pcapFiles);
+				nErrorFiles = nFiles - nValidFiles;
+				source = merger;
+				sourceName = pcapFile.getName();
 			} else {
+				File pcap = pcapFiles[f];
+				sourceName = stdin ? "stdin" : pcap.getName();
+				System.out.println("Parsing file: '" + sourceName + "' ...");
+				// Read and check PCAP file
+				PacketManager packetMgr = new PacketManager(readerBackend, ethAddresses);
+				if (!packetMgr.config(stdin ? PacketManager.STDIN : pcap.getAbsolutePath())) {
+					nErrorFiles++;
+					System.err.println("Error while opening file: " + sourceName);
+					continue;
+				}
 				nValidFiles++;
-				while (true) {
-					// Read next packet and check validity
-					Packet packet = packetMgr.nextPacket();
-					if (packet == null) {
-						nErrorPackets++;
-					} else {
-						// Check end of file
-						if (packet.getTimestamp() == -1) {
-							System.out.println("\t... end of file: '" + pcap.getName() + "'");
-							break;
-						}
-						nValidPackets++;
-						// Process packet in terms of flows
-						flowManager.addPacket(packet);
+				source = packetMgr;
+			}
+			while (true) {
+				// Read next packet and check validity
+				Packet packet = source.nextPacket();
+				if (packet == null) {
+					nErrorPackets++;
+				} else {
+					// Check end of file
+					if (packet.getTimestamp() == -1) {
+						System.out.println("\t... end of " + (merge ? "merge" : "file") + ": '" + sourceName + "'");
+						source.close();
+						break;
 					}
-					nPackets++;
+					nValidPackets++;
+					nBytes += packet.getSize();
+					captureTime = packet.getTimestamp();
+					// Process packet in terms of flows
+					flowManager.addPacket(packet);
+				}
+				nPackets++;
+				if ((nPackets & (METRICS_BATCH - 1)) == 0) {
+					metrics.updatePackets(nPackets, nErrorPackets, nBytes, captureTime);
+				}
+			}
+			metrics.updatePackets(nPackets, nErrorPackets, nBytes, captureTime);
+			// Write a checkpoint every given number of files, except after the last one
+			if (checkpointInterval > 0 && (f + 1) % checkpointInterval == 0 && f + 1 < nSources) {
+				if (checkpoint == null) {
+					checkpoint = new Checkpoint(checkpointOptions);
+				}
+				checkpoint.setProgress(f + 1, sourceName, nValidFiles, nErrorFiles, nPackets, nValidPackets,
+						nErrorPackets, nBytes, captureTime);
+				try {
+					// Output results before the checkpoint must be on disk
+					csvOutput.sync();
+					outStream.getFD().sync();
+					long iatLength = -1;
+					if (iatOutput != null) {
+						iatOutput.sync();
+						iatStream.getFD().sync();
+						iatLength = iatStream.getChannel().size();
+					}
+					checkpoint.setOutputLengths(outStream.getChannel().size(), iatLength);
+					checkpoint.write(checkpointFile, singleManager);
+				} catch (IOException e) {
+					System.err.println("Error writing the checkpoint file '" + checkpointFile.getAbsolutePath()
+							+ "': " + e.getMessage());
 				}
 			}
 		}
 		// Dump last flows
 		long nFlows = flowManager.dumpLastFlows();
+		if (progressInterval > 0) {
+			System.out.println(metrics.progressLine());
+		}
+		metrics.stop();
+		// The checkpoint is no longer needed once all files are parsed
+		if (checkpointFile != null && checkpointFile.exists()) {
+			checkpointFile.delete();
+		}
 		System.out.println("");
 		// ---------------------
 		// Generate report statistics
@@ -334,6 +1000,11 @@ public class PCAPFlowParser {
 		report.append(" - Error = ").append(nErrorPackets).append("\n");
 		report.append("Flows").append("\n");
 		report.append(" - Total = ").append(nFlows).append("\n");
+		if (flowSampling > 1 || packetSampling > 1) {
+			report.append("Sampling").append("\n");
+			report.append(" - Flows = 1 in ").append(flowSampling).append("\n");
+			report.append(" - Packets = 1 in ").append(packetSampling).append("\n");
+		}
 		// Write report file
 		String reportPath = Utils.getFilePath(outFile, "_report.txt");
 		File reportFile = new File(reportPath);
@@ -365,19 +1036,63 @@ public class PCAPFlowParser {
 		System.out.println("==============");
 		System.out.println("Options:");
 		System.out.println("  --help\tDisplay this help");
-		System.out.println("  --pcap\tFile or folder that contains the captured packets in PCAP format");
-		System.out.println("  --out\t\tFile or folder to output the results. If file, add the extension (e.g., .csv)");
+		System.out.println(
+				"  --pcap\tFile or folder that contains the captured packets in PCAP format. Value '-' reads a PCAP stream from the standard input, and named pipes are read as streams too; flows are exported as they time out while the stream is open");
+		System.out.println(
+				"  --out\t\tFile or folder to output the results. If file, add the extension (e.g., .csv); the extension of the --compress codec is added if missing");
 		System.out.println(
 				"  --activeTO\tTime in seconds after which an active flow is timed out anyway, even if there is still a continuous flow of packets");
 		System.out.println(
 				"  --idleTO\tTime in seconds after which an idle flow is timed out, i.e., if no packets belonging to the flow have been observed for the time specified");
+		System.out.println(
+				"  --historyTO\tTime in seconds after which the timeout history ('prior_tos' and 'time_last_to') of a flow that expired is forgotten. Flows are exported as soon as they time out; defaults to the longest of '--activeTO' and '--idleTO', and 0 keeps the history until the end");
 		System.out.println(
 				"  --nFirst\tNumber of first packets of a flow for generating the following features in the output results: packet size ('size_pkt') and packet IAT ('iat_pkt')");
 		System.out.println(
 				"  --include\tList of features to include in the output results separated by commas (see values below). Value 'none' is not applicable to this option");
 		System.out.println(
 				"  --exclude\tList of features to exclude in the output results separated by commas (see values below). Value 'all' is not applicable to this option");
+		System.out.println(
+				"  --quantiles\tAdd the median, 90th and 99th percentiles of packet size and IAT of each flow ('size_p50', 'size_p90', 'size_p99', 'iat_p50', 'iat_p90', 'iat_p99') to the included features. They are estimated within 2% by a sketch of bounded memory per flow. Not applicable with --offHeap");
+		System.out.println(
+				"  --bidirectional\tAggregate both directions of a flow in a single flow, whose forward direction is that of its first packet (e.g., ip_src is the initiator). Total features cover both directions, and the 'fwd_' and 'bwd_' features cover each one. Not applicable with --offHeap");
+		System.out.println(
+				"  --shards\tNumber of threads that aggregate flows in parallel, each one owning the flows whose identifier hashes to it. Default 1 aggregates flows in the reading thread");
+		System.out.println(
+				"  --offHeap\tMaximum number of concurrent flows (plus expired flows whose timeout history is kept) of an off-heap flow table that replaces the heap one. Its size in direct memory is reported at start (see -XX:MaxDirectMemorySize). Not applicable with --shards. Default 0 uses the heap table");
+		System.out.println(
+				"  --memBudget\tMemory budget in megabytes of the flows kept in memory (estimated), excluding the timeout history of expired flows. When exceeded, the least recently used flows are spilled to disk and read back when they receive another packet, with the same results. Default 0 keeps all flows in memory. Not applicable with --offHeap");
+		System.out.println(
+				"  --spillDir\tFolder of the spill files of --memBudget (default: the output folder)");
+		System.out.println(
+				"  --progress\tInterval in seconds between progress lines with the packet and byte rates, active and exported flows, timeouts, errors, output size, capture time and heap usage. The same metrics are always exposed through JMX as '"
+						+ ParserMetrics.OBJECT_NAME + "'. Default 0 prints no progress lines");
+		System.out.println(
+				"  --checkpoint\tNumber of files of the --pcap folder after which the state of the open flows, the counters and the length of the output results are written to a checkpoint file ('_checkpoint.bin') next to the output results. Only applicable with a single heap flow manager and CSV output, without --merge. Default 0 writes no checkpoints");
+		System.out.println(
+				"  --resume\tResume an interrupted run with the same options from its checkpoint file, continuing with the next unparsed file and appending to the output results, which hold the same flows as those of an uninterrupted run (flows that time out together may be written in another order). Without a checkpoint file, files are parsed from the first one");
+		System.out.println(
+				"  --merge\tRead all files of the --pcap folder at once and parse their packets in global timestamp order, as if they were a single capture. By default, files are parsed one after another in alphabetical order");
+		System.out.println(
+				"  --format\tFormat of the output results: 'csv' (default) or 'parquet', which writes typed columns of the included features");
+		System.out.println(
+				"  --parquetCodec\tCompression codec of the Parquet output: 'snappy' (default), 'gzip', 'zstd', 'lz4_raw' or 'uncompressed'");
+		System.out.println("  --parquetRowGroup\tSize in megabytes of the row groups of the Parquet output (default 128)");
+		System.out.println(
+				"  --outBuffer\tSize in kilobytes of the buffers that collect the CSV output results before a separate thread writes them to disk (default 1024)");
+		System.out.println(
+				"  --outFlush\tTime in milliseconds after which buffered output results are written to disk even if the buffer is not full (default 1000). Value 0 writes them only when a buffer is full");
+		System.out.println(
+				"  --compress\tCompress the CSV output results in independent blocks of 1 MB with a thread per processor: 'gzip' writes a multi-member '.gz' file and 'zstd' a multi-frame '.zst' file, both readable by the standard tools. By default, output results are not compressed");
+		System.out.println(
+				"  --sampleFlows\tAggregate 1 in N flows, chosen by the hash of their flow identifier, so the same flows are sampled across files and runs (default 1, all flows). Sampled flows are complete");
+		System.out.println(
+				"  --samplePackets\tAggregate 1 in N packets, chosen by the hash of their flow identifier and timestamp (default 1, all packets). The packet and byte counters of flows ('tot_pkts', 'tot_size' and their 'fwd_' and 'bwd_' features) are scaled by N; the other features describe the sampled packets");
 		System.out.println("  --iatReport\tGenerate a CSV file that reports the values of packet IATs of flows");
+		System.out.println(
+				"  --iatFormat\tFormat of the packet IAT report: 'csv' (default) or 'binary', a compact '_packetIAT.bin' file that identifies flows by a numeric index and encodes values as varints. The IATReportConverter class converts it to the CSV report");
+		System.out.println(
+				"  --reader\tBackend for reading PCAP files: 'jnetpcap' (default) reads through libpcap; 'nio' reads classic PCAP files through memory-mapped buffers and pcapng files block by block (with per-interface link types and timestamp resolutions, detected by their magic number), also compressed with gzip, zstd or LZ4, without native libraries");
 		System.out.println("");
 		System.out.println("Feature values for the options --include and --exclude:");
 		System.out.println("  all\t\tAll available features. Can not be combined with other feature values");
@@ -400,12 +1115,103 @@ public class PCAPFlowParser {
 		System.out.println("  iat_std\tStandard deviation of flow inter-arrival time (in microseconds)");
 		System.out.println("  iat_max\tMaximum of flow inter-arrival time (in microseconds)");
 		System.out.println("  iat_min\tMinimum of flow inter-arrival time (in microseconds)");
+		System.out.println("  size_p50\tMedian of packet size (in bytes); not included in 'all'");
+		System.out.println("  size_p90\t90th percentile of packet size (in bytes); not included in 'all'");
+		System.out.println("  size_p99\t99th percentile of packet size (in bytes); not included in 'all'");
+		System.out.println("  iat_p50\tMedian of flow inter-arrival time (in microseconds); not included in 'all'");
+		System.out.println(
+				"  iat_p90\t90th percentile of flow inter-arrival time (in microseconds); not included in 'all'");
+		System.out.println(
+				"  iat_p99\t99th percentile of flow inter-arrival time (in microseconds); not included in 'all'");
+		System.out.println("  fwd_size\tForward total size (in bytes). Only with --bidirectional, like all 'fwd_' and 'bwd_' features");
+		System.out.println("  fwd_pkts\tForward total number of packets");
+		System.out.println("  fwd_iat_mean\tMean of forward inter-arrival time (in microseconds)");
+		System.out.println("  fwd_iat_std\tStandard deviation of forward inter-arrival time (in microseconds)");
+		System.out.println("  fwd_iat_max\tMaximum of forward inter-arrival time (in microseconds)");
+		System.out.println("  fwd_iat_min\tMinimum of forward inter-arrival time (in microseconds)");
+		System.out.println("  bwd_size\tBackward total size (in bytes)");
+		System.out.println("  bwd_pkts\tBackward total number of packets");
+		System.out.println("  bwd_iat_mean\tMean of backward inter-arrival time (in microseconds)");
+		System.out.println("  bwd_iat_std\tStandard deviation of backward inter-arrival time (in microseconds)");
+		System.out.println("  bwd_iat_max\tMaximum of backward inter-arrival time (in microseconds)");
+		System.out.println("  bwd_iat_min\tMinimum of backward inter-arrival time (in microseconds)");
 		System.out.println("  prior_tos\tNumber of previous timeouts");
 		System.out.println("  time_last_to\tTime after the last timeout");
 		System.out.println("  size_pkt\tPacket size of the --nFirst packets");
 		System.out.println("  iat_pkt\tPacket inter-arrival time of the --nFirst packets");
 	}
 
+	/**
+	 * Deletes an existing output file, unless a run is resumed from a
+	 * checkpoint, which appends to it
+	 * 
+	 * @param file
+	 * @param resume
+	 *            whether a run is resumed
+	 */
+	private static void replaceFile(File file, boolean resume) {
+		if (resume) {
+			System.out.println("Keeping existing output file '" + file.getName() + "' for resuming");
+		} else {
+			System.out.println("Overriding existing output file '" + file.getName() + "'");
+			file.delete();
+		}
+	}
+
+	/**
+	 * @param output
+	 *            the output stream of a file
+	 * @param codec
+	 *            the compression codec; null if the output is not compressed
+	 * @return the output stream that compresses blocks in parallel, or the given
+	 *         output stream if it is not compressed
+	 */
+	private static OutputStream compressed(OutputStream output, ParallelCompressedOutputStream.Codec codec) {
+		if (codec == null) {
+			return output;
+		}
+		return new ParallelCompressedOutputStream(output, codec, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Parses a sampling rate. Exits if the value is not a positive integer
+	 * 
+	 * @param value
+	 * @param option
+	 * @return the sampling rate; 1 samples all flows or packets
+	 */
+	private static int parseSamplingRate(String value, String option) {
+		int rate = 0;
+		try {
+			rate = Integer.parseInt(value);
+		} catch (Exception e) {
+			rate = 0;
+		}
+		if (rate < 1) {
+			System.out.println("Value '" + value + "' is not applicable to the option '" + option + "'");
+			printHelp();
+			System.exit(1);
+		}
+		return rate;
+	}
+
+	/**
+	 * Truncates a file to the given length
+	 * 
+	 * @param file
+	 * @param length
+	 *            length in bytes
+	 * @throws IOException
+	 */
+	private static void truncateFile(File file, long length) throws IOException {
+		RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.setLength(length);
+		} finally {
+			output.close();
+		}
+	}
+
 	/**
 	 * Creates a file. Exits if the program throws an error while creating the file
 	 * 
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import co.edu.unicauca.dtm.pcapflowparser.generator.TrafficGenerator;
+import co.edu.unicauca.dtm.pcapflowparser.io.PacketDecoder;
+import co.edu.unicauca.dtm.pcapflowparser.io.PcapWriter;
+
+/**
+ * Generator of synthetic PCAP files for throughput and scaling tests of the
+ * parser. The same options and seed always produce the same file.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PCAPGenerator {
+
+	/**
+	 * 
+	 */
+	private static final Map<String, Integer> options;
+	static {
+		options = new HashMap<String, Integer>();
+		options.put("--help", 0);
+		options.put("--out", 1);
+		options.put("--flows", 2);
+		options.put("--seed", 3);
+		options.put("--rate", 4);
+		options.put("--pktIAT", 5);
+		options.put("--arrivals", 6);
+		options.put("--minPackets", 7);
+		options.put("--maxPackets", 8);
+		options.put("--sizeShape", 9);
+		options.put("--ipv6", 10);
+		options.put("--vlan", 11);
+		options.put("--udp", 12);
+		options.put("--snap", 13);
+		options.put("--start", 14);
+	}
+
+	/**
+	 * Default number of captured bytes of a packet, enough for the headers
+	 */
+	private static final int DEFAULT_SNAP_LENGTH = 96;
+
+	/**
+	 * 
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		// Define default output path
+		String outPath = System.getProperty("user.home") + File.separator + "synthetic.pcap";
+		// Define default workload
+		String sFlows = String.valueOf(TrafficGenerator.DEFAULT_FLOWS);
+		String sSeed = "1";
+		String sRate = String.valueOf(TrafficGenerator.DEFAULT_RATE);
+		String sPacketIAT = String.valueOf(TrafficGenerator.DEFAULT_PACKET_IAT);
+		TrafficGenerator.Arrivals arrivals = TrafficGenerator.Arrivals.POISSON;
+		String sMinPackets = String.valueOf(TrafficGenerator.DEFAULT_MIN_PACKETS);
+		String sMaxPackets = String.valueOf(TrafficGenerator.DEFAULT_MAX_PACKETS);
+		String sSizeShape = String.valueOf(TrafficGenerator.DEFAULT_SIZE_SHAPE);
+		String sIpv6 = String.valueOf(TrafficGenerator.DEFAULT_IPV6);
+		String sVlan = String.valueOf(TrafficGenerator.DEFAULT_VLAN);
+		String sUdp = String.valueOf(TrafficGenerator.DEFAULT_UDP);
+		String sSnapLength = String.valueOf(DEFAULT_SNAP_LENGTH);
+		String sStart = String.valueOf(TrafficGenerator.DEFAULT_START);
+		// Get parameters from arguments
+		for (int i = 0; i < args.length; i++) {
+			// Check that given option exists
+			int option = 0;
+			if (options.containsKey(args[i])) {
+				option = options.get(args[i]);
+				i++;
+			} else {
+				System.out.println("Option " + args[i] + " does not exist");
+				printHelp();
+				System.exit(1);
+			}
+			if (option != 0 && i == args.length) {
+				System.out.println("Option " + args[i - 1] + " requires a value");
+				printHelp();
+				System.exit(1);
+			}
+			// Set parameter corresponding to option
+			switch (option) {
+			case 0:
+				printHelp();
+				System.exit(1);
+				break;
+			case 1:
+				outPath = args[i];
+				break;
+			case 2:
+				sFlows = args[i];
+				break;
+			case 3:
+				sSeed = args[i];
+				break;
+			case 4:
+				sRate = args[i];
+				break;
+			case 5:
+				sPacketIAT = args[i];
+				break;
+			case 6:
+				arrivals = TrafficGenerator.Arrivals.byName(args[i]);
+				if (arrivals == null) {
+					System.out.println("Value '" + args[i] + "' is not applicable to the option '--arrivals'");
+					printHelp();
+					System.exit(1);
+				}
+				break;
+			case 7:
+				sMinPackets = args[i];
+				break;
+			case 8:
+				sMaxPackets = args[i];
+				break;
+			case 9:
+				sSizeShape = args[i];
+				break;
+			case 10:
+				sIpv6 = args[i];
+				break;
+			case 11:
+				sVlan = args[i];
+				break;
+			case 12:
+				sUdp = args[i];
+				break;
+			case 13:
+				sSnapLength = args[i];
+				break;
+			case 14:
+				sStart = args[i];
+				break;
+			default:
+				System.err.println("Internal error. Option " + option + " is not implemented");
+				System.exit(1);
+				break;
+			}
+		}
+		// Parse numeric values; invalid values are not replaced by defaults, since
+		// they would silently change the workload
+		int flows = parseInt(sFlows, "--flows", 1, Integer.MAX_VALUE);
+		long seed = parseLong(sSeed, "--seed", Long.MIN_VALUE);
+		int rate = parseInt(sRate, "--rate", 1, Integer.MAX_VALUE);
+		int packetIAT = parseInt(sPacketIAT, "--pktIAT", 0, Integer.MAX_VALUE);
+		int minPackets = parseInt(sMinPackets, "--minPackets", 1, Integer.MAX_VALUE);
+		int maxPackets = parseInt(sMaxPackets, "--maxPackets", minPackets, Integer.MAX_VALUE);
+		double sizeShape = 0;
+		try {
+			sizeShape = Double.parseDouble(sSizeShape);
+		} catch (Exception e) {
+			sizeShape = 0;
+		}
+		if (!(sizeShape > 0) || Double.isInfinite(sizeShape)) {
+			System.out.println("Value '" + sSizeShape + "' is not applicable to the option '--sizeShape'");
+			printHelp();
+			System.exit(1);
+		}
+		int ipv6 = parseInt(sIpv6, "--ipv6", 0, 100);
+		int vlan = parseInt(sVlan, "--vlan", 0, 100);
+		int udp = parseInt(sUdp, "--udp", 0, 100);
+		int snapLength = parseInt(sSnapLength, "--snap", 1, 65535);
+		long start = parseLong(sStart, "--start", 0);
+		// Configure workload
+		TrafficGenerator generator = new TrafficGenerator(seed);
+		generator.setFlows(flows);
+		generator.setRate(rate);
+		generator.setPacketIAT(packetIAT);
+		generator.setArrivals(arrivals);
+		generator.setMinPackets(minPackets);
+		generator.setMaxPackets(maxPackets);
+		generator.setSizeShape(sizeShape);
+		generator.setIpv6(ipv6);
+		generator.setVlan(vlan);
+		generator.setUdp(udp);
+		generator.setStart(start);
+		System.out.println("Generating " + flows + " flows");
+		System.out.println("Flows start at " + String.format("%.1f", generator.getFlowRate()) + " per second ("
+				+ arrivals.getName() + "); about " + Math.round(generator.getConcurrentFlows())
+				+ " flows are active at the same time");
+		// Check if output parent folder exists
+		File outFile = new File(outPath);
+		if (outFile.getAbsoluteFile().getParentFile() != null && !outFile.getAbsoluteFile().getParentFile().exists()) {
+			System.out.println("Creating output parent folder path '" + outFile.getAbsoluteFile().getParent() + "'");
+			outFile.getAbsoluteFile().getParentFile().mkdirs();
+		}
+		if (outFile.exists()) {
+			System.out.println("Overriding existing output file '" + outFile.getName() + "'");
+		}
+		// Generate packets
+		long startTime = System.currentTimeMillis();
+		long nPackets = 0;
+		PcapWriter writer = null;
+		try {
+			writer = new PcapWriter(new BufferedOutputStream(new FileOutputStream(outFile), 1 << 20),
+					PacketDecoder.LINKTYPE_ETHERNET, snapLength);
+			nPackets = generator.generate(writer);
+			writer.close();
+		} catch (IOException e) {
+			System.err.println("Error writing file '" + outFile.getAbsolutePath() + "': " + e.getMessage());
+			System.exit(1);
+		}
+		long endTime = System.currentTimeMillis();
+		System.out.println("Done! " + nPackets + " packets written to '" + outFile.getAbsolutePath() + "' in "
+				+ (endTime - startTime) / 1000.0 + " seconds");
+	}
+
+	/**
+	 * Parses the value of an integer option. Exits if the value is not an integer
+	 * within the bounds
+	 * 
+	 * @param value
+	 * @param option
+	 * @param min
+	 * @param max
+	 * @return the integer
+	 */
+	private static int parseInt(String value, String option, int min, int max) {
+		int number = 0;
+		try {
+			number = Integer.parseInt(value);
+		} catch (Exception e) {
+			number = min - 1;
+		}
+		if (number < min || number > max) {
+			System.out.println("Value '" + value + "' is not applicable to the option '" + option + "'");
+			printHelp();
+			System.exit(1);
+		}
+		return number;
+	}
+
+	/**
+	 * Parses the value of a long option. Exits if the value is not a long
+	 * integer of at least the minimum
+	 * 
+	 * @param value
+	 * @param option
+	 * @param min
+	 * @return the long integer
+	 */
+	private static long parseLong(String value, String option, long min) {
+		long number = 0;
+		try {
+			number = Long.parseLong(value);
+		} catch (Exception e) {
+			System.out.println("Value '" + value + "' is not applicable to the option '" + option + "'");
+			printHelp();
+			System.exit(1);
+		}
+		if (number < min) {
+			System.out.println("Value '" + value + "' is not applicable to the option '" + option + "'");
+			printHelp();
+			System.exit(1);
+		}
+		return number;
+	}
+
+	/**
+	 * Prints help
+	 */
+	private static void printHelp() {
+		System.out.println("");
+		System.out.println("=============");
+		System.out.println("PCAPGenerator");
+		System.out.println("=============");
+		System.out.println("Options:");
+		System.out.println("  --help\tDisplay this help");
+		System.out.println("  --out\t\tPCAP file to generate (default: synthetic.pcap in the home folder)");
+		System.out.println("  --flows\tNumber of flows (default 10000)");
+		System.out.println(
+				"  --seed\tSeed of the random choices; the same options and seed produce the same file (default 1)");
+		System.out.println(
+				"  --rate\tMean number of packets per second of all flows (default 100000). Flows start at the rate that yields it");
+		System.out.println(
+				"  --pktIAT\tMean inter-arrival time in microseconds of the packets of a flow, which are exponentially distributed (default 10000). The number of concurrent flows is about --rate times this time");
+		System.out.println(
+				"  --arrivals\tInter-arrival pattern of flows: 'poisson' (default), 'constant' or 'pareto', whose heavy tail produces bursts of flows");
+		System.out.println(
+				"  --minPackets\tMinimum number of packets of a flow, i.e., scale of the Pareto distribution of flow sizes (default 1)");
+		System.out.println(
+				"  --maxPackets\tMaximum number of packets of a flow, which truncates the Pareto distribution of flow sizes (default 100000)");
+		System.out.println(
+				"  --sizeShape\tShape of the Pareto distribution of flow sizes; the lower, the heavier the tail (default 1.2)");
+		System.out.println("  --ipv6\tPercentage of IPv6 flows (default 10)");
+		System.out.println("  --vlan\tPercentage of flows tagged with an IEEE 802.1Q VLAN (default 0)");
+		System.out.println("  --udp\t\tPercentage of UDP flows; the others are TCP (default 20)");
+		System.out.println(
+				"  --snap\tNumber of captured bytes of each packet; the packet size on the wire is kept (default 96)");
+		System.out.println("  --start\tCapture time in seconds since the epoch of the first flow (default 1514764800)");
+	}
+
+}
@@ -0,0 +1,669 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.generator;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import co.edu.unicauca.dtm.pcapflowparser.io.PcapWriter;
+
+/**
+ * Generator of synthetic Ethernet traffic with controllable characteristics,
+ * written in capture order to a PCAP file. Flows arrive following the given
+ * inter-arrival pattern at the rate that yields the given packet rate, and send
+ * a number of packets drawn from a truncated Pareto distribution, spaced by
+ * exponential inter-arrival times. Protocols, addresses and ports of a flow are
+ * derived from its number, so every flow has a distinct identifier. The output
+ * depends only on the parameters and the seed.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class TrafficGenerator {
+
+	/**
+	 * Inter-arrival pattern of flows
+	 */
+	public enum Arrivals {
+		/**
+		 * Exponential inter-arrival times
+		 */
+		POISSON("poisson"),
+		/**
+		 * Equal inter-arrival times
+		 */
+		CONSTANT("constant"),
+		/**
+		 * Heavy-tailed (Pareto) inter-arrival times, which produce bursts of flows
+		 * separated by long gaps
+		 */
+		PARETO("pareto");
+
+		/**
+		 * 
+		 */
+		private final String name;
+
+		/**
+		 * @param name
+		 */
+		Arrivals(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @param name
+		 * @return the pattern with the given name; null if none matches
+		 */
+		public static Arrivals byName(String name) {
+			for (Arrivals arrivals : values()) {
+				if (arrivals.name.equalsIgnoreCase(name)) {
+					return arrivals;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Default number of flows
+	 */
+	public static final int DEFAULT_FLOWS = 10000;
+
+	/**
+	 * Default packet rate in packets per second
+	 */
+	public static final int DEFAULT_RATE = 100000;
+
+	/**
+	 * Default mean inter-arrival time in microseconds of the packets of a flow
+	 */
+	public static final int DEFAULT_PACKET_IAT = 10000;
+
+	/**
+	 * Default minimum number of packets of a flow
+	 */
+	public static final int DEFAULT_MIN_PACKETS = 1;
+
+	/**
+	 * Default maximum number of packets of a flow
+	 */
+	public static final int DEFAULT_MAX_PACKETS = 100000;
+
+	/**
+	 * Default shape of the Pareto distribution of the number of packets of a
+	 * flow; the lower, the heavier the tail
+	 */
+	public static final double DEFAULT_SIZE_SHAPE = 1.2;
+
+	/**
+	 * Default percentage of IPv6 flows
+	 */
+	public static final int DEFAULT_IPV6 = 10;
+
+	/**
+	 * Default percentage of flows tagged with a VLAN
+	 */
+	public static final int DEFAULT_VLAN = 0;
+
+	/**
+	 * Default percentage of UDP flows; the other flows are TCP
+	 */
+	public static final int DEFAULT_UDP = 20;
+
+	/**
+	 * Default capture time in seconds since the epoch of the first packet
+	 */
+	public static final long DEFAULT_START = 1514764800L;
+
+	/**
+	 * Shape of the Pareto distribution of the inter-arrival times of flows
+	 */
+	private static final double ARRIVALS_SHAPE = 1.5;
+
+	/**
+	 * Maximum size of a frame, with a VLAN tag and without frame check sequence
+	 */
+	private static final int MAX_FRAME_SIZE = 1518;
+
+	/**
+	 * Minimum size of a frame, without frame check sequence
+	 */
+	private static final int MIN_FRAME_SIZE = 60;
+
+	/**
+	 * Maximum size of the headers of a frame
+	 */
+	private static final int MAX_HEADERS_SIZE = 14 + 4 + 40 + 20;
+
+	/**
+	 * Maximum size of an IP packet on Ethernet
+	 */
+	private static final int MTU = 1500;
+
+	/**
+	 * Destination ports of TCP flows
+	 */
+	private static final int[] TCP_PORTS = { 443, 80, 22, 25, 993, 8080 };
+
+	/**
+	 * Destination ports of UDP flows
+	 */
+	private static final int[] UDP_PORTS = { 53, 443, 123, 4789, 5060, 161 };
+
+	/**
+	 * 
+	 */
+	private int flows = DEFAULT_FLOWS;
+
+	/**
+	 * 
+	 */
+	private int rate = DEFAULT_RATE;
+
+	/**
+	 * 
+	 */
+	private int packetIAT = DEFAULT_PACKET_IAT;
+
+	/**
+	 * 
+	 */
+	private Arrivals arrivals = Arrivals.POISSON;
+
+	/**
+	 * 
+	 */
+	private int minPackets = DEFAULT_MIN_PACKETS;
+
+	/**
+	 * 
+	 */
+	private int maxPackets = DEFAULT_MAX_PACKETS;
+
+	/**
+	 * 
+	 */
+	private double sizeShape = DEFAULT_SIZE_SHAPE;
+
+	/**
+	 * 
+	 */
+	private int ipv6 = DEFAULT_IPV6;
+
+	/**
+	 * 
+	 */
+	private int vlan = DEFAULT_VLAN;
+
+	/**
+	 * 
+	 */
+	private int udp = DEFAULT_UDP;
+
+	/**
+	 * 
+	 */
+	private long start = DEFAULT_START;
+
+	/**
+	 * 
+	 */
+	private long seed;
+
+	/**
+	 * Capture times in microseconds of the next packets of the active flows,
+	 * ordered as a binary min-heap
+	 */
+	private long[] nextTimes;
+
+	/**
+	 * Numbers of the active flows, in the order of the heap
+	 */
+	private int[] flowNumbers;
+
+	/**
+	 * Numbers of packets left to send of the active flows, in the order of the
+	 * heap
+	 */
+	private int[] packetsLeft;
+
+	/**
+	 * Number of active flows
+	 */
+	private int nActive;
+
+	/**
+	 * Reused frame
+	 */
+	private byte[] frame;
+
+	/**
+	 * @param seed
+	 *            seed of the random choices
+	 */
+	public TrafficGenerator(long seed) {
+		super();
+		this.seed = seed;
+	}
+
+	/**
+	 * @param flows
+	 *            number of flows
+	 */
+	public void setFlows(int flows) {
+		this.flows = flows;
+	}
+
+	/**
+	 * @param rate
+	 *            mean number of packets per second of all flows
+	 */
+	public void setRate(int rate) {
+		this.rate = rate;
+	}
+
+	/**
+	 * @param packetIAT
+	 *            mean inter-arrival time in microseconds of the packets of a flow
+	 */
+	public void setPacketIAT(int packetIAT) {
+		this.packetIAT = packetIAT;
+	}
+
+	/**
+	 * @param arrivals
+	 *            inter-arrival pattern of flows
+	 */
+	public void setArrivals(Arrivals arrivals) {
+		this.arrivals = arrivals;
+	}
+
+	/**
+	 * @param minPackets
+	 *            minimum number of packets of a flow, i.e., scale of the Pareto
+	 *            distribution
+	 */
+	public void setMinPackets(int minPackets) {
+		this.minPackets = minPackets;
+	}
+
+	/**
+	 * @param maxPackets
+	 *            maximum number of packets of a flow, which truncates the Pareto
+	 *            distribution
+	 */
+	public void setMaxPackets(int maxPackets) {
+		this.maxPackets = maxPackets;
+	}
+
+	/**
+	 * @param sizeShape
+	 *            shape of the Pareto distribution of the number of packets of a
+	 *            flow
+	 */
+	public void setSizeShape(double sizeShape) {
+		this.sizeShape = sizeShape;
+	}
+
+	/**
+	 * @param ipv6
+	 *            percentage of IPv6 flows
+	 */
+	public void setIpv6(int ipv6) {
+		this.ipv6 = ipv6;
+	}
+
+	/**
+	 * @param vlan
+	 *            percentage of flows tagged with a VLAN
+	 */
+	public void setVlan(int vlan) {
+		this.vlan = vlan;
+	}
+
+	/**
+	 * @param udp
+	 *            percentage of UDP flows
+	 */
+	public void setUdp(int udp) {
+		this.udp = udp;
+	}
+
+	/**
+	 * @param start
+	 *            capture time in seconds since the epoch of the first packet
+	 */
+	public void setStart(long start) {
+		this.start = start;
+	}
+
+	/**
+	 * @return the mean number of packets of a flow
+	 */
+	public double getMeanFlowSize() {
+		// Sum of the probabilities that a flow has at least k packets
+		double mean = minPackets;
+		for (int k = minPackets + 1; k <= maxPackets && k > 0; k++) {
+			mean += Math.pow((double) minPackets / k, sizeShape);
+		}
+		return mean;
+	}
+
+	/**
+	 * @return the mean number of flows that start per second
+	 */
+	public double getFlowRate() {
+		return rate / getMeanFlowSize();
+	}
+
+	/**
+	 * @return the expected number of concurrent flows once arrivals and ends
+	 *         balance out
+	 */
+	public double getConcurrentFlows() {
+		return getFlowRate() * (getMeanFlowSize() - 1) * packetIAT / 1e6;
+	}
+
+	/**
+	 * Generates the packets of all flows in capture order
+	 * 
+	 * @param writer
+	 *            writer of the Ethernet packets
+	 * @return the number of generated packets
+	 * @throws IOException
+	 */
+	public long generate(PcapWriter writer) throws IOException {
+		SplittableRandom random = new SplittableRandom(seed);
+		double meanArrivalGap = 1e6 / getFlowRate();
+		double arrivalTime = start * 1000000.0;
+		int nextFlow = 0;
+		nextTimes = new long[1024];
+		flowNumbers = new int[1024];
+		packetsLeft = new int[1024];
+		nActive = 0;
+		frame = new byte[MAX_FRAME_SIZE];
+		long nPackets = 0;
+		while (nextFlow < flows || nActive > 0) {
+			// Start a flow if it arrives before the next packet of the active flows
+			if (nextFlow < flows && (nActive == 0 || (long) arrivalTime <= nextTimes[0])) {
+				push((long) arrivalTime, nextFlow, flowSize(random));
+				nextFlow++;
+				arrivalTime += arrivalGap(random, meanArrivalGap);
+				continue;
+			}
+			// Send the next packet
+			long time = nextTimes[0];
+			int flow = flowNumbers[0];
+			int wireLength = buildFrame(flow, random);
+			writer.write(time, frame, wireLength, wireLength);
+			nPackets++;
+			if (packetsLeft[0] > 1) {
+				nextTimes[0] = time + (long) (-Math.log(1 - random.nextDouble()) * packetIAT);
+				packetsLeft[0]--;
+				siftDown(0);
+			} else {
+				nActive--;
+				nextTimes[0] = nextTimes[nActive];
+				flowNumbers[0] = flowNumbers[nActive];
+				packetsLeft[0] = packetsLeft[nActive];
+				siftDown(0);
+			}
+		}
+		return nPackets;
+	}
+
+	/**
+	 * @param random
+	 * @return a number of packets drawn from the truncated Pareto distribution
+	 */
+	private int flowSize(SplittableRandom random) {
+		double size = minPackets / Math.pow(1 - random.nextDouble(), 1 / sizeShape);
+		return size >= maxPackets ? maxPackets : (int) size;
+	}
+
+	/**
+	 * @param random
+	 * @param mean
+	 *            mean gap in microseconds
+	 * @return the gap in microseconds until the next flow arrives
+	 */
+	private double arrivalGap(SplittableRandom random, double mean) {
+		switch (arrivals) {
+		case CONSTANT:
+			return mean;
+		case PARETO:
+			// Scale that yields the mean
+			double scale = mean * (ARRIVALS_SHAPE - 1) / ARRIVALS_SHAPE;
+			return scale / Math.pow(1 - random.nextDouble(), 1 / ARRIVALS_SHAPE);
+		default:
+			return -Math.log(1 - random.nextDouble()) * mean;
+		}
+	}
+
+	/**
+	 * Adds an active flow to the heap
+	 * 
+	 * @param time
+	 * @param flow
+	 * @param packets
+	 */
+	private void push(long time, int flow, int packets) {
+		if (nActive == nextTimes.length) {
+			int capacity = nActive * 2;
+			nextTimes = Arrays.copyOf(nextTimes, capacity);
+			flowNumbers = Arrays.copyOf(flowNumbers, capacity);
+			packetsLeft = Arrays.copyOf(packetsLeft, capacity);
+		}
+		int i = nActive++;
+		// Sift up
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (nextTimes[parent] <= time) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
+		}
+		nextTimes[i] = time;
+		flowNumbers[i] = flow;
+		packetsLeft[i] = packets;
+	}
+
+	/**
+	 * Moves an entry of the heap down to its place
+	 * 
+	 * @param i
+	 */
+	private void siftDown(int i) {
+		long time = nextTimes[i];
+		int flow = flowNumbers[i];
+		int packets = packetsLeft[i];
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= nActive) {
+				break;
+			}
+			if (child + 1 < nActive && nextTimes[child + 1] < nextTimes[child]) {
+				child++;
+			}
+			if (time <= nextTimes[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		nextTimes[i] = time;
+		flowNumbers[i] = flow;
+		packetsLeft[i] = packets;
+	}
+
+	/**
+	 * @param from
+	 * @param to
+	 */
+	private void move(int from, int to) {
+		nextTimes[to] = nextTimes[from];
+		flowNumbers[to] = flowNumbers[from];
+		packetsLeft[to] = packetsLeft[from];
+	}
+
+	/**
+	 * Writes the headers of a packet of a flow into the reused frame; the payload
+	 * is zeroed
+	 * 
+	 * @param flow
+	 *            number of the flow
+	 * @param random
+	 * @return the length of the frame
+	 */
+	private int buildFrame(int flow, SplittableRandom random) {
+		// Attributes of the flow, derived from its number
+		long hash = mix(seed + flow * 0x9E3779B97F4A7C15L);
+		boolean isIpv6 = (int) ((hash & 0xFFFF) % 100) < ipv6;
+		boolean hasVlan = (int) (((hash >>> 16) & 0xFFFF) % 100) < vlan;
+		boolean isUdp = (int) (((hash >>> 32) & 0xFFFF) % 100) < udp;
+		int portSrc = 1024 + (int) ((hash >>> 48) % 64512);
+		int portDst = isUdp ? UDP_PORTS[flow % UDP_PORTS.length] : TCP_PORTS[flow % TCP_PORTS.length];
+		// Payload length: TCP alternates acknowledgments, full segments and
+		// partial segments
+		int ipHeaderLength = isIpv6 ? 40 : 20;
+		int transportHeaderLength = isUdp ? 8 : 20;
+		int maxPayload = MTU - ipHeaderLength - transportHeaderLength;
+		int payload;
+		if (isUdp) {
+			payload = 1 + random.nextInt(maxPayload);
+		} else {
+			double choice = random.nextDouble();
+			payload = choice < 0.4 ? 0 : choice < 0.7 ? maxPayload : 1 + random.nextInt(maxPayload);
+		}
+		// Ethernet: destination gateway and source host
+		int p = 0;
+		p = putShort(p, 0x02FF);
+		p = putInt(p, 1);
+		p = putShort(p, 0x0200);
+		p = putInt(p, flow);
+		if (hasVlan) {
+			p = putShort(p, 0x8100);
+			p = putShort(p, 1 + flow % 4094);
+		}
+		p = putShort(p, isIpv6 ? 0x86DD : 0x0800);
+		int ipLength = ipHeaderLength + transportHeaderLength + payload;
+		int ipStart = p;
+		if (isIpv6) {
+			p = putInt(p, 0x60000000);
+			p = putShort(p, ipLength - 40);
+			frame[p++] = (byte) (isUdp ? 17 : 6);
+			frame[p++] = 64;
+			p = putInt(p, 0x20010DB8);
+			p = putInt(p, 0);
+			p = putInt(p, 0);
+			p = putInt(p, flow);
+			p = putInt(p, 0x20010DB8);
+			p = putInt(p, 0xFFFF0000);
+			p = putInt(p, 0);
+			p = putInt(p, (int) hash);
+		} else {
+			p = putShort(p, 0x4500);
+			p = putShort(p, ipLength);
+			p = putShort(p, (int) hash);
+			p = putShort(p, 0x4000);
+			frame[p++] = 64;
+			frame[p++] = (byte) (isUdp ? 17 : 6);
+			p = putShort(p, 0);
+			p = putInt(p, 0x0A000000 | (flow & 0x00FFFFFF));
+			p = putInt(p, 0xAC100000 | (flow >>> 24) << 12 | (int) (hash >>> 20) & 0xFFF);
+			putShort(ipStart + 10, ipv4Checksum(ipStart));
+		}
+		p = putShort(p, portSrc);
+		p = putShort(p, portDst);
+		if (isUdp) {
+			p = putShort(p, 8 + payload);
+			p = putShort(p, 0);
+		} else {
+			p = putInt(p, (int) (hash >>> 8));
+			p = putInt(p, 0);
+			// Data offset and flags: PSH/ACK, or ACK without payload
+			p = putShort(p, 0x5000 | (payload > 0 ? 0x18 : 0x10));
+			p = putShort(p, 0xFFFF);
+			p = putInt(p, 0);
+		}
+		// Zero the bytes left by longer headers of previous packets
+		Arrays.fill(frame, p, MAX_HEADERS_SIZE, (byte) 0);
+		return Math.max(p + payload, hasVlan ? MIN_FRAME_SIZE + 4 : MIN_FRAME_SIZE);
+	}
+
+	/**
+	 * @param offset
+	 *            offset of the IPv4 header in the frame
+	 * @return the checksum of the header
+	 */
+	private int ipv4Checksum(int offset) {
+		int sum = 0;
+		for (int i = offset; i < offset + 20; i += 2) {
+			sum += ((frame[i] & 0xFF) << 8) | (frame[i + 1] & 0xFF);
+		}
+		while ((sum >>> 16) != 0) {
+			sum = (sum & 0xFFFF) + (sum >>> 16);
+		}
+		return ~sum & 0xFFFF;
+	}
+
+	/**
+	 * @param offset
+	 * @param value
+	 * @return the offset after the value
+	 */
+	private int putShort(int offset, int value) {
+		frame[offset] = (byte) (value >>> 8);
+		frame[offset + 1] = (byte) value;
+		return offset + 2;
+	}
+
+	/**
+	 * @param offset
+	 * @param value
+	 * @return the offset after the value
+	 */
+	private int putInt(int offset, int value) {
+		putShort(offset, value >>> 16);
+		return putShort(offset + 2, value);
+	}
+
+	/**
+	 * Mixes the bits of a value (finalizer of SplitMix64)
+	 * 
+	 * @param value
+	 * @return the mixed value
+	 */
+	private static long mix(long value) {
+		value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+		value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+		return value ^ (value >>> 31);
+	}
+
+}
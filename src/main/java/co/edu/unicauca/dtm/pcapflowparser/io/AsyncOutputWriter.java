@@ -0,0 +1,401 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Output stream that collects the written bytes in large buffers and writes
+ * them to the underlying stream in a dedicated thread, so writers do not wait
+ * for the disk unless all buffers are queued. A buffer is handed to the writer
+ * thread when it is full or on {@link #flush()}, and the writer thread takes
+ * the pending bytes itself when no buffer arrived for the flush interval.
+ * Buffers are reused once written. Each call to
+ * {@link #write(byte[], int, int)} is copied as a whole, so the stream can be
+ * shared by several threads.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class AsyncOutputWriter extends OutputStream {
+
+	/**
+	 * Default size in bytes of each buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Default time in milliseconds after which pending bytes are written
+	 */
+	public static final int DEFAULT_FLUSH_INTERVAL = 1000;
+
+	/**
+	 * Number of buffers that can be queued for the writer thread
+	 */
+	private static final int QUEUE_SIZE = 4;
+
+	/**
+	 * Buffer with the number of bytes it holds
+	 */
+	private static class Chunk {
+
+		/**
+		 * Bytes of the buffer
+		 */
+		private final byte[] data;
+
+		/**
+		 * Number of bytes written in the buffer
+		 */
+		private int length;
+
+		/**
+		 * Asks the writer thread to flush the underlying stream after writing
+		 */
+		private boolean flush;
+
+		/**
+		 * @param size
+		 */
+		private Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	/**
+	 * Chunk that signals the writer thread to finish
+	 */
+	private static final Chunk END_OF_OUTPUT = new Chunk(0);
+
+	/**
+	 * Underlying output stream
+	 */
+	private final OutputStream out;
+
+	/**
+	 * Time in milliseconds without queued buffers after which pending bytes are
+	 * written; 0 writes them only when a buffer is full
+	 */
+	private final long flushInterval;
+
+	/**
+	 * Chunks waiting for the writer thread
+	 */
+	private final BlockingQueue<Chunk> filled;
+
+	/**
+	 * Written chunks available for reuse
+	 */
+	private final BlockingQueue<Chunk> free;
+
+	/**
+	 * Chunk being filled
+	 */
+	private Chunk current;
+
+	/**
+	 * Lock of the chunk being filled
+	 */
+	private final ReentrantLock lock;
+
+	/**
+	 * Writer thread
+	 */
+	private final Thread thread;
+
+	/**
+	 * Whether the stream is closed
+	 */
+	private boolean closed;
+
+	/**
+	 * First error thrown when writing the underlying stream
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * @param out
+	 *            the underlying output stream
+	 */
+	public AsyncOutputWriter(OutputStream out) {
+		this(out, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param out
+	 *            the underlying output stream
+	 * @param bufferSize
+	 *            size in bytes of each buffer
+	 * @param flushInterval
+	 *            time in milliseconds without queued buffers after which
+	 *            pending bytes are written; 0 writes them only when a buffer is
+	 *            full
+	 */
+	public AsyncOutputWriter(OutputStream out, int bufferSize, long flushInterval) {
+		super();
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.out = out;
+		this.flushInterval = flushInterval;
+		// Queues can hold all chunks and the end signal
+		filled = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE + 2);
+		free = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE + 1);
+		for (int i = 0; i < QUEUE_SIZE; i++) {
+			free.add(new Chunk(bufferSize));
+		}
+		current = new Chunk(bufferSize);
+		lock = new ReentrantLock();
+		closed = false;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeChunks();
+			}
+		}, "AsyncOutputWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			while (len > 0) {
+				int n = Math.min(len, current.data.length - current.length);
+				System.arraycopy(b, off, current.data, current.length, n);
+				current.length += n;
+				off += n;
+				len -= n;
+				if (current.length == current.data.length) {
+					handOver(false);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the pending bytes over to the writer thread and asks it to flush the
+	 * underlying stream, without waiting for the disk
+	 */
+	@Override
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			handOver(true);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands the pending bytes over to the writer thread and waits until all
+	 * queued bytes have been written to the underlying stream, which is flushed
+	 * 
+	 * @throws IOException
+	 */
+	public void sync() throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			// Hand over even if nothing is pending, since the chunks handed over
+			// full may still be buffered by the underlying stream
+			handOver(true);
+			// All chunks but the current one are free once written
+			while (free.size() < QUEUE_SIZE) {
+				checkFailure();
+				Thread.sleep(1);
+			}
+			checkFailure();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the output");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the pending bytes, waits for the writer thread to finish, and closes
+	 * the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			try {
+				if (current.length > 0) {
+					handOver(false);
+				}
+				filled.add(END_OF_OUTPUT);
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while closing the output");
+			} finally {
+				closed = true;
+				out.close();
+			}
+			checkFailure();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues the current chunk for the writer thread and takes a free one. The
+	 * queue never fills up, since it can hold all chunks; writers wait for a
+	 * free chunk instead
+	 * 
+	 * @param flush
+	 *            whether to flush the underlying stream after writing the chunk
+	 * @throws IOException
+	 */
+	private void handOver(boolean flush) throws IOException {
+		current.flush = flush;
+		filled.add(current);
+		try {
+			Chunk chunk;
+			while ((chunk = free.poll(100, TimeUnit.MILLISECONDS)) == null) {
+				checkFailure();
+			}
+			chunk.length = 0;
+			chunk.flush = false;
+			current = chunk;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while handing the output over");
+		}
+	}
+
+	/**
+	 * Takes the pending bytes from the writers if no chunk was queued for the
+	 * flush interval. Gives up if a writer holds the lock, since the writer may
+	 * be waiting for a free chunk
+	 * 
+	 * @return the chunk with the pending bytes; null if there are none
+	 */
+	private Chunk takePending() {
+		if (!lock.tryLock()) {
+			return null;
+		}
+		try {
+			if (closed || current.length == 0) {
+				return null;
+			}
+			Chunk chunk = free.poll();
+			if (chunk == null) {
+				return null;
+			}
+			chunk.length = 0;
+			chunk.flush = false;
+			Chunk pending = current;
+			pending.flush = true;
+			current = chunk;
+			return pending;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the stream is closed or the writer thread failed
+	 */
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Output is closed");
+		}
+		checkFailure();
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the writer thread failed
+	 */
+	private void checkFailure() throws IOException {
+		if (failure != null) {
+			throw new IOException("Output writer failed", failure);
+		}
+	}
+
+	/**
+	 * Writes the queued chunks to the underlying stream until the end is
+	 * signaled. After a failure, chunks are returned unwritten so writers are
+	 * not blocked
+	 */
+	private void writeChunks() {
+		while (true) {
+			Chunk chunk;
+			try {
+				if (flushInterval > 0) {
+					chunk = filled.poll(flushInterval, TimeUnit.MILLISECONDS);
+					if (chunk == null && (chunk = takePending()) == null) {
+						continue;
+					}
+				} else {
+					chunk = filled.take();
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (chunk == END_OF_OUTPUT) {
+				break;
+			}
+			if (failure == null) {
+				try {
+					out.write(chunk.data, 0, chunk.length);
+					if (chunk.flush) {
+						out.flush();
+					}
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			free.add(chunk);
+		}
+		if (failure == null) {
+			try {
+				out.flush();
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+
+/**
+ * Reader of the records of a binary packet IAT report (see
+ * {@link BinaryPacketIATWriter}) in file order. The flow identifier of each
+ * index is kept as its definitions are read.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class BinaryPacketIATReader implements Closeable {
+
+	/**
+	 * Input of the report
+	 */
+	private final DataInputStream input;
+
+	/**
+	 * Flow identifier of each defined index; null if the index is not defined
+	 */
+	private final List<String> flowIds;
+
+	/**
+	 * Reusable key for reading definitions
+	 */
+	private final FlowKey flowKey;
+
+	/**
+	 * Reusable buffer for reading keys
+	 */
+	private final ByteBuffer keyBuffer;
+
+	/**
+	 * Flow identifier of the current record
+	 */
+	private String flowId;
+
+	/**
+	 * Packet number of the current record
+	 */
+	private long packetNumber;
+
+	/**
+	 * IAT in microseconds of the current record
+	 */
+	private long iat;
+
+	/**
+	 * @param input
+	 *            the input of the report, whose header has not been read
+	 * @throws IOException
+	 *             if the input is not a binary packet IAT report of a supported
+	 *             version
+	 */
+	public BinaryPacketIATReader(InputStream input) throws IOException {
+		super();
+		this.input = new DataInputStream(new BufferedInputStream(input, 64 * 1024));
+		flowIds = new ArrayList<String>();
+		flowKey = new FlowKey();
+		keyBuffer = ByteBuffer.allocate(FlowKey.BYTES);
+		int magic;
+		int version;
+		try {
+			magic = this.input.readInt();
+			version = this.input.readUnsignedByte();
+		} catch (EOFException e) {
+			throw new IOException("Input is not a binary packet IAT report");
+		}
+		if (magic != BinaryPacketIATWriter.MAGIC) {
+			throw new IOException("Input is not a binary packet IAT report");
+		}
+		if (version != BinaryPacketIATWriter.VERSION) {
+			throw new IOException("Version " + version + " of the binary packet IAT report is not supported");
+		}
+	}
+
+	/**
+	 * Reads the next record
+	 * 
+	 * @return whether a record was read; false at the end of the report
+	 * @throws IOException
+	 *             if the report is truncated or references an undefined index
+	 */
+	public boolean next() throws IOException {
+		int first = input.read();
+		if (first < 0) {
+			return false;
+		}
+		try {
+			long value = readVarint(first);
+			long index = value >>> 1;
+			if (index >= Integer.MAX_VALUE) {
+				throw new IOException("Flow index " + index + " of the packet IAT report is out of range");
+			}
+			if ((value & 1) != 0) {
+				input.readFully(keyBuffer.array());
+				flowId = flowKey.readFrom(keyBuffer, 0).toString();
+				while (flowIds.size() <= index) {
+					flowIds.add(null);
+				}
+				flowIds.set((int) index, flowId);
+			} else {
+				flowId = index < flowIds.size() ? flowIds.get((int) index) : null;
+				if (flowId == null) {
+					throw new IOException("Flow index " + index + " of the packet IAT report is not defined");
+				}
+			}
+			packetNumber = readVarint(input.readUnsignedByte());
+			long zigzag = readVarint(input.readUnsignedByte());
+			iat = (zigzag >>> 1) ^ -(zigzag & 1);
+		} catch (EOFException e) {
+			throw new IOException("Packet IAT report is truncated");
+		}
+		return true;
+	}
+
+	/**
+	 * Reads an unsigned varint
+	 * 
+	 * @param first
+	 *            the first byte of the varint, already read
+	 * @return the value
+	 * @throws IOException
+	 */
+	private long readVarint(int first) throws IOException {
+		long value = first & 0x7F;
+		int shift = 7;
+		int b = first;
+		while ((b & 0x80) != 0) {
+			if (shift > 63) {
+				throw new IOException("Varint of the packet IAT report is too long");
+			}
+			b = input.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the flow identifier of the current record
+	 */
+	public String getFlowId() {
+		return flowId;
+	}
+
+	/**
+	 * @return the packet number of the current record
+	 */
+	public long getPacketNumber() {
+		return packetNumber;
+	}
+
+	/**
+	 * @return the IAT in microseconds of the current record
+	 */
+	public long getIat() {
+		return iat;
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+
+/**
+ * Writer of the packet IAT report in a compact binary format. The file starts
+ * with the {@link #MAGIC} number and the {@link #VERSION}, followed by a record
+ * per packet:
+ * <ul>
+ * <li>a varint with the index of the flow shifted left by one bit, whose lowest
+ * bit flags a definition;</li>
+ * <li>if flagged, the {@link FlowKey#BYTES} bytes of the key of the flow
+ * (see {@link FlowKey#writeTo(ByteBuffer, int)}), which define the flow
+ * identifier of the index for the next records;</li>
+ * <li>a varint with the packet number;</li>
+ * <li>a zigzag varint with the IAT in microseconds.</li>
+ * </ul>
+ * Each flow gets a new index with its first record, so the index is a side
+ * table of the flow identifiers defined as the report is read. An index may be
+ * defined again, e.g., after a resumed run, and the last definition holds.
+ * Records are written in a single call to the output stream, so the writer is
+ * thread-safe if the output stream is.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class BinaryPacketIATWriter implements PacketIATWriter {
+
+	/**
+	 * Magic number of binary packet IAT reports ('PIAT')
+	 */
+	public static final int MAGIC = 0x50494154;
+
+	/**
+	 * Version of the format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Maximum size in bytes of a record
+	 */
+	static final int MAX_RECORD_SIZE = 10 + FlowKey.BYTES + 10 + 10;
+
+	/**
+	 * Output of the report
+	 */
+	private final OutputStream output;
+
+	/**
+	 * Next index to assign to a flow
+	 */
+	private final AtomicLong nextIndex;
+
+	/**
+	 * Record buffers of each writing thread
+	 */
+	private final ThreadLocal<ByteBuffer> recordBuffers;
+
+	/**
+	 * @param output
+	 *            the output of the report
+	 * @param header
+	 *            whether to write the header, or append to a report that has it
+	 * @throws IOException
+	 */
+	public BinaryPacketIATWriter(OutputStream output, boolean header) throws IOException {
+		super();
+		this.output = output;
+		nextIndex = new AtomicLong();
+		recordBuffers = new ThreadLocal<ByteBuffer>() {
+			@Override
+			protected ByteBuffer initialValue() {
+				return ByteBuffer.allocate(MAX_RECORD_SIZE);
+			}
+		};
+		if (header) {
+			output.write(ByteBuffer.allocate(5).putInt(MAGIC).put((byte) VERSION).array());
+		}
+	}
+
+	@Override
+	public long write(FlowKey key, long flowIndex, long packetNumber, long iat) throws IOException {
+		ByteBuffer record = recordBuffers.get();
+		record.clear();
+		if (flowIndex < 0) {
+			flowIndex = nextIndex.getAndIncrement();
+			putVarint(record, flowIndex << 1 | 1);
+			key.writeTo(record, record.position());
+			record.position(record.position() + FlowKey.BYTES);
+		} else {
+			putVarint(record, flowIndex << 1);
+		}
+		putVarint(record, packetNumber);
+		putVarint(record, (iat << 1) ^ (iat >> 63));
+		output.write(record.array(), 0, record.position());
+		return flowIndex;
+	}
+
+	/**
+	 * Puts an unsigned varint: seven bits per byte, lowest first, with the
+	 * highest bit set in all bytes but the last
+	 * 
+	 * @param buffer
+	 * @param value
+	 */
+	private static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+
+import io.airlift.compress.zstd.ZstdInputStream;
+
+/**
+ * Detection and decompression of inputs compressed with gzip, zstd or LZ4
+ * frames. The compression is detected from the magic number of the input, and
+ * compressed inputs are decompressed ahead in their own thread (see
+ * {@link ReadAheadChannel}).
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public final class CompressedInput {
+
+	/**
+	 * Magic number of gzip streams
+	 */
+	private static final int GZIP_MAGIC = 0x1F8B;
+
+	/**
+	 * Magic number of zstd frames, as read in big-endian order
+	 */
+	private static final int ZSTD_MAGIC = 0x28B52FFD;
+
+	/**
+	 * Size in bytes of the buffers of the compressed input
+	 */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * 
+	 */
+	private CompressedInput() {
+	}
+
+	/**
+	 * @param magic
+	 *            the first four bytes of an input as a big-endian integer
+	 * @return whether the input is compressed with gzip, zstd or LZ4
+	 */
+	public static boolean isCompressed(int magic) {
+		return (magic >>> 16) == GZIP_MAGIC || magic == ZSTD_MAGIC || magic == Lz4FrameInputStream.MAGIC;
+	}
+
+	/**
+	 * Opens the decompressed content of a channel
+	 * 
+	 * @param input
+	 *            the channel, whose first bytes have not been read
+	 * @param name
+	 *            the name of the input for error messages and the reader thread
+	 * @return the channel of the decompressed content, read ahead in its own
+	 *         thread; the given channel if it is not compressed
+	 * @throws IOException
+	 *             if the compressed header can not be read; the channel is
+	 *             closed
+	 */
+	public static ReadableByteChannel open(PeekableChannel input, String name) throws IOException {
+		int magic;
+		try {
+			magic = input.peekInt();
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		if (!isCompressed(magic)) {
+			return input;
+		}
+		InputStream in = new BufferedInputStream(Channels.newInputStream(input), BUFFER_SIZE);
+		InputStream decompressed;
+		try {
+			if ((magic >>> 16) == GZIP_MAGIC) {
+				// Concatenated members are read as one stream
+				decompressed = new GZIPInputStream(in, BUFFER_SIZE);
+			} else if (magic == ZSTD_MAGIC) {
+				decompressed = new ZstdInputStream(in);
+			} else {
+				decompressed = new Lz4FrameInputStream(in);
+			}
+		} catch (IOException e) {
+			input.close();
+			throw new IOException("Input '" + name + "' can not be decompressed: " + e.getMessage(), e);
+		}
+		return new ReadAheadChannel(decompressed, name);
+	}
+
+}
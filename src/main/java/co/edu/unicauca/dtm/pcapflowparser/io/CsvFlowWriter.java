@@ -0,0 +1,154 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
+
+/**
+ * Writer of flows as lines of a CSV file, whose header is written on creation
+ * unless the file is appended to.
+ * The included features are compiled once into the ordered columns of the
+ * lines, and each thread reuses its own line buffers. Each flow is written in
+ * a single call to the output stream, so the writer is thread-safe if the
+ * output stream is.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class CsvFlowWriter implements FlowWriter {
+
+	/**
+	 * Output of the CSV file
+	 */
+	private final OutputStream output;
+
+	/**
+	 * Included features in the order of the columns
+	 */
+	private final FlowFeature[] columns;
+
+	/**
+	 * Number of first packets of the features of the first packets
+	 */
+	private final int nFirstPackets;
+
+	/**
+	 * Factor of the packet and byte counters of the flows
+	 */
+	private long packetScale = 1;
+
+	/**
+	 * Line buffers of each writing thread
+	 */
+	private final ThreadLocal<LineBuffer> lineBuffers;
+
+	/**
+	 * Reusable buffers for building a line
+	 */
+	private static class LineBuffer {
+
+		/**
+		 * Characters of the line
+		 */
+		private final StringBuilder chars = new StringBuilder(256);
+
+		/**
+		 * Bytes of the line
+		 */
+		private byte[] bytes = new byte[256];
+	}
+
+	/**
+	 * @param output
+	 *            the output of the CSV file
+	 * @param features
+	 * @param nFirstPackets
+	 * @throws IOException
+	 */
+	public CsvFlowWriter(OutputStream output, Set<Integer> features, int nFirstPackets) throws IOException {
+		this(output, features, nFirstPackets, true);
+	}
+
+	/**
+	 * @param output
+	 *            the output of the CSV file
+	 * @param features
+	 * @param nFirstPackets
+	 * @param header
+	 *            whether to write the header, or append to a file that has it
+	 * @throws IOException
+	 */
+	public CsvFlowWriter(OutputStream output, Set<Integer> features, int nFirstPackets, boolean header)
+			throws IOException {
+		super();
+		this.output = output;
+		this.columns = FlowFeature.columns(features);
+		this.nFirstPackets = nFirstPackets;
+		lineBuffers = new ThreadLocal<LineBuffer>() {
+			@Override
+			protected LineBuffer initialValue() {
+				return new LineBuffer();
+			}
+		};
+		if (header) {
+			output.write(String.valueOf(FlowFeature.csvHeader(features, nFirstPackets) + "\n").getBytes());
+		}
+	}
+
+	/**
+	 * Scales the packet and byte counters of the written flows, e.g., by the
+	 * packet sampling rate. Must be called before writing flows
+	 * 
+	 * @param packetScale
+	 */
+	public void setPacketScale(long packetScale) {
+		this.packetScale = packetScale;
+	}
+
+	@Override
+	public void write(Flow flow) throws IOException {
+		LineBuffer line = lineBuffers.get();
+		StringBuilder chars = line.chars;
+		chars.setLength(0);
+		flow.appendCSV(chars, columns, nFirstPackets, packetScale);
+		chars.append('\n');
+		// Values are ASCII, so each character is a byte
+		int length = chars.length();
+		if (line.bytes.length < length) {
+			line.bytes = new byte[Math.max(length, 2 * line.bytes.length)];
+		}
+		byte[] bytes = line.bytes;
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) chars.charAt(i);
+		}
+		output.write(bytes, 0, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+import co.edu.unicauca.dtm.pcapflowparser.model.PacketIATFeature;
+
+/**
+ * Writer of the packet IAT report as lines of a CSV file with the textual flow
+ * identifier, the packet number and the IAT, whose header is written on
+ * creation unless the file is appended to. Each thread reuses its own line
+ * buffers, and each record is written in a single call to the output stream,
+ * so the writer is thread-safe if the output stream is.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class CsvPacketIATWriter implements PacketIATWriter {
+
+	/**
+	 * Output of the CSV file
+	 */
+	private final OutputStream output;
+
+	/**
+	 * Line buffers of each writing thread
+	 */
+	private final ThreadLocal<StringBuilder> lineBuffers;
+
+	/**
+	 * @param output
+	 *            the output of the CSV file
+	 * @param header
+	 *            whether to write the header, or append to a file that has it
+	 * @throws IOException
+	 */
+	public CsvPacketIATWriter(OutputStream output, boolean header) throws IOException {
+		super();
+		this.output = output;
+		lineBuffers = new ThreadLocal<StringBuilder>() {
+			@Override
+			protected StringBuilder initialValue() {
+				return new StringBuilder(128);
+			}
+		};
+		if (header) {
+			output.write(String.valueOf(PacketIATFeature.csvHeader() + "\n").getBytes());
+		}
+	}
+
+	@Override
+	public long write(FlowKey key, long flowIndex, long packetNumber, long iat) throws IOException {
+		StringBuilder line = lineBuffers.get();
+		line.setLength(0);
+		line.append(key).append(",");
+		line.append(packetNumber).append(",");
+		line.append(iat).append("\n");
+		output.write(line.toString().getBytes());
+		return flowIndex;
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
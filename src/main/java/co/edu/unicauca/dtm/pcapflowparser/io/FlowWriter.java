@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+
+/**
+ * Writer of the features of flows to an output file. Writers can be shared by
+ * several flow managers, so {@link #write(Flow)} must be thread-safe.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface FlowWriter extends Closeable {
+
+	/**
+	 * @param flow
+	 *            the flow to write
+	 * @throws IOException
+	 */
+	void write(Flow flow) throws IOException;
+
+}
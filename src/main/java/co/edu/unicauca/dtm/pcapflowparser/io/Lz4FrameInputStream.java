@@ -0,0 +1,432 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that decompresses the LZ4 frame format, as written by the
+ * {@code lz4} command-line tool. Consecutive frames are decompressed as one
+ * stream and skippable frames are ignored. Both independent and linked blocks
+ * are supported; linked blocks are decompressed after a window with the last
+ * 64 KB of output, to which their matches may refer. Checksums are skipped
+ * without being verified.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class Lz4FrameInputStream extends InputStream {
+
+	/**
+	 * Magic number of LZ4 frames, as read in big-endian order
+	 */
+	public static final int MAGIC = 0x04224D18;
+
+	/**
+	 * Magic number of LZ4 frames in little-endian order
+	 */
+	private static final int FRAME_MAGIC = 0x184D2204;
+
+	/**
+	 * Mask of the magic numbers of skippable frames in little-endian order
+	 */
+	private static final int SKIPPABLE_MASK = 0xFFFFFFF0;
+
+	/**
+	 * Magic number of skippable frames in little-endian order, without the
+	 * lowest four bits
+	 */
+	private static final int SKIPPABLE_MAGIC = 0x184D2A50;
+
+	/**
+	 * Maximum distance in bytes of a match
+	 */
+	private static final int WINDOW_SIZE = 64 * 1024;
+
+	/**
+	 * Minimum length of a match
+	 */
+	private static final int MIN_MATCH = 4;
+
+	/**
+	 * Underlying input stream
+	 */
+	private final InputStream in;
+
+	/**
+	 * Compressed block
+	 */
+	private byte[] block;
+
+	/**
+	 * Decompressed output, preceded by the window of linked blocks
+	 */
+	private byte[] output;
+
+	/**
+	 * Offset of the next unread byte of the output
+	 */
+	private int position;
+
+	/**
+	 * Offset after the last decompressed byte of the output
+	 */
+	private int limit;
+
+	/**
+	 * Whether the current frame has linked blocks
+	 */
+	private boolean linked;
+
+	/**
+	 * Whether each block of the current frame is followed by a checksum
+	 */
+	private boolean blockChecksum;
+
+	/**
+	 * Whether the current frame ends with a checksum of its content
+	 */
+	private boolean contentChecksum;
+
+	/**
+	 * Maximum size in bytes of the blocks of the current frame
+	 */
+	private int maxBlockSize;
+
+	/**
+	 * Whether a frame is being read
+	 */
+	private boolean inFrame;
+
+	/**
+	 * Whether the end of the stream was reached
+	 */
+	private boolean endOfStream;
+
+	/**
+	 * @param in
+	 *            the underlying input stream, positioned at the magic number of
+	 *            the first frame
+	 */
+	public Lz4FrameInputStream(InputStream in) {
+		super();
+		this.in = in;
+		block = new byte[0];
+		output = new byte[0];
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (position == limit) {
+			if (endOfStream || !nextBlock()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(output, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return limit - position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Reads and decompresses the next block, starting a new frame if needed
+	 * 
+	 * @return true if a block was read, which may be empty; false at the end of
+	 *         the stream
+	 * @throws IOException
+	 *             if the stream is malformed
+	 */
+	private boolean nextBlock() throws IOException {
+		if (!inFrame) {
+			if (!readFrameHeader()) {
+				endOfStream = true;
+				return false;
+			}
+			return true;
+		}
+		int size = readIntLE(false);
+		if (size == 0) {
+			// End mark of the frame
+			if (contentChecksum) {
+				skipFully(4);
+			}
+			inFrame = false;
+			return true;
+		}
+		boolean compressed = (size & 0x80000000) == 0;
+		size &= 0x7FFFFFFF;
+		if (size > maxBlockSize) {
+			throw new IOException("Invalid LZ4 block size " + size);
+		}
+		// Keep the last output as the window of linked blocks
+		int start = 0;
+		if (linked) {
+			int window = Math.min(limit, WINDOW_SIZE);
+			System.arraycopy(output, limit - window, output, 0, window);
+			start = window;
+		}
+		if (compressed) {
+			readFully(block, size);
+			limit = decompress(block, size, output, start, start + maxBlockSize);
+		} else {
+			readFully(output, start, size);
+			limit = start + size;
+		}
+		position = start;
+		if (blockChecksum) {
+			skipFully(4);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the header of the next frame, skipping skippable frames
+	 * 
+	 * @return true if a frame was started; false at the end of the stream
+	 * @throws IOException
+	 *             if the stream is malformed or uses unsupported features
+	 */
+	private boolean readFrameHeader() throws IOException {
+		while (true) {
+			int magic = readIntLE(true);
+			if (magic == -1 && endOfStream) {
+				return false;
+			}
+			if ((magic & SKIPPABLE_MASK) == SKIPPABLE_MAGIC) {
+				skipFully(readIntLE(false) & 0xFFFFFFFFL);
+				continue;
+			}
+			if (magic != FRAME_MAGIC) {
+				throw new IOException("Invalid LZ4 frame magic number " + Integer.toHexString(magic));
+			}
+			break;
+		}
+		int flags = readByte();
+		int blockDescriptor = readByte();
+		if ((flags >>> 6) != 1) {
+			throw new IOException("Unsupported LZ4 frame version " + (flags >>> 6));
+		}
+		if ((flags & 0x01) != 0) {
+			throw new IOException("LZ4 frames with dictionaries are not supported");
+		}
+		linked = (flags & 0x20) == 0;
+		blockChecksum = (flags & 0x10) != 0;
+		contentChecksum = (flags & 0x04) != 0;
+		int sizeCode = (blockDescriptor >>> 4) & 0x07;
+		if (sizeCode < 4) {
+			throw new IOException("Invalid LZ4 block maximum size code " + sizeCode);
+		}
+		maxBlockSize = 1 << (8 + 2 * sizeCode);
+		// Content size, then the header checksum
+		if ((flags & 0x08) != 0) {
+			skipFully(8);
+		}
+		skipFully(1);
+		if (block.length < maxBlockSize) {
+			block = new byte[maxBlockSize];
+		}
+		if (output.length < WINDOW_SIZE + maxBlockSize) {
+			output = new byte[WINDOW_SIZE + maxBlockSize];
+		}
+		position = 0;
+		limit = 0;
+		inFrame = true;
+		return true;
+	}
+
+	/**
+	 * Decompresses an LZ4 block
+	 * 
+	 * @param src
+	 *            the compressed block
+	 * @param srcLength
+	 *            length of the compressed block
+	 * @param dst
+	 *            the output, whose bytes before the offset are the window
+	 * @param dstOffset
+	 *            offset of the first decompressed byte
+	 * @param dstLimit
+	 *            maximum offset after the last decompressed byte
+	 * @return the offset after the last decompressed byte
+	 * @throws IOException
+	 *             if the block is malformed
+	 */
+	private static int decompress(byte[] src, int srcLength, byte[] dst, int dstOffset, int dstLimit)
+			throws IOException {
+		int s = 0;
+		int d = dstOffset;
+		while (s < srcLength) {
+			int token = src[s++] & 0xFF;
+			// Literals
+			int literals = token >>> 4;
+			if (literals == 15) {
+				int b;
+				do {
+					if (s >= srcLength) {
+						throw new IOException("Malformed LZ4 block");
+					}
+					b = src[s++] & 0xFF;
+					literals += b;
+				} while (b == 255);
+			}
+			if (literals > srcLength - s || literals > dstLimit - d) {
+				throw new IOException("Malformed LZ4 block");
+			}
+			System.arraycopy(src, s, dst, d, literals);
+			s += literals;
+			d += literals;
+			// The last sequence has only literals
+			if (s == srcLength) {
+				break;
+			}
+			// Match
+			if (srcLength - s < 2) {
+				throw new IOException("Malformed LZ4 block");
+			}
+			int distance = (src[s] & 0xFF) | ((src[s + 1] & 0xFF) << 8);
+			s += 2;
+			int match = token & 0x0F;
+			if (match == 15) {
+				int b;
+				do {
+					if (s >= srcLength) {
+						throw new IOException("Malformed LZ4 block");
+					}
+					b = src[s++] & 0xFF;
+					match += b;
+				} while (b == 255);
+			}
+			match += MIN_MATCH;
+			int from = d - distance;
+			if (distance == 0 || from < 0 || match > dstLimit - d) {
+				throw new IOException("Malformed LZ4 block");
+			}
+			if (distance >= match) {
+				System.arraycopy(dst, from, dst, d, match);
+				d += match;
+			} else {
+				// Overlapping match repeats the last bytes
+				for (int i = 0; i < match; i++) {
+					dst[d++] = dst[from + i];
+				}
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * @return the next byte of the underlying stream
+	 * @throws IOException
+	 *             if the stream ends
+	 */
+	private int readByte() throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Truncated LZ4 frame");
+		}
+		return b;
+	}
+
+	/**
+	 * @param atFrameStart
+	 *            whether the stream may end before the integer
+	 * @return the next little-endian integer of the underlying stream; -1 if the
+	 *         stream ends at the start of a frame
+	 * @throws IOException
+	 *             if the stream ends within the integer
+	 */
+	private int readIntLE(boolean atFrameStart) throws IOException {
+		int b0 = in.read();
+		if (b0 < 0 && atFrameStart) {
+			endOfStream = true;
+			return -1;
+		}
+		if (b0 < 0) {
+			throw new EOFException("Truncated LZ4 frame");
+		}
+		return b0 | (readByte() << 8) | (readByte() << 16) | (readByte() << 24);
+	}
+
+	/**
+	 * @param b
+	 * @param length
+	 * @throws IOException
+	 *             if the stream ends before
+	 */
+	private void readFully(byte[] b, int length) throws IOException {
+		readFully(b, 0, length);
+	}
+
+	/**
+	 * @param b
+	 * @param off
+	 * @param length
+	 * @throws IOException
+	 *             if the stream ends before
+	 */
+	private void readFully(byte[] b, int off, int length) throws IOException {
+		while (length > 0) {
+			int n = in.read(b, off, length);
+			if (n < 0) {
+				throw new EOFException("Truncated LZ4 frame");
+			}
+			off += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * @param length
+	 * @throws IOException
+	 *             if the stream ends before
+	 */
+	private void skipFully(long length) throws IOException {
+		while (length > 0) {
+			long n = in.skip(length);
+			if (n <= 0) {
+				readByte();
+				n = 1;
+			}
+			length -= n;
+		}
+	}
+
+}
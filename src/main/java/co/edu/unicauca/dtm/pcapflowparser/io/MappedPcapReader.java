@@ -0,0 +1,271 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reader of classic libpcap files that walks the record headers directly on
+ * memory-mapped regions of the file. Files larger than 2 GB are mapped in
+ * consecutive windows, and both byte orders as well as microsecond and
+ * nanosecond timestamps are supported. Packet data is never copied.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class MappedPcapReader implements PcapRecordReader {
+
+	/**
+	 * Magic number of PCAP files with timestamps in microseconds
+	 */
+	public static final int MAGIC_MICROS = 0xa1b2c3d4;
+
+	/**
+	 * Magic number of PCAP files with timestamps in nanoseconds
+	 */
+	public static final int MAGIC_NANOS = 0xa1b23c4d;
+
+	/**
+	 * Size in bytes of the global header
+	 */
+	public static final int GLOBAL_HEADER_SIZE = 24;
+
+	/**
+	 * Size in bytes of a record header
+	 */
+	public static final int RECORD_HEADER_SIZE = 16;
+
+	/**
+	 * Maximum captured length accepted for a record; larger values mean a corrupt
+	 * file
+	 */
+	public static final int MAX_CAPTURE_LENGTH = 262144;
+
+	/**
+	 * Size in bytes of the mapped windows
+	 */
+	private static final long WINDOW_SIZE = 1L << 28;
+
+	/**
+	 * Channel of the PCAP file
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Size in bytes of the PCAP file
+	 */
+	private long fileSize;
+
+	/**
+	 * Byte order of the PCAP file
+	 */
+	private ByteOrder order;
+
+	/**
+	 * Whether timestamps are in nanoseconds
+	 */
+	private boolean nanos;
+
+	/**
+	 * Link-layer header type of the PCAP file
+	 */
+	private int linkType;
+
+	/**
+	 * Current window in the byte order of the file, for reading record headers
+	 */
+	private ByteBuffer window;
+
+	/**
+	 * Current window in big-endian order, for reading packet data
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * File offset of the current window
+	 */
+	private long windowStart;
+
+	/**
+	 * Offset of the next record within the current window
+	 */
+	private int position;
+
+	/**
+	 * Timestamp in microseconds of the current record
+	 */
+	private long timestamp;
+
+	/**
+	 * Wire length of the current record
+	 */
+	private int wireLength;
+
+	/**
+	 * Captured length of the current record
+	 */
+	private int captureLength;
+
+	/**
+	 * Offset of the data of the current record within the current window
+	 */
+	private int dataOffset;
+
+	/**
+	 * Opens a PCAP file and reads its global header
+	 * 
+	 * @param file
+	 *            the PCAP file
+	 * @throws IOException
+	 *             if the file can not be mapped or is not a classic PCAP file
+	 */
+	public MappedPcapReader(File file) throws IOException {
+		super();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		channel = raf.getChannel();
+		try {
+			fileSize = channel.size();
+			if (fileSize < GLOBAL_HEADER_SIZE) {
+				throw new IOException("File '" + file.getName() + "' is too short to be a PCAP file");
+			}
+			map(0);
+			// Detect byte order and timestamp precision from the magic number
+			int magic = window.getInt(0);
+			if (magic == MAGIC_MICROS || magic == MAGIC_NANOS) {
+				order = ByteOrder.BIG_ENDIAN;
+			} else if (Integer.reverseBytes(magic) == MAGIC_MICROS || Integer.reverseBytes(magic) == MAGIC_NANOS) {
+				order = ByteOrder.LITTLE_ENDIAN;
+				magic = Integer.reverseBytes(magic);
+			} else {
+				throw new IOException("File '" + file.getName() + "' is not a PCAP file (magic number "
+						+ Integer.toHexString(magic) + ")");
+			}
+			window.order(order);
+			nanos = magic == MAGIC_NANOS;
+			linkType = window.getInt(20) & 0x0FFFFFFF;
+			position = GLOBAL_HEADER_SIZE;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps a window of the file starting at the given offset
+	 * 
+	 * @param offset
+	 *            the file offset where the window starts
+	 * @throws IOException
+	 */
+	private void map(long offset) throws IOException {
+		long size = Math.min(WINDOW_SIZE, fileSize - offset);
+		MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+		window = mapped;
+		window.order(order == null ? ByteOrder.BIG_ENDIAN : order);
+		data = mapped.duplicate().order(ByteOrder.BIG_ENDIAN);
+		windowStart = offset;
+		position = 0;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		// Remap when the record header does not fit in the current window
+		if (window.limit() - position < RECORD_HEADER_SIZE) {
+			long offset = windowStart + position;
+			if (fileSize - offset < RECORD_HEADER_SIZE) {
+				if (offset < fileSize) {
+					windowStart = fileSize;
+					position = window.limit();
+					throw new IOException("Truncated record header at offset " + offset);
+				}
+				return false;
+			}
+			map(offset);
+		}
+		// Read record header
+		long seconds = window.getInt(position) & 0xFFFFFFFFL;
+		long fraction = window.getInt(position + 4) & 0xFFFFFFFFL;
+		captureLength = window.getInt(position + 8);
+		wireLength = window.getInt(position + 12);
+		if (captureLength < 0 || captureLength > MAX_CAPTURE_LENGTH) {
+			// Corrupt file; skip the rest of it
+			long offset = windowStart + position;
+			windowStart = fileSize;
+			position = window.limit();
+			throw new IOException("Invalid captured length " + captureLength + " at offset " + offset);
+		}
+		timestamp = seconds * 1000000L + (nanos ? fraction / 1000L : fraction);
+		// Remap when the record data does not fit in the current window
+		if (window.limit() - position - RECORD_HEADER_SIZE < captureLength) {
+			long offset = windowStart + position;
+			if (fileSize - offset - RECORD_HEADER_SIZE < captureLength) {
+				windowStart = fileSize;
+				position = window.limit();
+				throw new IOException("Truncated record at offset " + offset);
+			}
+			map(offset);
+		}
+		dataOffset = position + RECORD_HEADER_SIZE;
+		position = dataOffset + captureLength;
+		return true;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public int getWireLength() {
+		return wireLength;
+	}
+
+	@Override
+	public int getCaptureLength() {
+		return captureLength;
+	}
+
+	@Override
+	public int getLinkType() {
+		return linkType;
+	}
+
+	@Override
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	@Override
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.nio.ByteBuffer;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Pure-Java decoder of the Ethernet, IEEE 802.1Q, IPv4, IPv6, TCP and UDP
+ * headers of a captured packet. It fills the same fields of {@link Packet} that
+ * the jnetpcap decoding in the packet manager does.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PacketDecoder {
+
+	/**
+	 * BSD loopback encapsulation
+	 */
+	public static final int LINKTYPE_NULL = 0;
+
+	/**
+	 * Ethernet
+	 */
+	public static final int LINKTYPE_ETHERNET = 1;
+
+	/**
+	 * Raw IP
+	 */
+	public static final int LINKTYPE_RAW = 101;
+
+	/**
+	 * Raw IP as DLT_RAW of most platforms, found in files that store the DLT
+	 * value instead of the link type
+	 */
+	public static final int DLT_RAW = 12;
+
+	/**
+	 * Raw IP as DLT_RAW of OpenBSD
+	 */
+	public static final int DLT_RAW_OPENBSD = 14;
+
+	/**
+	 * Linux cooked capture
+	 */
+	public static final int LINKTYPE_LINUX_SLL = 113;
+
+	/**
+	 * Raw IPv4
+	 */
+	public static final int LINKTYPE_IPV4 = 228;
+
+	/**
+	 * Raw IPv6
+	 */
+	public static final int LINKTYPE_IPV6 = 229;
+
+	/**
+	 * Ethernet type of IPv4
+	 */
+	private static final int ETH_TYPE_IPV4 = 0x0800;
+
+	/**
+	 * Ethernet type of IPv6
+	 */
+	private static final int ETH_TYPE_IPV6 = 0x86DD;
+
+	/**
+	 * Ethernet type of IEEE 802.1Q
+	 */
+	private static final int ETH_TYPE_DOT1Q = 0x8100;
+
+	/**
+	 * IP protocol number of TCP
+	 */
+	private static final int PROTO_TCP = 6;
+
+	/**
+	 * IP protocol number of UDP
+	 */
+	private static final int PROTO_UDP = 17;
+
+	/**
+	 * Whether the Ethernet addresses are always copied, or only when they
+	 * identify the flow because the packet has no IP header
+	 */
+	private final boolean ethAddresses;
+
+	/**
+	 * Offset of the Ethernet addresses of the packet being decoded; -1 if it has
+	 * none
+	 */
+	private int ethOffset;
+
+	/**
+	 * Constructor that always copies the Ethernet addresses
+	 */
+	public PacketDecoder() {
+		this(true);
+	}
+
+	/**
+	 * @param ethAddresses
+	 *            whether to always copy the Ethernet addresses; if false, they are
+	 *            copied only for packets without IP header, whose flow key
+	 *            consists of them
+	 */
+	public PacketDecoder(boolean ethAddresses) {
+		super();
+		this.ethAddresses = ethAddresses;
+	}
+
+	/**
+	 * Decodes the headers of a captured packet
+	 * 
+	 * @param linkType
+	 *            the link-layer header type of the capture
+	 * @param data
+	 *            big-endian buffer that holds the captured bytes
+	 * @param offset
+	 *            absolute offset of the first captured byte in the buffer
+	 * @param length
+	 *            number of captured bytes
+	 * @param packet
+	 *            the reset packet to fill; its address arrays are reused
+	 */
+	public void decode(int linkType, ByteBuffer data, int offset, int length, Packet packet) {
+		ethOffset = -1;
+		decodeHeaders(linkType, data, offset, length, packet);
+		// Copy the Ethernet addresses once it is known whether they are needed
+		if (ethOffset != -1 && (ethAddresses || packet.getIpSrc() == null)) {
+			copy(data, ethOffset, packet.newEthDst());
+			copy(data, ethOffset + 6, packet.newEthSrc());
+		}
+	}
+
+	/**
+	 * Decodes the headers of a captured packet, except for the Ethernet
+	 * addresses, whose offset is recorded
+	 * 
+	 * @param linkType
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @param packet
+	 */
+	private void decodeHeaders(int linkType, ByteBuffer data, int offset, int length, Packet packet) {
+		int end = offset + length;
+		int networkType;
+		int position;
+		switch (linkType) {
+		case LINKTYPE_ETHERNET:
+			if (length < 14) {
+				return;
+			}
+			ethOffset = offset;
+			networkType = data.getShort(offset + 12) & 0xFFFF;
+			packet.setEthType(networkType);
+			position = offset + 14;
+			// IEEE 802.1Q; identifier and type are taken from the outer tag
+			if (networkType == ETH_TYPE_DOT1Q && position + 4 <= end) {
+				packet.setVlanId(data.getShort(position) & 0x0FFF);
+				networkType = data.getShort(position + 2) & 0xFFFF;
+				packet.setEthType(networkType);
+				position += 4;
+				// Skip stacked tags
+				while (networkType == ETH_TYPE_DOT1Q && position + 4 <= end) {
+					networkType = data.getShort(position + 2) & 0xFFFF;
+					position += 4;
+				}
+			}
+			break;
+		case LINKTYPE_LINUX_SLL:
+			if (length < 16) {
+				return;
+			}
+			networkType = data.getShort(offset + 14) & 0xFFFF;
+			position = offset + 16;
+			break;
+		case LINKTYPE_NULL:
+			if (length < 4) {
+				return;
+			}
+			// Address family in the byte order of the capturing host
+			int family = data.getInt(offset);
+			if (family > 0xFFFF) {
+				family = Integer.reverseBytes(family);
+			}
+			if (family == 2) {
+				networkType = ETH_TYPE_IPV4;
+			} else if (family == 24 || family == 28 || family == 30) {
+				networkType = ETH_TYPE_IPV6;
+			} else {
+				return;
+			}
+			position = offset + 4;
+			break;
+		case LINKTYPE_RAW:
+		case DLT_RAW:
+		case DLT_RAW_OPENBSD:
+			if (length < 1) {
+				return;
+			}
+			networkType = (data.get(offset) & 0xF0) == 0x60 ? ETH_TYPE_IPV6 : ETH_TYPE_IPV4;
+			position = offset;
+			break;
+		case LINKTYPE_IPV4:
+			networkType = ETH_TYPE_IPV4;
+			position = offset;
+			break;
+		case LINKTYPE_IPV6:
+			networkType = ETH_TYPE_IPV6;
+			position = offset;
+			break;
+		default:
+			return;
+		}
+		// IPv4/IPv6
+		int transport;
+		if (networkType == ETH_TYPE_IPV4) {
+			if (position + 20 > end || (data.get(position) & 0xF0) != 0x40) {
+				return;
+			}
+			copy(data, position + 12, packet.newIpSrc(4));
+			copy(data, position + 16, packet.newIpDst(4));
+			transport = data.get(position + 9) & 0xFF;
+			packet.setIpProto(transport);
+			// Only the first fragment carries the transport header
+			if ((data.getShort(position + 6) & 0x1FFF) != 0) {
+				return;
+			}
+			int headerLength = (data.get(position) & 0x0F) * 4;
+			if (headerLength < 20) {
+				return;
+			}
+			position += headerLength;
+		} else if (networkType == ETH_TYPE_IPV6) {
+			if (position + 40 > end || (data.get(position) & 0xF0) != 0x60) {
+				return;
+			}
+			copy(data, position + 8, packet.newIpSrc(16));
+			copy(data, position + 24, packet.newIpDst(16));
+			transport = data.get(position + 6) & 0xFF;
+			packet.setIpProto(transport);
+			position += 40;
+			// Skip extension headers
+			while (position + 8 <= end) {
+				if (transport == 0 || transport == 43 || transport == 60) {
+					// Hop-by-hop, routing and destination options
+					int next = data.get(position) & 0xFF;
+					position += ((data.get(position + 1) & 0xFF) + 1) * 8;
+					transport = next;
+				} else if (transport == 44) {
+					// Fragment; only the first fragment carries the transport header
+					if ((data.getShort(position + 2) & 0xFFF8) != 0) {
+						return;
+					}
+					transport = data.get(position) & 0xFF;
+					position += 8;
+				} else if (transport == 51) {
+					// Authentication header
+					int next = data.get(position) & 0xFF;
+					position += ((data.get(position + 1) & 0xFF) + 2) * 4;
+					transport = next;
+				} else {
+					break;
+				}
+			}
+		} else {
+			return;
+		}
+		// TCP/UDP
+		if ((transport == PROTO_TCP || transport == PROTO_UDP) && position + 4 <= end) {
+			packet.setPortSrc(data.getShort(position) & 0xFFFF);
+			packet.setPortDst(data.getShort(position + 2) & 0xFFFF);
+		}
+	}
+
+	/**
+	 * Copies bytes of the buffer to an array
+	 * 
+	 * @param data
+	 *            the buffer
+	 * @param offset
+	 *            absolute offset of the first byte
+	 * @param bytes
+	 *            the array to fill
+	 */
+	private static void copy(ByteBuffer data, int offset, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = data.get(offset + i);
+		}
+	}
+
+}
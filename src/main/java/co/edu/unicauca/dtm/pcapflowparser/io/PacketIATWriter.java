@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+
+/**
+ * Writer of the packet IAT report, which has a record with the packet number
+ * and the IAT of each packet of a flow after the first one. A writer may
+ * assign an index to each flow, which flow managers keep with the flow and
+ * pass back for its next packets. Writers can be shared by several flow
+ * managers, so {@link #write(FlowKey, long, long, long)} must be thread-safe.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface PacketIATWriter extends Closeable {
+
+	/**
+	 * Index of a flow that has not been written to the report
+	 */
+	long NO_INDEX = -1;
+
+	/**
+	 * @param key
+	 *            the key of the flow
+	 * @param flowIndex
+	 *            the index returned for the previous packet of the flow;
+	 *            {@link #NO_INDEX} for its first record
+	 * @param packetNumber
+	 *            number of the packet in the flow, starting at 1
+	 * @param iat
+	 *            inter-arrival time in microseconds of the packet
+	 * @return the index of the flow to pass for its next packet
+	 * @throws IOException
+	 */
+	long write(FlowKey key, long flowIndex, long packetNumber, long iat) throws IOException;
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPOutputStream;
+
+import io.airlift.compress.zstd.ZstdCompressor;
+
+/**
+ * Output stream that compresses the written bytes in independent blocks with
+ * a pool of worker threads, and writes the compressed blocks to the underlying
+ * stream in order. Each block is a complete gzip member or zstd frame, so the
+ * output is a standard multi-member gzip file or multi-frame zstd file that
+ * common tools decompress as a whole. A bounded number of blocks is compressed
+ * at once; writers wait for the oldest block when all are busy. The stream is
+ * not thread-safe; it is meant to be written by the thread of an
+ * {@link AsyncOutputWriter}.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ParallelCompressedOutputStream extends OutputStream {
+
+	/**
+	 * Default size in bytes of the uncompressed blocks
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+	/**
+	 * Compression codecs
+	 */
+	public enum Codec {
+		/**
+		 * Blocks are gzip members
+		 */
+		GZIP("gzip", ".gz"),
+		/**
+		 * Blocks are zstd frames
+		 */
+		ZSTD("zstd", ".zst");
+
+		/**
+		 * 
+		 */
+		private final String name;
+
+		/**
+		 * 
+		 */
+		private final String extension;
+
+		/**
+		 * @param name
+		 * @param extension
+		 */
+		Codec(String name, String extension) {
+			this.name = name;
+			this.extension = extension;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the extension of the compressed files
+		 */
+		public String getExtension() {
+			return extension;
+		}
+
+		/**
+		 * @param name
+		 * @return the codec with the given name; null if it does not exist
+		 */
+		public static Codec byName(String name) {
+			for (Codec codec : Codec.values()) {
+				if (codec.getName().equalsIgnoreCase(name)) {
+					return codec;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Underlying output stream
+	 */
+	private final OutputStream out;
+
+	/**
+	 * Compression codec
+	 */
+	private final Codec codec;
+
+	/**
+	 * Workers that compress the blocks
+	 */
+	private final ExecutorService workers;
+
+	/**
+	 * Maximum number of blocks being compressed at once
+	 */
+	private final int maxPending;
+
+	/**
+	 * Blocks being compressed, in output order
+	 */
+	private final Deque<Future<byte[]>> pending;
+
+	/**
+	 * Block being filled
+	 */
+	private byte[] block;
+
+	/**
+	 * Number of bytes written in the block
+	 */
+	private int length;
+
+	/**
+	 * Whether the stream is closed
+	 */
+	private boolean closed;
+
+	/**
+	 * @param out
+	 *            the underlying output stream
+	 * @param codec
+	 *            the compression codec
+	 * @param nThreads
+	 *            number of worker threads
+	 */
+	public ParallelCompressedOutputStream(OutputStream out, Codec codec, int nThreads) {
+		this(out, codec, nThreads, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * @param out
+	 *            the underlying output stream
+	 * @param codec
+	 *            the compression codec
+	 * @param nThreads
+	 *            number of worker threads
+	 * @param blockSize
+	 *            size in bytes of the uncompressed blocks
+	 */
+	public ParallelCompressedOutputStream(OutputStream out, Codec codec, int nThreads, int blockSize) {
+		super();
+		if (nThreads < 1 || blockSize < 1) {
+			throw new IllegalArgumentException("Number of threads and block size must be positive");
+		}
+		this.out = out;
+		this.codec = codec;
+		workers = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ParallelCompressedOutputStream-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Keep all workers busy while the oldest block is written
+		maxPending = 2 * nThreads;
+		pending = new ArrayDeque<Future<byte[]>>(maxPending + 1);
+		block = new byte[blockSize];
+		length = 0;
+		closed = false;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		checkOpen();
+		while (len > 0) {
+			int n = Math.min(len, block.length - length);
+			System.arraycopy(b, off, block, length, n);
+			length += n;
+			off += n;
+			len -= n;
+			if (length == block.length) {
+				submit();
+			}
+		}
+	}
+
+	/**
+	 * Compresses the pending bytes as a block, even if it is not full, writes all
+	 * blocks and flushes the underlying stream
+	 */
+	@Override
+	public void flush() throws IOException {
+		checkOpen();
+		if (length > 0) {
+			submit();
+		}
+		writeBlocks(0);
+		out.flush();
+	}
+
+	/**
+	 * Writes the pending bytes and all blocks, stops the workers and closes the
+	 * underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			if (length > 0) {
+				submit();
+			}
+			writeBlocks(0);
+		} finally {
+			closed = true;
+			workers.shutdownNow();
+			out.close();
+		}
+	}
+
+	/**
+	 * Hands the current block over to the workers, and writes the compressed
+	 * blocks that are done or over the maximum
+	 * 
+	 * @throws IOException
+	 */
+	private void submit() throws IOException {
+		final byte[] data = Arrays.copyOf(block, length);
+		length = 0;
+		pending.add(workers.submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return compress(data);
+			}
+		}));
+		writeBlocks(maxPending);
+	}
+
+	/**
+	 * Writes the compressed blocks in order until at most the given number of
+	 * blocks is pending and the oldest one is not done
+	 * 
+	 * @param maxBlocks
+	 *            number of pending blocks to wait for
+	 * @throws IOException
+	 *             if a block can not be compressed or written
+	 */
+	private void writeBlocks(int maxBlocks) throws IOException {
+		while (!pending.isEmpty() && (pending.size() > maxBlocks || pending.peek().isDone())) {
+			byte[] compressed;
+			try {
+				compressed = pending.poll().get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while compressing the output");
+			} catch (ExecutionException e) {
+				throw new IOException("Output block can not be compressed", e.getCause());
+			}
+			out.write(compressed);
+		}
+	}
+
+	/**
+	 * @param data
+	 *            an uncompressed block
+	 * @return the block as a gzip member or a zstd frame
+	 * @throws IOException
+	 */
+	private byte[] compress(byte[] data) throws IOException {
+		if (codec == Codec.ZSTD) {
+			ZstdCompressor compressor = new ZstdCompressor();
+			byte[] compressed = new byte[compressor.maxCompressedLength(data.length)];
+			int size = compressor.compress(data, 0, data.length, compressed, 0, compressed.length);
+			return Arrays.copyOf(compressed, size);
+		}
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed, 64 * 1024);
+		gzip.write(data);
+		gzip.close();
+		return compressed.toByteArray();
+	}
+
+	/**
+	 * @throws IOException
+	 *             if the stream is closed
+	 */
+	private void checkOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Output is closed");
+		}
+	}
+
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.parquet.example.data.Group;
+import org.apache.parquet.example.data.simple.SimpleGroupFactory;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.example.ExampleParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalOutputFile;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowStatistics;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Writer of flows as rows of a Parquet file. Only the included features are
+ * columns. Times, sizes and counters are integers, addresses are
+ * dictionary-encoded strings, and IAT statistics are doubles. The features of
+ * the first packets have a column per packet, which is null if the flow has
+ * fewer packets.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ParquetFlowWriter implements FlowWriter {
+
+	/**
+	 * Default size in megabytes of row groups
+	 */
+	public static final int DEFAULT_ROW_GROUP_SIZE = 128;
+
+	/**
+	 * Default compression codec
+	 */
+	public static final String DEFAULT_CODEC = "snappy";
+
+	/**
+	 * Compression codecs available without native libraries
+	 */
+	private static final String[] CODECS = { "uncompressed", "snappy", "gzip", "zstd", "lz4_raw" };
+
+	/**
+	 * Writer of the Parquet file
+	 */
+	private final ParquetWriter<Group> writer;
+
+	/**
+	 * Factory of rows
+	 */
+	private final SimpleGroupFactory factory;
+
+	/**
+	 * Included features in the order of the columns
+	 */
+	private final FlowFeature[] columns;
+
+	/**
+	 * Number of first packets of the features of the first packets
+	 */
+	private final int nFirstPackets;
+
+	/**
+	 * Factor of the packet and byte counters of the flows
+	 */
+	private long packetScale = 1;
+
+	/**
+	 * @param outFile
+	 *            the Parquet file
+	 * @param features
+	 * @param nFirstPackets
+	 * @param codec
+	 *            name of the compression codec (see {@link #codecByName(String)})
+	 * @param rowGroupSize
+	 *            size in bytes of row groups
+	 * @throws IOException
+	 */
+	public ParquetFlowWriter(File outFile, Set<Integer> features, int nFirstPackets, String codec,
+			long rowGroupSize) throws IOException {
+		super();
+		this.columns = FlowFeature.columns(features);
+		this.nFirstPackets = nFirstPackets;
+		MessageType schema = schema(features, nFirstPackets);
+		factory = new SimpleGroupFactory(schema);
+		writer = ExampleParquetWriter.builder(new LocalOutputFile(outFile.toPath())).withType(schema)
+				.withCompressionCodec(codecByName(codec)).withRowGroupSize(rowGroupSize)
+				.withDictionaryEncoding(true).withWriteMode(ParquetFileWriter.Mode.OVERWRITE).build();
+	}
+
+	/**
+	 * @param name
+	 *            name of the codec: 'uncompressed', 'snappy', 'gzip', 'zstd' or
+	 *            'lz4_raw'
+	 * @return the compression codec; null if the name is not available
+	 */
+	public static CompressionCodecName codecByName(String name) {
+		for (String codec : CODECS) {
+			if (codec.equalsIgnoreCase(name)) {
+				return CompressionCodecName.valueOf(codec.toUpperCase());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Generates the schema of the included features, in the order of the CSV
+	 * header
+	 * 
+	 * @param featureIds
+	 * @param nFirstPackets
+	 * @return the schema of the rows
+	 */
+	public static MessageType schema(Set<Integer> featureIds, int nFirstPackets) {
+		Types.MessageTypeBuilder builder = Types.buildMessage();
+		for (FlowFeature feature : FlowFeature.values()) {
+			if (!featureIds.contains(feature.getId())) {
+				continue;
+			}
+			switch (feature) {
+			case ETH_SRC:
+			case ETH_DST:
+			case IP_SRC:
+			case IP_DST:
+				builder.required(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType())
+						.named(feature.getName());
+				break;
+			case VLAN_ID:
+			case ETH_TYPE:
+			case IP_PROTO:
+			case PORT_SRC:
+			case PORT_DST:
+			case PRIOR_TOS:
+				builder.required(PrimitiveTypeName.INT32).named(feature.getName());
+				break;
+			case IAT_MEAN:
+			case IAT_STD:
+			case IAT_MAX:
+			case IAT_MIN:
+			case FWD_IAT_MEAN:
+			case FWD_IAT_STD:
+			case FWD_IAT_MAX:
+			case FWD_IAT_MIN:
+			case BWD_IAT_MEAN:
+			case BWD_IAT_STD:
+			case BWD_IAT_MAX:
+			case BWD_IAT_MIN:
+			case SIZE_P50:
+			case SIZE_P90:
+			case SIZE_P99:
+			case IAT_P50:
+			case IAT_P90:
+			case IAT_P99:
+				builder.required(PrimitiveTypeName.DOUBLE).named(feature.getName());
+				break;
+			case PACKET_SIZE:
+				for (int i = 1; i <= nFirstPackets; i++) {
+					builder.optional(PrimitiveTypeName.INT32).named(feature.getName() + i);
+				}
+				break;
+			case PACKET_IAT:
+				for (int i = 1; i <= nFirstPackets; i++) {
+					builder.optional(PrimitiveTypeName.INT64).named(feature.getName() + i);
+				}
+				break;
+			default:
+				builder.required(PrimitiveTypeName.INT64).named(feature.getName());
+				break;
+			}
+		}
+		return builder.named("flow");
+	}
+
+	/**
+	 * Scales the packet and byte counters of the written flows, e.g., by the
+	 * packet sampling rate. Must be called before writing flows
+	 * 
+	 * @param packetScale
+	 */
+	public void setPacketScale(long packetScale) {
+		this.packetScale = packetScale;
+	}
+
+	@Override
+	public synchronized void write(Flow flow) throws IOException {
+		Group row = factory.newGroup();
+		Packet firstPacket = flow.getFirstPacket();
+		FlowStatistics packetSizes = flow.getPacketSizes();
+		FlowStatistics packetIATs = flow.getPacketIATs();
+		for (FlowFeature feature : columns) {
+			String name = feature.getName();
+			switch (feature) {
+			case START_TIME:
+				row.append(name, flow.getStartTime());
+				break;
+			case END_TIME:
+				row.append(name, flow.getLastSeen());
+				break;
+			case ETH_SRC:
+				row.append(name, firstPacket.getEthSrcString());
+				break;
+			case ETH_DST:
+				row.append(name, firstPacket.getEthDstString());
+				break;
+			case VLAN_ID:
+				row.append(name, firstPacket.getVlanId());
+				break;
+			case ETH_TYPE:
+				row.append(name, firstPacket.getEthType());
+				break;
+			case IP_SRC:
+				row.append(name, firstPacket.getIpSrcString());
+				break;
+			case IP_DST:
+				row.append(name, firstPacket.getIpDstString());
+				break;
+			case IP_PROTO:
+				row.append(name, firstPacket.getIpProto());
+				break;
+			case PORT_SRC:
+				row.append(name, firstPacket.getPortSrc());
+				break;
+			case PORT_DST:
+				row.append(name, firstPacket.getPortDst());
+				break;
+			case TOTAL_SIZE:
+				row.append(name, (long) packetSizes.getSum() * packetScale);
+				break;
+			case TOTAL_PACKETS:
+				row.append(name, packetSizes.getN() * packetScale);
+				break;
+			case DURATION:
+				row.append(name, flow.getLastSeen() - flow.getStartTime());
+				break;
+			case IAT_MEAN:
+				row.append(name, packetIATs.getMean());
+				break;
+			case IAT_STD:
+				row.append(name, packetIATs.getStandardDeviation());
+				break;
+			case IAT_MAX:
+				row.append(name, packetIATs.getMax());
+				break;
+			case IAT_MIN:
+				row.append(name, packetIATs.getMin());
+				break;
+			case SIZE_P50:
+			case SIZE_P90:
+			case SIZE_P99:
+				row.append(name, flow.getPacketSizeQuantile(feature.getQuantile()));
+				break;
+			case IAT_P50:
+			case IAT_P90:
+			case IAT_P99:
+				row.append(name, flow.getPacketIATQuantile(feature.getQuantile()));
+				break;
+			case FWD_SIZE:
+				row.append(name, (long) flow.getFwdPacketSizes().getSum() * packetScale);
+				break;
+			case FWD_PACKETS:
+				row.append(name, flow.getFwdPacketSizes().getN() * packetScale);
+				break;
+			case FWD_IAT_MEAN:
+				row.append(name, flow.getFwdPacketIATs().getMean());
+				break;
+			case FWD_IAT_STD:
+				row.append(name, flow.getFwdPacketIATs().getStandardDeviation());
+				break;
+			case FWD_IAT_MAX:
+				row.append(name, flow.getFwdPacketIATs().getMax());
+				break;
+			case FWD_IAT_MIN:
+				row.append(name, flow.getFwdPacketIATs().getMin());
+				break;
+			case BWD_SIZE:
+				row.append(name, (long) flow.getBwdPacketSizes().getSum() * packetScale);
+				break;
+			case BWD_PACKETS:
+				row.append(name, flow.getBwdPacketSizes().getN() * packetScale);
+				break;
+			case BWD_IAT_MEAN:
+				row.append(name, flow.getBwdPacketIATs().getMean());
+				break;
+			case BWD_IAT_STD:
+				row.append(name, flow.getBwdPacketIATs().getStandardDeviation());
+				break;
+			case BWD_IAT_MAX:
+				row.append(name, flow.getBwdPacketIATs().getMax());
+				break;
+			case BWD_IAT_MIN:
+				row.append(name, flow.getBwdPacketIATs().getMin());
+				break;
+			case PRIOR_TOS:
+				row.append(name, flow.getPriorTOs());
+				break;
+			case TIME_LAST_TO:
+				row.append(name, flow.getTimeAfterLastTO());
+				break;
+			case PACKET_SIZE:
+				List<Integer> sizes = flow.getNFirstPacketSizes();
+				for (int i = 0; i < nFirstPackets && i < sizes.size(); i++) {
+					row.append(name + (i + 1), sizes.get(i));
+				}
+				break;
+			case PACKET_IAT:
+				List<Long> iats = flow.getNFirstPacketIATs();
+				for (int i = 0; i < nFirstPackets && i < iats.size(); i++) {
+					row.append(name + (i + 1), iats.get(i));
+				}
+				break;
+			}
+		}
+		writer.write(row);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sequential reader of captured packet records. The data of the current record
+ * is exposed as a region of a big-endian buffer owned by the reader, which is
+ * only valid until the next call to {@link #next()}.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface PcapRecordReader extends Closeable {
+
+	/**
+	 * Moves to the next record
+	 * 
+	 * @return true if a record was read; false at the end of the capture
+	 * @throws IOException
+	 *             if the capture can not be read or is malformed
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return the arrival time in microseconds of the current record
+	 */
+	long getTimestamp();
+
+	/**
+	 * @return the length in bytes of the current packet on the wire
+	 */
+	int getWireLength();
+
+	/**
+	 * @return the number of bytes of the current packet that were captured
+	 */
+	int getCaptureLength();
+
+	/**
+	 * @return the link-layer header type of the current record
+	 */
+	int getLinkType();
+
+	/**
+	 * @return the big-endian buffer that holds the captured bytes of the current
+	 *         record
+	 */
+	ByteBuffer getData();
+
+	/**
+	 * @return the absolute offset in {@link #getData()} of the first captured byte
+	 *         of the current record
+	 */
+	int getDataOffset();
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Writer of classic libpcap files in little-endian byte order with timestamps
+ * in microseconds. Records are written as given, so the output should be
+ * buffered.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PcapWriter implements Closeable {
+
+	/**
+	 * Output of the PCAP file
+	 */
+	private OutputStream output;
+
+	/**
+	 * Maximum number of captured bytes of a packet
+	 */
+	private int snapLength;
+
+	/**
+	 * Reused record header
+	 */
+	private ByteBuffer recordHeader;
+
+	/**
+	 * Number of written packets
+	 */
+	private long packets;
+
+	/**
+	 * Writes the global header of the file
+	 * 
+	 * @param output
+	 *            output of the PCAP file
+	 * @param linkType
+	 *            link-layer header type of the packets (see
+	 *            {@link PacketDecoder#LINKTYPE_ETHERNET})
+	 * @param snapLength
+	 *            maximum number of captured bytes of a packet; longer packets are
+	 *            truncated
+	 * @throws IOException
+	 */
+	public PcapWriter(OutputStream output, int linkType, int snapLength) throws IOException {
+		super();
+		if (snapLength < 1 || snapLength > MappedPcapReader.MAX_CAPTURE_LENGTH) {
+			throw new IllegalArgumentException(
+					"Snapshot length must be between 1 and " + MappedPcapReader.MAX_CAPTURE_LENGTH);
+		}
+		this.output = output;
+		this.snapLength = snapLength;
+		ByteBuffer globalHeader = ByteBuffer.allocate(MappedPcapReader.GLOBAL_HEADER_SIZE)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		globalHeader.putInt(MappedPcapReader.MAGIC_MICROS);
+		// Version 2.4, GMT offset and timestamp accuracy
+		globalHeader.putShort((short) 2).putShort((short) 4).putInt(0).putInt(0);
+		globalHeader.putInt(snapLength).putInt(linkType);
+		output.write(globalHeader.array());
+		recordHeader = ByteBuffer.allocate(MappedPcapReader.RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		packets = 0;
+	}
+
+	/**
+	 * Writes a packet record
+	 * 
+	 * @param timestamp
+	 *            capture time in microseconds since the epoch
+	 * @param data
+	 *            the bytes of the packet from its link-layer header
+	 * @param length
+	 *            number of available bytes in the data; bytes beyond the snapshot
+	 *            length are not written
+	 * @param wireLength
+	 *            length of the packet on the wire, which may exceed the available
+	 *            bytes
+	 * @throws IOException
+	 */
+	public void write(long timestamp, byte[] data, int length, int wireLength) throws IOException {
+		int captureLength = Math.min(length, snapLength);
+		recordHeader.clear();
+		recordHeader.putInt((int) (timestamp / 1000000)).putInt((int) (timestamp % 1000000));
+		recordHeader.putInt(captureLength).putInt(Math.max(wireLength, captureLength));
+		output.write(recordHeader.array());
+		output.write(data, 0, captureLength);
+		packets++;
+	}
+
+	/**
+	 * @return the number of written packets
+	 */
+	public long getPackets() {
+		return packets;
+	}
+
+	/**
+	 * @return the snapLength
+	 */
+	public int getSnapLength() {
+		return snapLength;
+	}
+
+	@Override
+	public void close() throws IOException {
+		output.close();
+	}
+
+}
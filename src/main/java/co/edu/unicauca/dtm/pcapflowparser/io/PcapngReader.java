@@ -0,0 +1,549 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reader of pcapng captures that streams their blocks sequentially. Blocks are
+ * read into a buffer that is compacted as it is consumed, and packet data is
+ * exposed in place. Section Header, Interface Description, Enhanced Packet and
+ * Simple Packet blocks are interpreted, and the other blocks are skipped. Each
+ * section may have its own byte order, and each interface its own link-layer
+ * header type and timestamp resolution and offset. Simple Packet blocks have no
+ * timestamp, so they take the timestamp of the previous packet.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PcapngReader implements PcapRecordReader {
+
+	/**
+	 * Type of the Section Header block, which is the magic number of pcapng
+	 * captures in both byte orders
+	 */
+	public static final int MAGIC = 0x0A0D0D0A;
+
+	/**
+	 * Byte-order magic of Section Header blocks
+	 */
+	private static final int BYTE_ORDER_MAGIC = 0x1A2B3C4D;
+
+	/**
+	 * Type of Interface Description blocks
+	 */
+	private static final int BLOCK_INTERFACE = 0x00000001;
+
+	/**
+	 * Type of Simple Packet blocks
+	 */
+	private static final int BLOCK_SIMPLE_PACKET = 0x00000003;
+
+	/**
+	 * Type of Enhanced Packet blocks
+	 */
+	private static final int BLOCK_ENHANCED_PACKET = 0x00000006;
+
+	/**
+	 * Size in bytes of the type, the length and the trailing length of a block
+	 */
+	private static final int BLOCK_OVERHEAD = 12;
+
+	/**
+	 * Code of the interface option with the timestamp resolution
+	 */
+	private static final int OPTION_TSRESOL = 9;
+
+	/**
+	 * Code of the interface option with the timestamp offset in seconds
+	 */
+	private static final int OPTION_TSOFFSET = 14;
+
+	/**
+	 * Size in bytes of the buffer, which holds several blocks of the maximum
+	 * captured length; larger blocks that are not packets are skipped
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Channel of the capture
+	 */
+	private ReadableByteChannel channel;
+
+	/**
+	 * Buffer in the byte order of the current section, for reading block fields
+	 */
+	private ByteBuffer headers;
+
+	/**
+	 * Buffer in big-endian order, for reading packet data
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * Buffer for filling with bytes from the channel
+	 */
+	private ByteBuffer input;
+
+	/**
+	 * Offset in the buffer of the next unread byte
+	 */
+	private int start;
+
+	/**
+	 * Offset in the buffer after the last read byte
+	 */
+	private int end;
+
+	/**
+	 * Capture offset of the start of the buffer
+	 */
+	private long bufferOffset;
+
+	/**
+	 * Whether the end of the capture was reached
+	 */
+	private boolean endOfStream;
+
+	/**
+	 * Number of interfaces of the current section
+	 */
+	private int nInterfaces;
+
+	/**
+	 * Link-layer header type of each interface
+	 */
+	private int[] linkTypes;
+
+	/**
+	 * Snapshot length of each interface; 0 if unlimited
+	 */
+	private int[] snapLengths;
+
+	/**
+	 * Timestamp units per second of each interface
+	 */
+	private long[] unitsPerSecond;
+
+	/**
+	 * Timestamp offset in microseconds of each interface
+	 */
+	private long[] timestampOffsets;
+
+	/**
+	 * Timestamp in microseconds of the current record
+	 */
+	private long timestamp;
+
+	/**
+	 * Wire length of the current record
+	 */
+	private int wireLength;
+
+	/**
+	 * Captured length of the current record
+	 */
+	private int captureLength;
+
+	/**
+	 * Link-layer header type of the current record
+	 */
+	private int linkType;
+
+	/**
+	 * Offset of the data of the current record within the buffer
+	 */
+	private int dataOffset;
+
+	/**
+	 * Checks the first Section Header block of a capture, waiting for it to
+	 * arrive
+	 * 
+	 * @param channel
+	 *            the channel of the capture
+	 * @param name
+	 *            the name of the capture for error messages
+	 * @throws IOException
+	 *             if the capture can not be read or is not a pcapng capture
+	 */
+	public PcapngReader(ReadableByteChannel channel, String name) throws IOException {
+		super();
+		this.channel = channel;
+		data = ByteBuffer.allocate(BUFFER_SIZE);
+		headers = data.duplicate();
+		input = data.duplicate();
+		linkTypes = new int[4];
+		snapLengths = new int[4];
+		unitsPerSecond = new long[4];
+		timestampOffsets = new long[4];
+		try {
+			if (!fill(BLOCK_OVERHEAD)) {
+				throw new IOException("Capture '" + name + "' is too short to be a pcapng capture");
+			}
+			if (data.getInt(0) != MAGIC || (data.getInt(8) != BYTE_ORDER_MAGIC
+					&& data.getInt(8) != Integer.reverseBytes(BYTE_ORDER_MAGIC))) {
+				throw new IOException("Capture '" + name + "' is not a pcapng capture (magic number "
+						+ Integer.toHexString(data.getInt(0)) + ")");
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads from the channel until the given number of unread bytes is
+	 * buffered, compacting the buffer if they do not fit
+	 * 
+	 * @param length
+	 *            number of bytes needed from the next unread byte
+	 * @return true if they are buffered; false if the capture ends before
+	 * @throws IOException
+	 */
+	private boolean fill(int length) throws IOException {
+		if (end - start >= length) {
+			return true;
+		}
+		if (data.capacity() - start < length) {
+			// Move the unread bytes to the start of the buffer
+			System.arraycopy(data.array(), start, data.array(), 0, end - start);
+			bufferOffset += start;
+			end -= start;
+			start = 0;
+		}
+		while (end - start < length && !endOfStream) {
+			input.limit(input.capacity()).position(end);
+			int read = channel.read(input);
+			if (read < 0) {
+				endOfStream = true;
+			} else {
+				end += read;
+			}
+		}
+		return end - start >= length;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		while (true) {
+			// Read block type and length
+			if (!fill(8)) {
+				if (end > start) {
+					long offset = bufferOffset + start;
+					start = end;
+					throw new IOException("Truncated block header at offset " + offset);
+				}
+				return false;
+			}
+			int type = headers.getInt(start);
+			if (type == MAGIC) {
+				// A new section sets the byte order of its blocks
+				if (!fill(BLOCK_OVERHEAD)) {
+					long offset = bufferOffset + start;
+					start = end;
+					throw new IOException("Truncated section header at offset " + offset);
+				}
+				int byteOrderMagic = headers.getInt(start + 8);
+				if (Integer.reverseBytes(byteOrderMagic) == BYTE_ORDER_MAGIC) {
+					headers.order(headers.order() == ByteOrder.BIG_ENDIAN ? ByteOrder.LITTLE_ENDIAN
+							: ByteOrder.BIG_ENDIAN);
+				} else if (byteOrderMagic != BYTE_ORDER_MAGIC) {
+					long offset = bufferOffset + start;
+					skipStream();
+					throw new IOException("Invalid byte-order magic at offset " + offset);
+				}
+				nInterfaces = 0;
+			}
+			int length = headers.getInt(start + 4);
+			long offset = bufferOffset + start;
+			if (length < BLOCK_OVERHEAD || (length & 3) != 0) {
+				// Corrupt capture; skip the rest of it
+				skipStream();
+				throw new IOException("Invalid block length " + length + " at offset " + offset);
+			}
+			if (length > data.capacity()) {
+				if (type == BLOCK_ENHANCED_PACKET || type == BLOCK_SIMPLE_PACKET) {
+					skipStream();
+					throw new IOException("Invalid packet block length " + length + " at offset " + offset);
+				}
+				if (!skip(length)) {
+					throw new IOException("Truncated block at offset " + offset);
+				}
+				continue;
+			}
+			if (!fill(length)) {
+				start = end;
+				throw new IOException("Truncated block at offset " + offset);
+			}
+			int body = start + 8;
+			int bodyEnd = start + length - 4;
+			start += length;
+			if (headers.getInt(bodyEnd) != length) {
+				skipStream();
+				throw new IOException("Mismatched block length at offset " + offset);
+			}
+			switch (type) {
+			case BLOCK_INTERFACE:
+				readInterface(body, bodyEnd, offset);
+				break;
+			case BLOCK_ENHANCED_PACKET:
+				readEnhancedPacket(body, bodyEnd, offset);
+				return true;
+			case BLOCK_SIMPLE_PACKET:
+				readSimplePacket(body, bodyEnd, offset);
+				return true;
+			default:
+				// Section headers were handled above; other blocks are skipped
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Reads the link-layer header type, snapshot length and timestamp options of
+	 * an Interface Description block
+	 * 
+	 * @param body
+	 *            offset of the block body in the buffer
+	 * @param bodyEnd
+	 *            offset of the end of the block body
+	 * @param offset
+	 *            capture offset of the block for error messages
+	 * @throws IOException
+	 *             if the block is malformed
+	 */
+	private void readInterface(int body, int bodyEnd, long offset) throws IOException {
+		if (bodyEnd - body < 8) {
+			throw new IOException("Truncated interface description at offset " + offset);
+		}
+		if (nInterfaces == linkTypes.length) {
+			int capacity = 2 * nInterfaces;
+			linkTypes = Arrays.copyOf(linkTypes, capacity);
+			snapLengths = Arrays.copyOf(snapLengths, capacity);
+			unitsPerSecond = Arrays.copyOf(unitsPerSecond, capacity);
+			timestampOffsets = Arrays.copyOf(timestampOffsets, capacity);
+		}
+		int id = nInterfaces++;
+		linkTypes[id] = headers.getShort(body) & 0xFFFF;
+		snapLengths[id] = headers.getInt(body + 4);
+		unitsPerSecond[id] = 1000000L;
+		timestampOffsets[id] = 0;
+		// Options are padded to 32 bits and end at the end of the body or with code 0
+		int option = body + 8;
+		while (bodyEnd - option >= 4) {
+			int code = headers.getShort(option) & 0xFFFF;
+			int optionLength = headers.getShort(option + 2) & 0xFFFF;
+			int value = option + 4;
+			if (code == 0 || bodyEnd - value < optionLength) {
+				break;
+			}
+			if (code == OPTION_TSRESOL && optionLength >= 1) {
+				unitsPerSecond[id] = unitsPerSecond(headers.get(value), offset);
+			} else if (code == OPTION_TSOFFSET && optionLength >= 8) {
+				timestampOffsets[id] = headers.getLong(value) * 1000000L;
+			}
+			option = value + ((optionLength + 3) & ~3);
+		}
+	}
+
+	/**
+	 * @param resolution
+	 *            value of the timestamp resolution option: a negative power of 10,
+	 *            or of 2 if the most significant bit is set
+	 * @param offset
+	 *            capture offset of the block for error messages
+	 * @return the timestamp units per second
+	 * @throws IOException
+	 *             if the resolution does not fit in 64 bits
+	 */
+	private static long unitsPerSecond(byte resolution, long offset) throws IOException {
+		int exponent = resolution & 0x7F;
+		if ((resolution & 0x80) != 0) {
+			if (exponent > 62) {
+				throw new IOException("Unsupported timestamp resolution 2^-" + exponent + " at offset " + offset);
+			}
+			return 1L << exponent;
+		}
+		if (exponent > 18) {
+			throw new IOException("Unsupported timestamp resolution 10^-" + exponent + " at offset " + offset);
+		}
+		long units = 1;
+		for (int i = 0; i < exponent; i++) {
+			units *= 10;
+		}
+		return units;
+	}
+
+	/**
+	 * Reads the fields of an Enhanced Packet block
+	 * 
+	 * @param body
+	 *            offset of the block body in the buffer
+	 * @param bodyEnd
+	 *            offset of the end of the block body
+	 * @param offset
+	 *            capture offset of the block for error messages
+	 * @throws IOException
+	 *             if the block is malformed or refers to an unknown interface
+	 */
+	private void readEnhancedPacket(int body, int bodyEnd, long offset) throws IOException {
+		if (bodyEnd - body < 20) {
+			throw new IOException("Truncated enhanced packet block at offset " + offset);
+		}
+		int id = headers.getInt(body);
+		if (id < 0 || id >= nInterfaces) {
+			throw new IOException("Unknown interface " + id + " at offset " + offset);
+		}
+		long units = ((headers.getInt(body + 4) & 0xFFFFFFFFL) << 32) | (headers.getInt(body + 8) & 0xFFFFFFFFL);
+		captureLength = headers.getInt(body + 12);
+		wireLength = headers.getInt(body + 16);
+		dataOffset = body + 20;
+		if (captureLength < 0 || captureLength > bodyEnd - dataOffset) {
+			throw new IOException("Invalid captured length " + captureLength + " at offset " + offset);
+		}
+		timestamp = toMicros(units, unitsPerSecond[id]) + timestampOffsets[id];
+		linkType = linkTypes[id];
+	}
+
+	/**
+	 * Reads the fields of a Simple Packet block, which belongs to the first
+	 * interface and keeps the timestamp of the previous packet
+	 * 
+	 * @param body
+	 *            offset of the block body in the buffer
+	 * @param bodyEnd
+	 *            offset of the end of the block body
+	 * @param offset
+	 *            capture offset of the block for error messages
+	 * @throws IOException
+	 *             if the block is malformed or the section has no interfaces
+	 */
+	private void readSimplePacket(int body, int bodyEnd, long offset) throws IOException {
+		if (bodyEnd - body < 4) {
+			throw new IOException("Truncated simple packet block at offset " + offset);
+		}
+		if (nInterfaces == 0) {
+			throw new IOException("Unknown interface 0 at offset " + offset);
+		}
+		wireLength = headers.getInt(body);
+		dataOffset = body + 4;
+		// The captured length is the wire length limited by the snapshot length
+		captureLength = Math.min(wireLength, bodyEnd - dataOffset);
+		if (snapLengths[0] > 0) {
+			captureLength = Math.min(captureLength, snapLengths[0]);
+		}
+		if (captureLength < 0) {
+			throw new IOException("Invalid packet length " + wireLength + " at offset " + offset);
+		}
+		linkType = linkTypes[0];
+	}
+
+	/**
+	 * @param units
+	 *            timestamp in units of the interface
+	 * @param unitsPerSecond
+	 * @return the timestamp in microseconds
+	 */
+	private static long toMicros(long units, long unitsPerSecond) {
+		if (unitsPerSecond == 1000000L) {
+			return units;
+		}
+		long seconds = Long.divideUnsigned(units, unitsPerSecond);
+		long fraction = Long.remainderUnsigned(units, unitsPerSecond);
+		if (unitsPerSecond <= Long.MAX_VALUE / 1000000L) {
+			return seconds * 1000000L + fraction * 1000000L / unitsPerSecond;
+		}
+		return seconds * 1000000L + (long) (fraction * (1000000.0 / unitsPerSecond));
+	}
+
+	/**
+	 * Discards the given number of bytes from the next unread byte
+	 * 
+	 * @param length
+	 * @return true if they were discarded; false if the capture ends before
+	 * @throws IOException
+	 */
+	private boolean skip(long length) throws IOException {
+		while (length > 0) {
+			if (end == start && !fill(1)) {
+				return false;
+			}
+			int n = (int) Math.min(length, end - start);
+			start += n;
+			length -= n;
+		}
+		return true;
+	}
+
+	/**
+	 * Discards the rest of the capture, so the writer of a pipe is not blocked
+	 * 
+	 * @throws IOException
+	 */
+	private void skipStream() throws IOException {
+		while (!endOfStream) {
+			start = 0;
+			end = 0;
+			fill(data.capacity());
+		}
+		start = 0;
+		end = 0;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public int getWireLength() {
+		return wireLength;
+	}
+
+	@Override
+	public int getCaptureLength() {
+		return captureLength;
+	}
+
+	@Override
+	public int getLinkType() {
+		return linkType;
+	}
+
+	@Override
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	@Override
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
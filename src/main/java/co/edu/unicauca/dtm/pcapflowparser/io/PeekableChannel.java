@@ -0,0 +1,121 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Channel that can look at the first bytes of another channel before they are
+ * read, e.g., to detect the format of a stream that can not be rewound, such as
+ * the standard input or a named pipe. The peeked bytes are returned by the
+ * first reads, and later reads go directly to the underlying channel.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PeekableChannel implements ReadableByteChannel {
+
+	/**
+	 * Underlying channel
+	 */
+	private final ReadableByteChannel channel;
+
+	/**
+	 * Peeked bytes that have not been read
+	 */
+	private final ByteBuffer peeked;
+
+	/**
+	 * @param channel
+	 *            the underlying channel
+	 * @param capacity
+	 *            maximum number of bytes that can be peeked
+	 */
+	public PeekableChannel(ReadableByteChannel channel, int capacity) {
+		super();
+		this.channel = channel;
+		peeked = ByteBuffer.allocate(capacity);
+		peeked.flip();
+	}
+
+	/**
+	 * Reads the first bytes of the channel, waiting for them to arrive, without
+	 * consuming them. Must be called before reading
+	 * 
+	 * @param length
+	 *            number of bytes to peek, up to the capacity
+	 * @return the first bytes, fewer if the channel ends before
+	 * @throws IOException
+	 */
+	public byte[] peek(int length) throws IOException {
+		if (length > peeked.capacity()) {
+			throw new IllegalArgumentException("Can not peek more than " + peeked.capacity() + " bytes");
+		}
+		if (peeked.remaining() < length) {
+			peeked.compact();
+			while (peeked.position() < length) {
+				peeked.limit(length);
+				if (channel.read(peeked) < 0) {
+					break;
+				}
+			}
+			peeked.flip();
+		}
+		byte[] bytes = new byte[Math.min(length, peeked.remaining())];
+		peeked.duplicate().get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return the first four bytes of the channel as a big-endian integer, without
+	 *         consuming them; 0 if the channel ends before
+	 * @throws IOException
+	 */
+	public int peekInt() throws IOException {
+		byte[] bytes = peek(4);
+		return bytes.length < 4 ? 0 : ByteBuffer.wrap(bytes).getInt();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (!peeked.hasRemaining()) {
+			return channel.read(dst);
+		}
+		int n = Math.min(peeked.remaining(), dst.remaining());
+		ByteBuffer slice = peeked.duplicate();
+		slice.limit(slice.position() + n);
+		dst.put(slice);
+		peeked.position(peeked.position() + n);
+		return n;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Channel that reads an input stream ahead in a dedicated thread, e.g., to
+ * decompress a capture while its packets are aggregated. The reader thread
+ * fills a bounded set of buffers and hands each over when it is full, or as
+ * soon as it has bytes if no buffer is waiting, so a slow stream is not
+ * delayed. Buffers are reused once read.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ReadAheadChannel implements ReadableByteChannel {
+
+	/**
+	 * Default size in bytes of each buffer
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Number of buffers that can be read ahead
+	 */
+	private static final int QUEUE_SIZE = 4;
+
+	/**
+	 * Buffer with the number of bytes it holds
+	 */
+	private static class Chunk {
+
+		/**
+		 * Bytes of the buffer
+		 */
+		private final byte[] data;
+
+		/**
+		 * Number of bytes read in the buffer
+		 */
+		private int length;
+
+		/**
+		 * @param size
+		 */
+		private Chunk(int size) {
+			data = new byte[size];
+		}
+	}
+
+	/**
+	 * Chunk that signals the end of the input
+	 */
+	private static final Chunk END_OF_INPUT = new Chunk(0);
+
+	/**
+	 * Underlying input stream
+	 */
+	private final InputStream in;
+
+	/**
+	 * Chunks read ahead
+	 */
+	private final BlockingQueue<Chunk> filled;
+
+	/**
+	 * Consumed chunks available for reuse
+	 */
+	private final BlockingQueue<Chunk> free;
+
+	/**
+	 * Chunk being consumed; null if none
+	 */
+	private Chunk current;
+
+	/**
+	 * Offset of the next unread byte of the current chunk
+	 */
+	private int position;
+
+	/**
+	 * Whether the end of the input was consumed
+	 */
+	private boolean endOfInput;
+
+	/**
+	 * Reader thread
+	 */
+	private final Thread thread;
+
+	/**
+	 * Whether the channel is closed
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Error thrown when reading the underlying stream
+	 */
+	private volatile IOException failure;
+
+	/**
+	 * @param in
+	 *            the underlying input stream
+	 * @param name
+	 *            the name of the input for the reader thread
+	 */
+	public ReadAheadChannel(InputStream in, String name) {
+		this(in, name, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param in
+	 *            the underlying input stream
+	 * @param name
+	 *            the name of the input for the reader thread
+	 * @param bufferSize
+	 *            size in bytes of each buffer
+	 */
+	public ReadAheadChannel(InputStream in, String name, int bufferSize) {
+		super();
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size must be positive");
+		}
+		this.in = in;
+		// Queues can hold all chunks and the end signal
+		filled = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE + 1);
+		free = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+		for (int i = 0; i < QUEUE_SIZE; i++) {
+			free.add(new Chunk(bufferSize));
+		}
+		closed = false;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				readChunks();
+			}
+		}, "ReadAheadChannel-" + name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public int read(ByteBuffer dst) throws IOException {
+		if (closed) {
+			throw new ClosedChannelException();
+		}
+		if (endOfInput) {
+			return -1;
+		}
+		if (current == null || position == current.length) {
+			if (current != null) {
+				free.add(current);
+			}
+			try {
+				current = filled.take();
+			} catch (InterruptedException e) {
+				current = null;
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the input");
+			}
+			position = 0;
+			if (current == END_OF_INPUT) {
+				current = null;
+				endOfInput = true;
+				if (failure != null) {
+					throw new IOException("Input reader failed: " + failure.getMessage(), failure);
+				}
+				return -1;
+			}
+		}
+		int n = Math.min(dst.remaining(), current.length - position);
+		dst.put(current.data, position, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return !closed;
+	}
+
+	/**
+	 * Stops the reader thread and closes the underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		thread.interrupt();
+		in.close();
+	}
+
+	/**
+	 * Reads the underlying stream into free chunks until its end, an error, or
+	 * the channel is closed
+	 */
+	private void readChunks() {
+		try {
+			Chunk chunk = null;
+			while (!closed) {
+				if (chunk == null) {
+					chunk = free.take();
+					chunk.length = 0;
+				}
+				int read = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length);
+				if (read < 0) {
+					break;
+				}
+				chunk.length += read;
+				// Hand over full chunks, or any bytes if the consumer is waiting
+				if (chunk.length == chunk.data.length || (chunk.length > 0 && filled.isEmpty())) {
+					filled.put(chunk);
+					chunk = null;
+				}
+			}
+			if (chunk != null && chunk.length > 0) {
+				filled.put(chunk);
+			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (IOException e) {
+			if (!closed) {
+				failure = e;
+			}
+		}
+		try {
+			filled.put(END_OF_INPUT);
+		} catch (InterruptedException e) {
+			// Closed; nobody waits for the end
+		}
+	}
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reader of classic libpcap streams that can not be mapped, such as the
+ * standard input or a named pipe. Records are read sequentially into a buffer
+ * that is compacted as it is consumed, so the stream is parsed as it arrives
+ * and may be of any length. Both byte orders as well as microsecond and
+ * nanosecond timestamps are supported.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class StreamPcapReader implements PcapRecordReader {
+
+	/**
+	 * Size in bytes of the buffer, which holds several records of the maximum
+	 * captured length
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Channel of the stream
+	 */
+	private ReadableByteChannel channel;
+
+	/**
+	 * Buffer in the byte order of the stream, for reading record headers
+	 */
+	private ByteBuffer headers;
+
+	/**
+	 * Buffer in big-endian order, for reading packet data
+	 */
+	private ByteBuffer data;
+
+	/**
+	 * Buffer for filling with bytes from the channel
+	 */
+	private ByteBuffer input;
+
+	/**
+	 * Offset in the buffer of the next unread byte
+	 */
+	private int start;
+
+	/**
+	 * Offset in the buffer after the last read byte
+	 */
+	private int end;
+
+	/**
+	 * Stream offset of the start of the buffer
+	 */
+	private long bufferOffset;
+
+	/**
+	 * Whether the end of the stream was reached
+	 */
+	private boolean endOfStream;
+
+	/**
+	 * Whether timestamps are in nanoseconds
+	 */
+	private boolean nanos;
+
+	/**
+	 * Link-layer header type of the stream
+	 */
+	private int linkType;
+
+	/**
+	 * Timestamp in microseconds of the current record
+	 */
+	private long timestamp;
+
+	/**
+	 * Wire length of the current record
+	 */
+	private int wireLength;
+
+	/**
+	 * Captured length of the current record
+	 */
+	private int captureLength;
+
+	/**
+	 * Offset of the data of the current record within the buffer
+	 */
+	private int dataOffset;
+
+	/**
+	 * Reads the global header of a stream, waiting for it to arrive
+	 * 
+	 * @param channel
+	 *            the channel of the stream
+	 * @param name
+	 *            the name of the stream for error messages
+	 * @throws IOException
+	 *             if the stream can not be read or is not a classic PCAP stream
+	 */
+	public StreamPcapReader(ReadableByteChannel channel, String name) throws IOException {
+		super();
+		this.channel = channel;
+		data = ByteBuffer.allocate(BUFFER_SIZE);
+		headers = data.duplicate();
+		input = data.duplicate();
+		try {
+			if (!fill(MappedPcapReader.GLOBAL_HEADER_SIZE)) {
+				throw new IOException("Stream '" + name + "' is too short to be a PCAP stream");
+			}
+			// Detect byte order and timestamp precision from the magic number
+			int magic = data.getInt(0);
+			ByteOrder order;
+			if (magic == MappedPcapReader.MAGIC_MICROS || magic == MappedPcapReader.MAGIC_NANOS) {
+				order = ByteOrder.BIG_ENDIAN;
+			} else if (Integer.reverseBytes(magic) == MappedPcapReader.MAGIC_MICROS
+					|| Integer.reverseBytes(magic) == MappedPcapReader.MAGIC_NANOS) {
+				order = ByteOrder.LITTLE_ENDIAN;
+				magic = Integer.reverseBytes(magic);
+			} else {
+				throw new IOException("Stream '" + name + "' is not a PCAP stream (magic number "
+						+ Integer.toHexString(magic) + ")");
+			}
+			headers.order(order);
+			nanos = magic == MappedPcapReader.MAGIC_NANOS;
+			linkType = headers.getInt(20) & 0x0FFFFFFF;
+			start = MappedPcapReader.GLOBAL_HEADER_SIZE;
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads from the channel until the given number of unread bytes is
+	 * buffered, compacting the buffer if they do not fit
+	 * 
+	 * @param length
+	 *            number of bytes needed from the next unread byte
+	 * @return true if they are buffered; false if the stream ends before
+	 * @throws IOException
+	 */
+	private boolean fill(int length) throws IOException {
+		if (end - start >= length) {
+			return true;
+		}
+		if (data.capacity() - start < length) {
+			// Move the unread bytes to the start of the buffer
+			System.arraycopy(data.array(), start, data.array(), 0, end - start);
+			bufferOffset += start;
+			end -= start;
+			start = 0;
+		}
+		while (end - start < length && !endOfStream) {
+			input.limit(input.capacity()).position(end);
+			int read = channel.read(input);
+			if (read < 0) {
+				endOfStream = true;
+			} else {
+				end += read;
+			}
+		}
+		return end - start >= length;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		// Read record header
+		if (!fill(MappedPcapReader.RECORD_HEADER_SIZE)) {
+			if (end > start) {
+				long offset = bufferOffset + start;
+				start = end;
+				throw new IOException("Truncated record header at offset " + offset);
+			}
+			return false;
+		}
+		long seconds = headers.getInt(start) & 0xFFFFFFFFL;
+		long fraction = headers.getInt(start + 4) & 0xFFFFFFFFL;
+		captureLength = headers.getInt(start + 8);
+		wireLength = headers.getInt(start + 12);
+		if (captureLength < 0 || captureLength > MappedPcapReader.MAX_CAPTURE_LENGTH) {
+			// Corrupt stream; skip the rest of it
+			long offset = bufferOffset + start;
+			skipStream();
+			throw new IOException("Invalid captured length " + captureLength + " at offset " + offset);
+		}
+		timestamp = seconds * 1000000L + (nanos ? fraction / 1000L : fraction);
+		// Read record data
+		if (!fill(MappedPcapReader.RECORD_HEADER_SIZE + captureLength)) {
+			long offset = bufferOffset + start;
+			start = end;
+			throw new IOException("Truncated record at offset " + offset);
+		}
+		dataOffset = start + MappedPcapReader.RECORD_HEADER_SIZE;
+		start = dataOffset + captureLength;
+		return true;
+	}
+
+	/**
+	 * Discards the rest of the stream, so the writer of a pipe is not blocked
+	 * 
+	 * @throws IOException
+	 */
+	private void skipStream() throws IOException {
+		while (!endOfStream) {
+			start = 0;
+			end = 0;
+			fill(data.capacity());
+		}
+		start = 0;
+		end = 0;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public int getWireLength() {
+		return wireLength;
+	}
+
+	@Override
+	public int getCaptureLength() {
+		return captureLength;
+	}
+
+	@Override
+	public int getLinkType() {
+		return linkType;
+	}
+
+	@Override
+	public ByteBuffer getData() {
+		return data;
+	}
+
+	@Override
+	public int getDataOffset() {
+		return dataOffset;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
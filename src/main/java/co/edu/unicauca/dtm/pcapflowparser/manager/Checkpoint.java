@@ -0,0 +1,362 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checkpoint of a parsing run over several PCAP files, taken at a file
+ * boundary: the options that determine the results, the position in the list
+ * of files, the counters of the report, the length of the output files and the
+ * state of the flow manager. The checkpoint is a compressed binary file that is
+ * replaced atomically, so a run that dies keeps the previous checkpoint. A run
+ * is resumed by truncating the output files to the recorded length and
+ * restoring the flow manager, so the same flows are exported as in an
+ * uninterrupted run, although flows that time out together may be written in
+ * another order.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class Checkpoint {
+
+	/**
+	 * Magic number of checkpoint files
+	 */
+	private static final int MAGIC = 0x50464350;
+
+	/**
+	 * Version of the format of checkpoint files
+	 */
+	private static final int VERSION = 2;
+
+	/**
+	 * Options that determine the results, which must match to resume
+	 */
+	private String options;
+
+	/**
+	 * Index of the next file to parse
+	 */
+	private int nextFile;
+
+	/**
+	 * Name of the last parsed file
+	 */
+	private String lastFile;
+
+	/**
+	 * 
+	 */
+	private int nValidFiles;
+
+	/**
+	 * 
+	 */
+	private int nErrorFiles;
+
+	/**
+	 * 
+	 */
+	private long nPackets;
+
+	/**
+	 * 
+	 */
+	private long nValidPackets;
+
+	/**
+	 * 
+	 */
+	private long nErrorPackets;
+
+	/**
+	 * 
+	 */
+	private long nBytes;
+
+	/**
+	 * Latest capture time in microseconds; -1 if no packet was parsed
+	 */
+	private long captureTime;
+
+	/**
+	 * Length in bytes of the flow output file
+	 */
+	private long outLength;
+
+	/**
+	 * Length in bytes of the packet IAT report; -1 if the report is not
+	 * generated
+	 */
+	private long iatLength;
+
+	/**
+	 * Input of an opened checkpoint, positioned at the state of the flow
+	 * manager; null once restored
+	 */
+	private DataInputStream in;
+
+	/**
+	 * @param options
+	 *            options that determine the results, which must match to resume
+	 */
+	public Checkpoint(String options) {
+		super();
+		this.options = options;
+		this.lastFile = "";
+		this.captureTime = -1;
+		this.iatLength = -1;
+	}
+
+	/**
+	 * Sets the position in the list of files and the counters of the report
+	 * 
+	 * @param nextFile
+	 *            index of the next file to parse
+	 * @param lastFile
+	 *            name of the last parsed file
+	 * @param nValidFiles
+	 * @param nErrorFiles
+	 * @param nPackets
+	 * @param nValidPackets
+	 * @param nErrorPackets
+	 * @param nBytes
+	 * @param captureTime
+	 */
+	public void setProgress(int nextFile, String lastFile, int nValidFiles, int nErrorFiles, long nPackets,
+			long nValidPackets, long nErrorPackets, long nBytes, long captureTime) {
+		this.nextFile = nextFile;
+		this.lastFile = lastFile;
+		this.nValidFiles = nValidFiles;
+		this.nErrorFiles = nErrorFiles;
+		this.nPackets = nPackets;
+		this.nValidPackets = nValidPackets;
+		this.nErrorPackets = nErrorPackets;
+		this.nBytes = nBytes;
+		this.captureTime = captureTime;
+	}
+
+	/**
+	 * @param outLength
+	 *            length in bytes of the flow output file
+	 * @param iatLength
+	 *            length in bytes of the packet IAT report; -1 if the report is
+	 *            not generated
+	 */
+	public void setOutputLengths(long outLength, long iatLength) {
+		this.outLength = outLength;
+		this.iatLength = iatLength;
+	}
+
+	/**
+	 * Writes the checkpoint with the state of the flow manager to a temporary
+	 * file, syncs it to disk and moves it over the checkpoint file
+	 * 
+	 * @param file
+	 *            the checkpoint file
+	 * @param flowManager
+	 * @throws IOException
+	 */
+	public void write(File file, FlowManager flowManager) throws IOException {
+		File tmpFile = new File(file.getPath() + ".tmp");
+		FileOutputStream output = new FileOutputStream(tmpFile);
+		try {
+			GZIPOutputStream gzip = new GZIPOutputStream(output, 64 * 1024);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip, 1024 * 1024));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(options);
+			out.writeInt(nextFile);
+			out.writeUTF(lastFile);
+			out.writeInt(nValidFiles);
+			out.writeInt(nErrorFiles);
+			out.writeLong(nPackets);
+			out.writeLong(nValidPackets);
+			out.writeLong(nErrorPackets);
+			out.writeLong(nBytes);
+			out.writeLong(captureTime);
+			out.writeLong(outLength);
+			out.writeLong(iatLength);
+			flowManager.writeState(out);
+			out.flush();
+			gzip.finish();
+			output.getFD().sync();
+		} finally {
+			output.close();
+		}
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads the options, the progress and the output lengths of a checkpoint,
+	 * leaving the state of the flow manager to {@link #restore(FlowManager)}
+	 * 
+	 * @param file
+	 *            the checkpoint file
+	 * @return the checkpoint
+	 * @throws IOException
+	 *             if the file can not be read or is not a checkpoint
+	 */
+	public static Checkpoint open(File file) throws IOException {
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new GZIPInputStream(new FileInputStream(file), 64 * 1024), 1024 * 1024));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a checkpoint of this version");
+			}
+			Checkpoint checkpoint = new Checkpoint(in.readUTF());
+			checkpoint.nextFile = in.readInt();
+			checkpoint.lastFile = in.readUTF();
+			checkpoint.nValidFiles = in.readInt();
+			checkpoint.nErrorFiles = in.readInt();
+			checkpoint.nPackets = in.readLong();
+			checkpoint.nValidPackets = in.readLong();
+			checkpoint.nErrorPackets = in.readLong();
+			checkpoint.nBytes = in.readLong();
+			checkpoint.captureTime = in.readLong();
+			checkpoint.outLength = in.readLong();
+			checkpoint.iatLength = in.readLong();
+			checkpoint.in = in;
+			return checkpoint;
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Restores the state of the flow manager from an opened checkpoint (see
+	 * {@link FlowManager#readState(java.io.DataInput)}) and closes it
+	 * 
+	 * @param flowManager
+	 * @throws IOException
+	 */
+	public void restore(FlowManager flowManager) throws IOException {
+		if (in == null) {
+			throw new IllegalStateException("Checkpoint is not open");
+		}
+		try {
+			flowManager.readState(in);
+		} finally {
+			in.close();
+			in = null;
+		}
+	}
+
+	/**
+	 * @return the options that determine the results
+	 */
+	public String getOptions() {
+		return options;
+	}
+
+	/**
+	 * @return the index of the next file to parse
+	 */
+	public int getNextFile() {
+		return nextFile;
+	}
+
+	/**
+	 * @return the name of the last parsed file
+	 */
+	public String getLastFile() {
+		return lastFile;
+	}
+
+	/**
+	 * @return the nValidFiles
+	 */
+	public int getNValidFiles() {
+		return nValidFiles;
+	}
+
+	/**
+	 * @return the nErrorFiles
+	 */
+	public int getNErrorFiles() {
+		return nErrorFiles;
+	}
+
+	/**
+	 * @return the nPackets
+	 */
+	public long getNPackets() {
+		return nPackets;
+	}
+
+	/**
+	 * @return the nValidPackets
+	 */
+	public long getNValidPackets() {
+		return nValidPackets;
+	}
+
+	/**
+	 * @return the nErrorPackets
+	 */
+	public long getNErrorPackets() {
+		return nErrorPackets;
+	}
+
+	/**
+	 * @return the nBytes
+	 */
+	public long getNBytes() {
+		return nBytes;
+	}
+
+	/**
+	 * @return the latest capture time in microseconds; -1 if no packet was
+	 *         parsed
+	 */
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	/**
+	 * @return the length in bytes of the flow output file
+	 */
+	public long getOutLength() {
+		return outLength;
+	}
+
+	/**
+	 * @return the length in bytes of the packet IAT report; -1 if the report is
+	 *         not generated
+	 */
+	public long getIatLength() {
+		return iatLength;
+	}
+
+}
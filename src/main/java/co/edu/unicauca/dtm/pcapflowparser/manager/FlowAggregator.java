@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Aggregator of packets into flows.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface FlowAggregator {
+
+	/**
+	 * @param packet
+	 *            the packet to add to its flow
+	 */
+	void addPacket(Packet packet);
+
+	/**
+	 * Dumps the flows that remain and closes the outputs
+	 * 
+	 * @return number of processed flows
+	 */
+	long dumpLastFlows();
+
+	/**
+	 * Gauge that may be read from any thread, so it can lag slightly behind
+	 * 
+	 * @return number of flows currently held, excluding the timeout history of
+	 *         expired flows
+	 */
+	long getActiveFlows();
+
+	/**
+	 * @param metrics
+	 *            metrics that count the exported flows; null counts none
+	 */
+	void setMetrics(ParserMetrics metrics);
+
+}
@@ -16,18 +16,29 @@
 
 package co.edu.unicauca.dtm.pcapflowparser.manager;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
+import co.edu.unicauca.dtm.pcapflowparser.io.AsyncOutputWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.CsvFlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.CsvPacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.FlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.PacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics;
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics.ExportReason;
 import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
 import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
 import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
-import co.edu.unicauca.dtm.pcapflowparser.model.PacketIATFeature;
 
 /**
  * 
@@ -38,7 +49,86 @@ import co.edu.unicauca.dtm.pcapflowparser.model.PacketIATFeature;
  * 
  * @author festradasolano
  */
-public class FlowManager {
+public class FlowManager implements FlowAggregator {
+
+	/**
+	 * Duration in microseconds of the slots of the timer wheel
+	 */
+	private static final long TIMER_TICK = 1000000;
+
+	/**
+	 * Estimated heap size in bytes of a flow with its key, first packet,
+	 * statistics and map entry, without the first N packets
+	 */
+	private static final int FLOW_SIZE = 640;
+
+	/**
+	 * Estimated heap size in bytes of the size and IAT of each of the first N
+	 * packets of a flow
+	 */
+	private static final int N_FIRST_SIZE = 48;
+
+	/**
+	 * Estimated heap size in bytes of the statistics of each direction of a
+	 * bidirectional flow
+	 */
+	private static final int BIDIRECTIONAL_SIZE = 288;
+
+	/**
+	 * Estimated heap size in bytes of the quantile sketches of a flow, whose
+	 * bins span a few times the relative accuracy around typical sizes and IATs
+	 */
+	private static final int QUANTILES_SIZE = 768;
+
+	/**
+	 * Timeout history of a flow that expired without a following packet
+	 */
+	private static class ExpiredFlow {
+
+		/**
+		 * Number of prior timeouts of the expired flow
+		 */
+		private final int priorTOs;
+
+		/**
+		 * Start time in microseconds of the expired flow
+		 */
+		private final long startTime;
+
+		/**
+		 * Last seen in microseconds of the expired flow
+		 */
+		private final long lastSeen;
+
+		/**
+		 * Capture time in microseconds when the flow timed out
+		 */
+		private final long expiredAt;
+
+		/**
+		 * @param flow
+		 * @param expiredAt
+		 */
+		private ExpiredFlow(Flow flow, long expiredAt) {
+			this.priorTOs = flow.getPriorTOs();
+			this.startTime = flow.getStartTime();
+			this.lastSeen = flow.getLastSeen();
+			this.expiredAt = expiredAt;
+		}
+
+		/**
+		 * @param priorTOs
+		 * @param startTime
+		 * @param lastSeen
+		 * @param expiredAt
+		 */
+		private ExpiredFlow(int priorTOs, long startTime, long lastSeen, long expiredAt) {
+			this.priorTOs = priorTOs;
+			this.startTime = startTime;
+			this.lastSeen = lastSeen;
+			this.expiredAt = expiredAt;
+		}
+	}
 
 	/**
 	 * 
@@ -50,6 +140,12 @@ public class FlowManager {
 	 */
 	private long flowIdleTimeout;
 
+	/**
+	 * Time in microseconds after which the timeout history of an expired flow is
+	 * forgotten; 0 keeps it until the end
+	 */
+	private long flowHistoryTimeout;
+
 	/**
 	 * 
 	 */
@@ -63,22 +159,74 @@ public class FlowManager {
 	/**
 	 * 
 	 */
-	private Map<String, Flow> flows;
+	private Map<FlowKey, Flow> flows;
+
+	/**
+	 * Reusable key for looking up the flow of each packet
+	 */
+	private FlowKey flowKey;
+
+	/**
+	 * Expiry index of the flows in the list; null if timeouts are disabled
+	 */
+	private TimerWheel<FlowKey> timerWheel;
+
+	/**
+	 * Handler that exports the flows expired by the timer wheel
+	 */
+	private TimerWheel.Handler<FlowKey> expiryHandler;
+
+	/**
+	 * Timeout history of expired flows in order of expiration, for numbering the
+	 * timeouts of flows that restart; null if no timeout feature is included
+	 */
+	private LinkedHashMap<FlowKey, ExpiredFlow> expiredFlows;
+
+	/**
+	 * Latest capture time in microseconds
+	 */
+	private long captureTime;
 
 	/**
 	 * 
 	 */
 	private long flowCounter;
 
+	/**
+	 * Store of the flows moved out of memory; null if flows are never spilled
+	 */
+	private FlowSpill spill;
+
+	/**
+	 * Maximum number of flows kept in memory when flows are spilled
+	 */
+	private int maxFlows;
+
+	/**
+	 * Metrics that count the exported flows; null if not counted
+	 */
+	private ParserMetrics metrics;
+
+	/**
+	 * Whether both directions of a flow are aggregated in a single flow
+	 */
+	private boolean bidirectional;
+
+	/**
+	 * Whether flows keep sketches of the quantiles of their packet sizes and
+	 * IATs, since a quantile feature is included
+	 */
+	private boolean quantiles;
+
 	/**
 	 * 
 	 */
-	FileOutputStream output;
+	FlowWriter flowWriter;
 
 	/**
 	 * 
 	 */
-	FileOutputStream iatOutput;
+	PacketIATWriter iatWriter;
 
 	/**
 	 * @param outFile
@@ -88,69 +236,173 @@ public class FlowManager {
 	 */
 	public FlowManager(File outFile, int flowActiveTimeout, int flowIdleTimeout, Set<Integer> features,
 			int nFirstPackets, File iatFile) {
+		this(outFile, flowActiveTimeout, flowIdleTimeout, 0, features, nFirstPackets, iatFile);
+	}
+
+	/**
+	 * @param outFile
+	 * @param flowActiveTimeout
+	 * @param flowIdleTimeout
+	 * @param flowHistoryTimeout
+	 * @param features
+	 * @param nFirstPackets
+	 * @param iatFile
+	 */
+	public FlowManager(File outFile, int flowActiveTimeout, int flowIdleTimeout, int flowHistoryTimeout,
+			Set<Integer> features, int nFirstPackets, File iatFile) {
+		this(outFile, flowActiveTimeout, flowIdleTimeout, flowHistoryTimeout, features, nFirstPackets, iatFile,
+				AsyncOutputWriter.DEFAULT_BUFFER_SIZE, AsyncOutputWriter.DEFAULT_FLUSH_INTERVAL);
+	}
+
+	/**
+	 * @param outFile
+	 * @param flowActiveTimeout
+	 * @param flowIdleTimeout
+	 * @param flowHistoryTimeout
+	 * @param features
+	 * @param nFirstPackets
+	 * @param iatFile
+	 * @param outBufferSize
+	 *            size in bytes of the output buffers
+	 * @param outFlushInterval
+	 *            time in milliseconds after which buffered output is written; 0
+	 *            writes it only when a buffer is full
+	 */
+	public FlowManager(File outFile, int flowActiveTimeout, int flowIdleTimeout, int flowHistoryTimeout,
+			Set<Integer> features, int nFirstPackets, File iatFile, int outBufferSize, int outFlushInterval) {
+		this(flowActiveTimeout, flowIdleTimeout, flowHistoryTimeout, features, nFirstPackets);
+		// Create CSV file writer
+		try {
+			flowWriter = new CsvFlowWriter(
+					new AsyncOutputWriter(new FileOutputStream(outFile), outBufferSize, outFlushInterval),
+					this.features, this.nFirstPackets);
+			if (iatFile != null) {
+				iatWriter = new CsvPacketIATWriter(
+						new AsyncOutputWriter(new FileOutputStream(iatFile), outBufferSize, outFlushInterval), true);
+			}
+		} catch (FileNotFoundException e1) {
+			System.err.println("Internal error. File '" + outFile.getAbsolutePath() + "' does not exist");
+		} catch (IOException e) {
+			System.err.println(
+					"Internal error. Exception thrown when writing on the file '" + outFile.getAbsolutePath() + "'");
+		}
+	}
+
+	/**
+	 * Constructor that writes to open writers
+	 * 
+	 * @param flowWriter
+	 *            writer of the flows
+	 * @param iatWriter
+	 *            writer of the packet IAT report; null if the report is not
+	 *            generated
+	 * @param flowActiveTimeout
+	 * @param flowIdleTimeout
+	 * @param flowHistoryTimeout
+	 * @param features
+	 * @param nFirstPackets
+	 */
+	public FlowManager(FlowWriter flowWriter, PacketIATWriter iatWriter, int flowActiveTimeout,
+			int flowIdleTimeout, int flowHistoryTimeout, Set<Integer> features, int nFirstPackets) {
+		this(flowActiveTimeout, flowIdleTimeout, flowHistoryTimeout, features, nFirstPackets);
+		this.flowWriter = flowWriter;
+		this.iatWriter = iatWriter;
+	}
+
+	/**
+	 * @param flowActiveTimeout
+	 * @param flowIdleTimeout
+	 * @param flowHistoryTimeout
+	 * @param features
+	 * @param nFirstPackets
+	 */
+	private FlowManager(int flowActiveTimeout, int flowIdleTimeout, int flowHistoryTimeout, Set<Integer> features,
+			int nFirstPackets) {
 		super();
 		// Set input parameters
 		long secToMicrosec = 1000000;
 		this.flowActiveTimeout = (long) flowActiveTimeout * secToMicrosec;
 		this.flowIdleTimeout = (long) flowIdleTimeout * secToMicrosec;
+		this.flowHistoryTimeout = (long) flowHistoryTimeout * secToMicrosec;
 		this.features = features;
 		this.nFirstPackets = nFirstPackets;
+		quantiles = FlowFeature.hasQuantiles(features);
 		// Initialize parameters
-		flows = new HashMap<String, Flow>();
+		flows = new HashMap<FlowKey, Flow>();
+		flowKey = new FlowKey();
 		flowCounter = 0;
-		// Create CSV file writer
-		try {
-			output = new FileOutputStream(outFile);
-			output.write(String.valueOf(FlowFeature.csvHeader(this.features, this.nFirstPackets) + "\n").getBytes());
-			if (iatFile != null) {
-				iatOutput = new FileOutputStream(iatFile);
-				iatOutput.write(String.valueOf(PacketIATFeature.csvHeader() + "\n").getBytes());
+		captureTime = 0;
+		// Expire flows as capture time advances if timeouts are enabled
+		if (this.flowActiveTimeout > 0 || this.flowIdleTimeout > 0) {
+			timerWheel = new TimerWheel<FlowKey>(TIMER_TICK, Math.max(this.flowActiveTimeout, this.flowIdleTimeout));
+			expiryHandler = new TimerWheel.Handler<FlowKey>() {
+				@Override
+				public long onTimer(FlowKey key, long now) {
+					return expireFlow(key, now);
+				}
+			};
+			// Keep the timeout history only if it is reported
+			if (features.contains(FlowFeature.PRIOR_TOS.getId())
+					|| features.contains(FlowFeature.TIME_LAST_TO.getId())) {
+				expiredFlows = new LinkedHashMap<FlowKey, ExpiredFlow>();
 			}
-		} catch (FileNotFoundException e1) {
-			System.err.println("Internal error. File '" + outFile.getAbsolutePath() + "' does not exist");
-		} catch (IOException e) {
-			System.err.println(
-					"Internal error. Exception thrown when writing on the file '" + outFile.getAbsolutePath() + "'");
 		}
 	}
 
 	/**
 	 * @param packet
 	 */
+	@Override
 	public void addPacket(Packet packet) {
-		// Check if packet belongs to an existing flow
-		String flowId = FlowManager.generateFlowId(packet);
-		if (flows.containsKey(flowId)) {
-			Flow flow = flows.get(flowId);
+		// Export the flows that timed out before this packet
+		if (timerWheel != null && packet.getTimestamp() > captureTime) {
+			captureTime = packet.getTimestamp();
+			timerWheel.advance(captureTime, expiryHandler);
+			forgetExpiredFlows();
+		}
+		// Check if packet belongs to an existing flow; both directions of a
+		// bidirectional flow have the same canonical key
+		boolean swapped = false;
+		if (bidirectional) {
+			swapped = flowKey.setCanonical(packet);
+		} else {
+			flowKey.set(packet);
+		}
+		Flow flow = flows.get(flowKey);
+		if (flow == null && spill != null) {
+			flow = unspillFlow(flowKey);
+		}
+		if (flow != null) {
 			// Check if the flow finished due to active timeout
 			if (flowActiveTimeout > 0 && packet.getTimestamp() - flow.getStartTime() > flowActiveTimeout) {
 				// Compute time after last timeout
 				long timeAfterLastTO = packet.getTimestamp() - flow.getStartTime() - flowActiveTimeout;
 				// Dump timeout flow
-				dumpTimeoutFlow(flowId, flow, new Flow(packet, flow.getPriorTOs() + 1, timeAfterLastTO));
+				dumpTimeoutFlow(flowKey, flow, createFlow(packet, flow.getPriorTOs() + 1, timeAfterLastTO, swapped));
+				countExport(ExportReason.ACTIVE_TIMEOUT);
 			} // Check if the flow finished due to idle timeout
 			else if (flowIdleTimeout > 0 && packet.getTimestamp() - flow.getLastSeen() > flowIdleTimeout) {
 				// Compute time after last timeout
 				long timeAfterLastTO = packet.getTimestamp() - flow.getLastSeen() - flowIdleTimeout;
 				// Dump timeout flow
-				dumpTimeoutFlow(flowId, flow, new Flow(packet, flow.getPriorTOs() + 1, timeAfterLastTO));
+				dumpTimeoutFlow(flowKey, flow, createFlow(packet, flow.getPriorTOs() + 1, timeAfterLastTO, swapped));
+				countExport(ExportReason.IDLE_TIMEOUT);
 			} else {
 				// Update flow information
 				flow.addPacketSize(packet.getSize(), nFirstPackets);
 				long packetIAT = packet.getTimestamp() - flow.getLastSeen();
 				flow.addPacketIAT(packetIAT, nFirstPackets);
+				if (bidirectional) {
+					flow.addDirectionalPacket(packet.getSize(), packet.getTimestamp(), flow.isForward(swapped));
+				}
 				// Update last seen
 				flow.setLastSeen(packet.getTimestamp());
 				// Check if writing packet IAT report
-				if (iatOutput != null) {
-					// Build packet IAT information
-					StringBuilder iatInfo = new StringBuilder();
-					iatInfo.append(flowId).append(",");
-					iatInfo.append(flow.getPacketSizes().getN()).append(",");
-					iatInfo.append(packetIAT).append("\n");
-					// Write packet IAT report to file
+				if (iatWriter != null) {
+					// Write packet IAT report, keeping the index of the flow in the report
 					try {
-						iatOutput.write(iatInfo.toString().getBytes());
+						flow.setIatIndex(iatWriter.write(flowKey, flow.getIatIndex(), flow.getPacketSizes().getN(),
+								packetIAT));
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
@@ -158,53 +410,425 @@ public class FlowManager {
 			}
 		} // First packet of a flow
 		else {
+			// Check if a previous flow with the same identifier expired
+			ExpiredFlow expiredFlow = null;
+			if (expiredFlows != null) {
+				expiredFlow = expiredFlows.remove(flowKey);
+			}
+			Flow newFlow;
+			if (expiredFlow != null && !isForgotten(expiredFlow, packet.getTimestamp())) {
+				// Compute time after last timeout; zero for a packet that arrived out of order
+				long timeAfterLastTO = 0;
+				if (flowActiveTimeout > 0 && packet.getTimestamp() - expiredFlow.startTime > flowActiveTimeout) {
+					timeAfterLastTO = packet.getTimestamp() - expiredFlow.startTime - flowActiveTimeout;
+				} else if (flowIdleTimeout > 0 && packet.getTimestamp() - expiredFlow.lastSeen > flowIdleTimeout) {
+					timeAfterLastTO = packet.getTimestamp() - expiredFlow.lastSeen - flowIdleTimeout;
+				}
+				newFlow = createFlow(packet, expiredFlow.priorTOs + 1, timeAfterLastTO, swapped);
+			} else {
+				newFlow = createFlow(packet, 0, 0, swapped);
+			}
 			// Add flow to list with first packet
-			flows.put(flowId, new Flow(packet));
+			FlowKey newKey = flowKey.copy();
+			flows.put(newKey, newFlow);
+			if (timerWheel != null) {
+				timerWheel.schedule(newKey, getDeadline(newFlow));
+			}
+		}
+		// Move the least recently used flows out of memory if over budget
+		if (spill != null && flows.size() > maxFlows) {
+			spillColdFlows();
 		}
 	}
 
 	/**
-	 * @param flowId
+	 * @param packet
+	 *            the first packet of the flow
+	 * @param priorTOs
+	 * @param timeAfterLastTO
+	 * @param swapped
+	 *            whether the endpoints of the packet were swapped in the
+	 *            canonical key of a bidirectional flow
+	 * @return the new flow
+	 */
+	private Flow createFlow(Packet packet, int priorTOs, long timeAfterLastTO, boolean swapped) {
+		Flow flow = new Flow(packet, priorTOs, timeAfterLastTO);
+		if (quantiles) {
+			flow.setQuantiles();
+		}
+		if (bidirectional) {
+			flow.setBidirectional(swapped);
+		}
+		return flow;
+	}
+
+	/**
+	 * Aggregates both directions of a flow in a single flow, whose forward
+	 * direction is that of its first packet, with statistics of each direction.
+	 * Packets are looked up by a canonical key that is the same for both
+	 * directions. Must be called before adding packets and setting the memory
+	 * budget
+	 * 
+	 * @param bidirectional
+	 */
+	public void setBidirectional(boolean bidirectional) {
+		this.bidirectional = bidirectional;
+	}
+
+	/**
+	 * Limits the memory of the flows, moving the least recently used flows to a
+	 * spill file when the budget is exceeded and reading them back when needed,
+	 * so the results match those of an unbounded run. The budget is converted to
+	 * a number of flows using an estimate of their heap size; the timeout history
+	 * of expired flows is not included. Must be called before adding packets
+	 * 
+	 * @param budget
+	 *            memory budget in bytes of the flows
+	 * @param spillFile
+	 *            the spill file, which is deleted once the remaining flows are
+	 *            dumped
+	 * @throws IOException
+	 *             if the spill file can not be created
+	 */
+	public void setMemoryBudget(long budget, File spillFile) throws IOException {
+		long flowSize = FLOW_SIZE + (long) Math.max(0, nFirstPackets) * N_FIRST_SIZE
+				+ (bidirectional ? BIDIRECTIONAL_SIZE : 0) + (quantiles ? QUANTILES_SIZE : 0);
+		maxFlows = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budget / flowSize));
+		// Iterate flows from the least recently used
+		flows = new LinkedHashMap<FlowKey, Flow>(16, 0.75f, true);
+		spill = new FlowSpill(spillFile);
+	}
+
+	/**
+	 * @return the maximum number of flows kept in memory; 0 if flows are never
+	 *         spilled
+	 */
+	public int getMaxFlows() {
+		return spill != null ? maxFlows : 0;
+	}
+
+	/**
+	 * Spills the least recently used flows, leaving room for a batch of new
+	 * flows. Spilled flows stay scheduled in the timer wheel
+	 */
+	private void spillColdFlows() {
+		int target = maxFlows - maxFlows / 16;
+		Iterator<Map.Entry<FlowKey, Flow>> iterator = flows.entrySet().iterator();
+		try {
+			while (flows.size() > target && iterator.hasNext()) {
+				Map.Entry<FlowKey, Flow> entry = iterator.next();
+				spill.add(entry.getKey(), entry.getValue(), getDeadline(entry.getValue()));
+				iterator.remove();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Error writing flows to the spill file", e);
+		}
+	}
+
+	/**
+	 * Reads a spilled flow back into memory
+	 * 
+	 * @param key
+	 * @return the flow; null if it is not spilled
+	 */
+	private Flow unspillFlow(FlowKey key) {
+		Flow flow;
+		try {
+			flow = spill.remove(key);
+		} catch (IOException e) {
+			throw new IllegalStateException("Error reading flows from the spill file", e);
+		}
+		if (flow != null) {
+			flows.put(key.copy(), flow);
+		}
+		return flow;
+	}
+
+	/**
+	 * @param flow
+	 * @return the capture time in microseconds after which the flow times out
+	 */
+	private long getDeadline(Flow flow) {
+		long deadline = Long.MAX_VALUE;
+		if (flowActiveTimeout > 0) {
+			deadline = flow.getStartTime() + flowActiveTimeout;
+		}
+		if (flowIdleTimeout > 0) {
+			deadline = Math.min(deadline, flow.getLastSeen() + flowIdleTimeout);
+		}
+		return deadline;
+	}
+
+	/**
+	 * Dumps and removes the flow of the given key if it timed out. The flow
+	 * replacing a timed out flow keeps the key scheduled, so each key in the list
+	 * has a single entry in the timer wheel
+	 * 
+	 * @param key
+	 *            the key of the flow
+	 * @param now
+	 *            the current capture time in microseconds
+	 * @return the deadline of the flow; -1 if the flow expired
+	 */
+	private long expireFlow(FlowKey key, long now) {
+		Flow flow = flows.get(key);
+		long deadline;
+		if (flow != null) {
+			deadline = getDeadline(flow);
+			if (now <= deadline) {
+				return deadline;
+			}
+			flows.remove(key);
+		} else {
+			// Check the deadline of a spilled flow without reading it
+			deadline = spill != null ? spill.getDeadline(key) : -1;
+			if (deadline == -1) {
+				return -1;
+			}
+			if (now <= deadline) {
+				return deadline;
+			}
+			try {
+				flow = spill.remove(key);
+			} catch (IOException e) {
+				throw new IllegalStateException("Error reading flows from the spill file", e);
+			}
+		}
+		// Dump expired flow
+		dumpFlowToFile(flow);
+		flowCounter++;
+		countExport(flowActiveTimeout > 0 && deadline == flow.getStartTime() + flowActiveTimeout
+				? ExportReason.ACTIVE_TIMEOUT : ExportReason.IDLE_TIMEOUT);
+		if (expiredFlows != null) {
+			expiredFlows.put(key, new ExpiredFlow(flow, deadline));
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks whether the timeout history of an expired flow is forgotten at the
+	 * given capture time. It depends only on the time the flow timed out, not on
+	 * when the flow was found expired, so the result is the same whatever packets
+	 * of other flows are seen in between (e.g., by a shard)
+	 * 
+	 * @param expiredFlow
+	 * @param time
+	 *            the capture time in microseconds
+	 * @return true if the history of the expired flow is forgotten
+	 */
+	private boolean isForgotten(ExpiredFlow expiredFlow, long time) {
+		return flowHistoryTimeout > 0 && time - expiredFlow.expiredAt > flowHistoryTimeout;
+	}
+
+	/**
+	 * Forgets the timeout history of the flows that expired longer than the
+	 * history timeout ago
+	 */
+	private void forgetExpiredFlows() {
+		if (expiredFlows == null || flowHistoryTimeout <= 0) {
+			return;
+		}
+		Iterator<ExpiredFlow> iterator = expiredFlows.values().iterator();
+		while (iterator.hasNext()) {
+			if (!isForgotten(iterator.next(), captureTime)) {
+				break;
+			}
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * @param flowKey
 	 * @param timeoutFlow
 	 * @param newFlow
 	 */
-	private void dumpTimeoutFlow(String flowId, Flow timeoutFlow, Flow newFlow) {
+	private void dumpTimeoutFlow(FlowKey flowKey, Flow timeoutFlow, Flow newFlow) {
 		// Dump flow information to file
 		dumpFlowToFile(timeoutFlow);
-		// Remove flow from list
-		flows.remove(flowId);
 		flowCounter++;
-		// Add flow to list with first packet
-		flows.put(flowId, newFlow);
+		// Replace flow in list with first packet; the stored key is kept
+		flows.put(flowKey, newFlow);
 	}
 
 	/**
 	 * @return number of processed flows
 	 */
+	@Override
 	public long dumpLastFlows() {
+		dumpRemainingFlows();
+		// Close file outputs
+		try {
+			flowWriter.close();
+			if (iatWriter != null) {
+				iatWriter.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return flowCounter;
+	}
+
+	/**
+	 * Dumps the flows that remain without closing the outputs
+	 * 
+	 * @return number of processed flows
+	 */
+	public long dumpRemainingFlows() {
 		// Dump remaining flows to file
 		for (Flow flow : flows.values()) {
 			dumpFlowToFile(flow);
 			flowCounter++;
+			countExport(ExportReason.END_OF_CAPTURE);
 		}
-		// Close file outputs
-		try {
-			output.close();
-			if (iatOutput != null) {
-				iatOutput.close();
+		flows.clear();
+		if (spill != null) {
+			try {
+				spill.removeAll(new FlowSpill.Handler() {
+					@Override
+					public void onFlow(FlowKey key, Flow flow) {
+						dumpFlowToFile(flow);
+						flowCounter++;
+						countExport(ExportReason.END_OF_CAPTURE);
+					}
+				});
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
+			spill.close();
+			spill = null;
 		}
+		if (expiredFlows != null) {
+			expiredFlows.clear();
+		}
+		return flowCounter;
+	}
+
+	/**
+	 * @return number of processed flows
+	 */
+	public long getFlowCounter() {
 		return flowCounter;
 	}
 
+	/**
+	 * Writes the state of the aggregation to a stream, so it can be resumed by
+	 * another flow manager with the same parameters (see
+	 * {@link #readState(DataInput)}): the capture time, the number of processed
+	 * flows, the active flows (spilled ones first) and the timeout history of
+	 * expired flows
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeState(final DataOutput out) throws IOException {
+		out.writeLong(captureTime);
+		out.writeLong(flowCounter);
+		out.writeLong(getActiveFlows());
+		if (spill != null) {
+			spill.forEach(new FlowSpill.Handler() {
+				@Override
+				public void onFlow(FlowKey key, Flow flow) {
+					try {
+						key.writeTo(out);
+						flow.writeTo(out);
+					} catch (IOException e) {
+						throw new IllegalStateException("Error writing the state of spilled flows", e);
+					}
+				}
+			});
+		}
+		// Flows in memory from the least recently used, if flows are spilled
+		for (Map.Entry<FlowKey, Flow> entry : flows.entrySet()) {
+			entry.getKey().writeTo(out);
+			entry.getValue().writeTo(out);
+		}
+		if (expiredFlows == null) {
+			out.writeInt(0);
+			return;
+		}
+		out.writeInt(expiredFlows.size());
+		for (Map.Entry<FlowKey, ExpiredFlow> entry : expiredFlows.entrySet()) {
+			ExpiredFlow expiredFlow = entry.getValue();
+			entry.getKey().writeTo(out);
+			out.writeInt(expiredFlow.priorTOs);
+			out.writeLong(expiredFlow.startTime);
+			out.writeLong(expiredFlow.lastSeen);
+			out.writeLong(expiredFlow.expiredAt);
+		}
+	}
+
+	/**
+	 * Restores the state of an aggregation written by
+	 * {@link #writeState(DataOutput)}. Must be called before adding packets,
+	 * and after setting the memory budget if any, so restored flows are spilled
+	 * as needed
+	 * 
+	 * @param in
+	 * @throws IOException
+	 */
+	public void readState(DataInput in) throws IOException {
+		captureTime = in.readLong();
+		flowCounter = in.readLong();
+		// Start the empty timer wheel at the capture time, so no flow is scheduled
+		// after its deadline
+		if (timerWheel != null && captureTime > 0) {
+			timerWheel.advance(captureTime, expiryHandler);
+		}
+		long nFlows = in.readLong();
+		for (long i = 0; i < nFlows; i++) {
+			FlowKey key = new FlowKey().readFrom(in);
+			Flow flow = new Flow().readFrom(in);
+			flows.put(key, flow);
+			if (timerWheel != null) {
+				timerWheel.schedule(key, getDeadline(flow));
+			}
+			if (spill != null && flows.size() > maxFlows) {
+				spillColdFlows();
+			}
+		}
+		int nExpired = in.readInt();
+		for (int i = 0; i < nExpired; i++) {
+			FlowKey key = new FlowKey().readFrom(in);
+			ExpiredFlow expiredFlow = new ExpiredFlow(in.readInt(), in.readLong(), in.readLong(), in.readLong());
+			if (expiredFlows != null) {
+				expiredFlows.put(key, expiredFlow);
+			}
+		}
+	}
+
+	/**
+	 * @param reason
+	 *            reason why a flow was exported
+	 */
+	private void countExport(ExportReason reason) {
+		if (metrics != null) {
+			metrics.flowExported(reason);
+		}
+	}
+
+	/**
+	 * @return number of active flows, in memory or spilled
+	 */
+	@Override
+	public long getActiveFlows() {
+		FlowSpill currentSpill = spill;
+		return flows.size() + (currentSpill != null ? currentSpill.size() : 0);
+	}
+
+	/**
+	 * @param metrics
+	 */
+	@Override
+	public void setMetrics(ParserMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	/**
 	 * @param flow
 	 */
 	private void dumpFlowToFile(Flow flow) {
 		try {
-			output.write(String.valueOf(flow.toCSV(features, nFirstPackets) + "\n").getBytes());
+			flowWriter.write(flow);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -213,48 +837,15 @@ public class FlowManager {
 	/**
 	 * Generates the identifier of the flow using the source/destination addresses
 	 * of either IP (IPv4/IPv6) or Ethernet, the IP protocol or the Ethernet type,
-	 * the TCP/UDP source/destination ports, and the VLAN identifier. These fields
-	 * were selected based on the hash function that Open vSwitch version >= 2.4
-	 * applies for bucket selection
+	 * the TCP/UDP source/destination ports, and the VLAN identifier. The textual
+	 * identifier is available through {@link FlowKey#toString()}
 	 * 
 	 * @param packet
 	 *            the packet for generating the flow identifier
 	 * @return the flow identifier
 	 */
-	public static String generateFlowId(Packet packet) {
-		StringBuilder flowId = new StringBuilder();
-		// Check if IPv4/IPv6 source/destination addresses exist
-		if (packet.getIpSrc() != null && packet.getIpDst() != null) {
-			flowId.append(packet.getIpSrcString());
-			flowId.append("-");
-			flowId.append(packet.getIpDstString());
-			flowId.append("_");
-			flowId.append(packet.getIpProto());
-			flowId.append("_");
-		} // Check if Ethernet source/destination addresses exist
-		else if (packet.getEthSrc() != null && packet.getEthDst() != null) {
-			flowId.append(packet.getEthSrcString());
-			flowId.append("-");
-			flowId.append(packet.getEthDstString());
-			flowId.append("_");
-			flowId.append(packet.getEthType());
-			flowId.append("_");
-		} else {
-			flowId.append("noAddresses");
-			flowId.append("_");
-		}
-		// Check if TCP/UDP source/destination ports exist
-		if (packet.getPortSrc() != -1 && packet.getPortDst() != -1) {
-			flowId.append(packet.getPortSrc());
-			flowId.append("-");
-			flowId.append(packet.getPortDst());
-			flowId.append("_");
-		}
-		// Check if VLAN ID exists
-		if (packet.getVlanId() != -1) {
-			flowId.append(packet.getVlanId());
-		}
-		return flowId.toString();
+	public static FlowKey generateFlowId(Packet packet) {
+		return new FlowKey(packet);
 	}
 
 }
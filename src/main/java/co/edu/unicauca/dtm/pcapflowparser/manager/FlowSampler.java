@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Aggregator that samples packets before handing them over to another
+ * aggregator. Both modes are decided on a hash, so the same packets are
+ * sampled across files, runs and resumed runs, and packets that are not
+ * sampled only cost the hash of their flow key:
+ * <ul>
+ * <li>flow sampling keeps 1 in N flows by the hash of their flow key, before
+ * any state is allocated for them, so the sampled flows are complete;</li>
+ * <li>packet sampling keeps 1 in N packets by the hash of their flow key and
+ * timestamp, so the packet and byte counters of the flows are scaled by N on
+ * export (see {@link #getPacketScale()}).</li>
+ * </ul>
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FlowSampler implements FlowAggregator {
+
+	/**
+	 * Aggregator of the sampled packets
+	 */
+	private final FlowAggregator flowManager;
+
+	/**
+	 * One in this number of flows is sampled; 1 samples all flows
+	 */
+	private final int flowRate;
+
+	/**
+	 * One in this number of packets is sampled; 1 samples all packets
+	 */
+	private final int packetRate;
+
+	/**
+	 * Whether flows are sampled by their canonical key, so both directions of a
+	 * flow are sampled together
+	 */
+	private boolean bidirectional;
+
+	/**
+	 * Reusable key for computing the hash of each packet
+	 */
+	private final FlowKey flowKey;
+
+	/**
+	 * @param flowManager
+	 *            aggregator of the sampled packets
+	 * @param flowRate
+	 *            one in this number of flows is sampled; 1 samples all flows
+	 * @param packetRate
+	 *            one in this number of packets is sampled; 1 samples all
+	 *            packets
+	 */
+	public FlowSampler(FlowAggregator flowManager, int flowRate, int packetRate) {
+		super();
+		if (flowRate < 1 || packetRate < 1) {
+			throw new IllegalArgumentException("Sampling rates must be positive");
+		}
+		this.flowManager = flowManager;
+		this.flowRate = flowRate;
+		this.packetRate = packetRate;
+		flowKey = new FlowKey();
+	}
+
+	/**
+	 * Samples both directions of a flow together. Must be set as in the
+	 * aggregator of the sampled packets
+	 * 
+	 * @param bidirectional
+	 */
+	public void setBidirectional(boolean bidirectional) {
+		this.bidirectional = bidirectional;
+	}
+
+	/**
+	 * @return the factor by which the packet and byte counters of the flows
+	 *         must be scaled, i.e., the packet sampling rate
+	 */
+	public int getPacketScale() {
+		return packetRate;
+	}
+
+	/**
+	 * @param packet
+	 *            the packet to add to its flow if sampled
+	 */
+	@Override
+	public void addPacket(Packet packet) {
+		if (bidirectional) {
+			flowKey.setCanonical(packet);
+		} else {
+			flowKey.set(packet);
+		}
+		int hash = flowKey.hashCode();
+		// Multiplying by an odd constant spreads the hash again, so sampling is
+		// independent of the upper bits that map flows to shards
+		if (flowRate > 1 && Integer.remainderUnsigned(hash * 0x9E3779B9, flowRate) != 0) {
+			return;
+		}
+		if (packetRate > 1 && Long.remainderUnsigned(mix(hash, packet.getTimestamp()), packetRate) != 0) {
+			return;
+		}
+		flowManager.addPacket(packet);
+	}
+
+	/**
+	 * Mixes the hash of the flow key with the timestamp of a packet (finalizer
+	 * of MurmurHash3)
+	 * 
+	 * @param hash
+	 * @param timestamp
+	 * @return the hash of the packet
+	 */
+	private static long mix(int hash, long timestamp) {
+		long h = timestamp * 0x9E3779B97F4A7C15L ^ hash;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	@Override
+	public long dumpLastFlows() {
+		return flowManager.dumpLastFlows();
+	}
+
+	@Override
+	public long getActiveFlows() {
+		return flowManager.getActiveFlows();
+	}
+
+	@Override
+	public void setMetrics(ParserMetrics metrics) {
+		flowManager.setMetrics(metrics);
+	}
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+
+/**
+ * Store of flows that were moved out of memory to a local spill file. Flows
+ * are appended to the file, and an in-memory index keeps the offset and the
+ * deadline of each spilled flow, so the timer wheel can check spilled flows
+ * without reading them. A flow is read back and removed from the index when it
+ * is needed again; the space of removed flows is reclaimed by rewriting the
+ * file when it holds more removed than spilled bytes.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FlowSpill {
+
+	/**
+	 * Minimum size in bytes of removed records before the file is rewritten
+	 */
+	private static final long MIN_COMPACT_SIZE = 64L * 1024 * 1024;
+
+	/**
+	 * Handler of the flows read from the spill file
+	 */
+	public interface Handler {
+
+		/**
+		 * @param key
+		 *            the key of the flow
+		 * @param flow
+		 *            the flow
+		 */
+		void onFlow(FlowKey key, Flow flow);
+	}
+
+	/**
+	 * Position and deadline of a spilled flow
+	 */
+	private static class Entry {
+
+		/**
+		 * Offset of the record of the flow in the file
+		 */
+		private long offset;
+
+		/**
+		 * Capture time in microseconds after which the flow times out
+		 */
+		private final long deadline;
+
+		/**
+		 * @param offset
+		 * @param deadline
+		 */
+		private Entry(long offset, long deadline) {
+			this.offset = offset;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * Spill file
+	 */
+	private File file;
+
+	/**
+	 * Index of the spilled flows
+	 */
+	private Map<FlowKey, Entry> index;
+
+	/**
+	 * Output that appends records to the file
+	 */
+	private DataOutputStream out;
+
+	/**
+	 * Reader of single records of the file
+	 */
+	private RandomAccessFile reader;
+
+	/**
+	 * Size in bytes of the file, including buffered records
+	 */
+	private long size;
+
+	/**
+	 * Size in bytes of the records of removed flows
+	 */
+	private long removedSize;
+
+	/**
+	 * Whether the output holds records that have not been written to the file
+	 */
+	private boolean pending;
+
+	/**
+	 * Reusable buffer for serializing and reading a record
+	 */
+	private ByteArrayOutputStream record;
+
+	/**
+	 * 
+	 */
+	private DataOutputStream recordOut;
+
+	/**
+	 * 
+	 */
+	private byte[] recordBytes;
+
+	/**
+	 * @param file
+	 *            the spill file, which is created or overwritten and deleted on
+	 *            close
+	 * @throws IOException
+	 */
+	public FlowSpill(File file) throws IOException {
+		super();
+		this.file = file;
+		index = new HashMap<FlowKey, Entry>();
+		record = new ByteArrayOutputStream(512);
+		recordOut = new DataOutputStream(record);
+		recordBytes = new byte[512];
+		open(new FileOutputStream(file));
+		size = 0;
+		removedSize = 0;
+	}
+
+	/**
+	 * @param output
+	 *            the output stream of the file
+	 * @throws IOException
+	 */
+	private void open(FileOutputStream output) throws IOException {
+		out = new DataOutputStream(new BufferedOutputStream(output, 1024 * 1024));
+		reader = new RandomAccessFile(file, "r");
+		pending = false;
+	}
+
+	/**
+	 * @return the number of spilled flows
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Appends a flow to the spill file
+	 * 
+	 * @param key
+	 *            the key of the flow, which is retained
+	 * @param flow
+	 * @param deadline
+	 *            capture time in microseconds after which the flow times out
+	 * @throws IOException
+	 */
+	public void add(FlowKey key, Flow flow, long deadline) throws IOException {
+		record.reset();
+		key.writeTo(recordOut);
+		flow.writeTo(recordOut);
+		index.put(key, new Entry(size, deadline));
+		out.writeInt(record.size());
+		record.writeTo(out);
+		size += 4 + record.size();
+		pending = true;
+	}
+
+	/**
+	 * @param key
+	 * @return the deadline of the spilled flow in microseconds; -1 if the flow is
+	 *         not spilled
+	 */
+	public long getDeadline(FlowKey key) {
+		Entry entry = index.get(key);
+		return entry == null ? -1 : entry.deadline;
+	}
+
+	/**
+	 * Reads a spilled flow back and removes it from the spill
+	 * 
+	 * @param key
+	 * @return the flow; null if it is not spilled
+	 * @throws IOException
+	 */
+	public Flow remove(FlowKey key) throws IOException {
+		Entry entry = index.remove(key);
+		if (entry == null) {
+			return null;
+		}
+		if (pending) {
+			out.flush();
+			pending = false;
+		}
+		reader.seek(entry.offset);
+		int length = reader.readInt();
+		if (recordBytes.length < length) {
+			recordBytes = new byte[Math.max(length, recordBytes.length * 2)];
+		}
+		reader.readFully(recordBytes, 0, length);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(recordBytes, 0, length));
+		new FlowKey().readFrom(in);
+		Flow flow = new Flow().readFrom(in);
+		removedSize += 4 + length;
+		if (removedSize > MIN_COMPACT_SIZE && removedSize > size - removedSize) {
+			compact();
+		}
+		return flow;
+	}
+
+	/**
+	 * Reads the records of the file in order and passes those of spilled flows
+	 * to the handler
+	 * 
+	 * @param target
+	 *            the file to copy the records of spilled flows to, updating their
+	 *            offsets; null to only read them
+	 * @param handler
+	 *            handler of the spilled flows; null if they are only copied
+	 * @return the size in bytes of the copied records
+	 * @throws IOException
+	 */
+	private long scan(DataOutputStream target, Handler handler) throws IOException {
+		out.flush();
+		pending = false;
+		long copied = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 1024));
+		try {
+			FlowKey key = new FlowKey();
+			long offset = 0;
+			while (offset < size) {
+				int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (recordBytes.length < length) {
+					recordBytes = new byte[Math.max(length, recordBytes.length * 2)];
+				}
+				in.readFully(recordBytes, 0, length);
+				DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(recordBytes, 0, length));
+				key.readFrom(recordIn);
+				Entry entry = index.get(key);
+				if (entry != null && entry.offset == offset) {
+					if (target != null) {
+						entry.offset = copied;
+						target.writeInt(length);
+						target.write(recordBytes, 0, length);
+						copied += 4 + length;
+					}
+					if (handler != null) {
+						handler.onFlow(key.copy(), new Flow().readFrom(recordIn));
+					}
+				}
+				offset += 4 + length;
+			}
+		} finally {
+			in.close();
+		}
+		return copied;
+	}
+
+	/**
+	 * Rewrites the file with the records of spilled flows only
+	 * 
+	 * @throws IOException
+	 */
+	private void compact() throws IOException {
+		File compacted = new File(file.getPath() + ".tmp");
+		DataOutputStream target = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(compacted), 1024 * 1024));
+		try {
+			size = scan(target, null);
+		} finally {
+			target.close();
+		}
+		out.close();
+		reader.close();
+		if (!file.delete() || !compacted.renameTo(file)) {
+			throw new IOException("Spill file '" + file.getAbsolutePath() + "' can not be replaced");
+		}
+		open(new FileOutputStream(file, true));
+		removedSize = 0;
+	}
+
+	/**
+	 * Reads all spilled flows in file order and removes them from the spill
+	 * 
+	 * @param handler
+	 *            handler of the spilled flows
+	 * @throws IOException
+	 */
+	public void removeAll(Handler handler) throws IOException {
+		scan(null, handler);
+		index.clear();
+		removedSize = size;
+	}
+
+	/**
+	 * Reads all spilled flows in file order, keeping them in the spill
+	 * 
+	 * @param handler
+	 *            handler of the spilled flows
+	 * @throws IOException
+	 */
+	public void forEach(Handler handler) throws IOException {
+		scan(null, handler);
+	}
+
+	/**
+	 * Closes and deletes the spill file
+	 */
+	public void close() {
+		try {
+			out.close();
+			reader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		file.delete();
+	}
+
+}
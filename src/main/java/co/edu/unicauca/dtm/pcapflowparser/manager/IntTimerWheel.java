@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+/**
+ * Hashed timer wheel driven by capture time whose entries are int values, e.g.,
+ * indexes of a table. It behaves as {@link TimerWheel}, but keeps the entries
+ * in primitive arrays, so millions of entries do not create objects.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class IntTimerWheel {
+
+	/**
+	 * Handler of the entries whose slot has been reached
+	 */
+	public interface Handler {
+
+		/**
+		 * @param entry
+		 *            the entry whose slot has been reached
+		 * @param now
+		 *            the current capture time in microseconds
+		 * @return the new deadline of the entry in microseconds; -1 if the entry
+		 *         must be removed from the wheel
+		 */
+		long onTimer(int entry, long now);
+	}
+
+	/**
+	 * Duration in microseconds of a slot
+	 */
+	private final long tick;
+
+	/**
+	 * Mask for mapping ticks to slots; the number of slots is a power of two
+	 */
+	private final int mask;
+
+	/**
+	 * Entries of each slot
+	 */
+	private int[][] slots;
+
+	/**
+	 * Number of entries of each slot
+	 */
+	private int[] sizes;
+
+	/**
+	 * First tick that has not been processed yet; -1 before the first entry
+	 */
+	private long currentTick;
+
+	/**
+	 * Number of entries in the wheel
+	 */
+	private long size;
+
+	/**
+	 * @param tick
+	 *            duration in microseconds of a slot
+	 * @param span
+	 *            time in microseconds that the wheel should cover without wrapping
+	 *            around, usually the longest timeout
+	 */
+	public IntTimerWheel(long tick, long span) {
+		super();
+		this.tick = tick;
+		int nSlots = 64;
+		while (nSlots < 65536 && (long) nSlots * tick <= span + tick) {
+			nSlots <<= 1;
+		}
+		mask = nSlots - 1;
+		slots = new int[nSlots][];
+		sizes = new int[nSlots];
+		currentTick = -1;
+		size = 0;
+	}
+
+	/**
+	 * Schedules an entry at the given deadline
+	 * 
+	 * @param entry
+	 * @param deadline
+	 *            capture time in microseconds
+	 */
+	public void schedule(int entry, long deadline) {
+		long deadlineTick = deadline / tick;
+		if (currentTick == -1) {
+			currentTick = deadlineTick;
+		} else if (deadlineTick < currentTick) {
+			deadlineTick = currentTick;
+		}
+		int slot = (int) (deadlineTick & mask);
+		int[] entries = slots[slot];
+		if (entries == null) {
+			entries = new int[16];
+			slots[slot] = entries;
+		} else if (sizes[slot] == entries.length) {
+			int[] grown = new int[entries.length * 2];
+			System.arraycopy(entries, 0, grown, 0, entries.length);
+			entries = grown;
+			slots[slot] = entries;
+		}
+		entries[sizes[slot]++] = entry;
+		size++;
+	}
+
+	/**
+	 * Processes the slots whose time has passed
+	 * 
+	 * @param now
+	 *            the current capture time in microseconds
+	 * @param handler
+	 *            handler of the entries of the processed slots
+	 */
+	public void advance(long now, Handler handler) {
+		long nowTick = now / tick;
+		if (currentTick == -1) {
+			currentTick = nowTick;
+			return;
+		}
+		if (nowTick <= currentTick) {
+			return;
+		}
+		// A whole revolution visits every slot; longer jumps are not needed
+		long lastTick = Math.min(nowTick, currentTick + mask + 1);
+		long jumpTick = nowTick;
+		while (currentTick < lastTick) {
+			int slot = (int) (currentTick & mask);
+			currentTick++;
+			int n = sizes[slot];
+			if (n == 0) {
+				continue;
+			}
+			// Detach the slot, since handled entries may be scheduled again on it
+			int[] entries = slots[slot];
+			slots[slot] = null;
+			sizes[slot] = 0;
+			size -= n;
+			for (int i = 0; i < n; i++) {
+				long deadline = handler.onTimer(entries[i], now);
+				if (deadline >= 0) {
+					schedule(entries[i], deadline);
+				}
+			}
+			// Reuse the detached array if the slot is still empty, unless a burst grew it
+			if (slots[slot] == null && entries.length <= 1024) {
+				slots[slot] = entries;
+			}
+		}
+		currentTick = jumpTick;
+	}
+
+	/**
+	 * Removes all entries, keeping the current time of the wheel
+	 */
+	public void clear() {
+		for (int i = 0; i < slots.length; i++) {
+			if (slots[i] != null && slots[i].length > 1024) {
+				slots[i] = null;
+			}
+			sizes[i] = 0;
+		}
+		size = 0;
+	}
+
+	/**
+	 * @return the number of entries in the wheel
+	 */
+	public long size() {
+		return size;
+	}
+
+}
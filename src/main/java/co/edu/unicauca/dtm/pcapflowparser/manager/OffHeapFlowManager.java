@@ -0,0 +1,967 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import co.edu.unicauca.dtm.pcapflowparser.io.FlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.PacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics;
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics.ExportReason;
+import co.edu.unicauca.dtm.pcapflowparser.model.Flow;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowFeature;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowStatistics;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Aggregator that produces the same flows as {@link FlowManager}, but keeps
+ * them in an open-addressing hash table allocated in direct (off-heap) memory
+ * with a fixed capacity. Each slot holds the key, the first packet fields, the
+ * primitive accumulators and the first N packet sizes and IATs of a flow in a
+ * fixed-width layout, so the table does not create objects per flow and the
+ * garbage collector never scans it. A {@link Flow} is only materialized, in a
+ * reused instance, when a flow is exported.
+ * 
+ * Slots are probed linearly from the hash of the key. Removed flows leave a
+ * tombstone unless the next slot is empty; tombstones are purged by rebuilding
+ * the table when too few empty slots remain, which rebuilds the expiry index as
+ * well. The timeout history of expired flows is kept in their slots, so it
+ * counts against the capacity.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class OffHeapFlowManager implements FlowAggregator {
+
+	/**
+	 * Maximum number of flows of the table
+	 */
+	public static final int MAX_CAPACITY = 1 << 29;
+
+	/**
+	 * Duration in microseconds of the slots of the timer wheel
+	 */
+	private static final long TIMER_TICK = 1000000;
+
+	/**
+	 * Maximum size in bytes of each direct buffer of the table
+	 */
+	private static final int SEGMENT_SIZE = 1 << 30;
+
+	/**
+	 * State of a slot that was never used since the table was built
+	 */
+	private static final int STATE_EMPTY = 0;
+
+	/**
+	 * State of a slot that holds an active flow
+	 */
+	private static final int STATE_ACTIVE = 1;
+
+	/**
+	 * State of a slot that holds the timeout history of an expired flow
+	 */
+	private static final int STATE_EXPIRED = 2;
+
+	/**
+	 * State of a slot whose flow was removed (tombstone)
+	 */
+	private static final int STATE_DELETED = 3;
+
+	/**
+	 * Offsets of the fields in a slot
+	 */
+	private static final int OFF_STATE = 0;
+
+	private static final int OFF_HASH = 4;
+
+	private static final int OFF_KEY = 8;
+
+	private static final int OFF_START_TIME = OFF_KEY + FlowKey.BYTES;
+
+	private static final int OFF_LAST_SEEN = OFF_START_TIME + 8;
+
+	private static final int OFF_TIME_LAST_TO = OFF_LAST_SEEN + 8;
+
+	private static final int OFF_EXPIRED_AT = OFF_TIME_LAST_TO + 8;
+
+	private static final int OFF_IAT_INDEX = OFF_EXPIRED_AT + 8;
+
+	private static final int OFF_SIZES = OFF_IAT_INDEX + 8;
+
+	private static final int OFF_IATS = OFF_SIZES + FlowStatistics.BYTES;
+
+	private static final int OFF_ETH_SRC = OFF_IATS + FlowStatistics.BYTES;
+
+	private static final int OFF_ETH_DST = OFF_ETH_SRC + 8;
+
+	private static final int OFF_PRIOR_TOS = OFF_ETH_DST + 8;
+
+	private static final int OFF_SIZE = OFF_PRIOR_TOS + 4;
+
+	private static final int OFF_ETH_TYPE = OFF_SIZE + 4;
+
+	private static final int OFF_VLAN_ID = OFF_ETH_TYPE + 4;
+
+	private static final int OFF_IP_PROTO = OFF_VLAN_ID + 4;
+
+	private static final int OFF_PORT_SRC = OFF_IP_PROTO + 4;
+
+	private static final int OFF_PORT_DST = OFF_PORT_SRC + 4;
+
+	private static final int OFF_ETH_FLAGS = OFF_PORT_DST + 4;
+
+	private static final int OFF_N_FIRST = OFF_ETH_FLAGS + 4;
+
+	/**
+	 * Flags of the Ethernet addresses present in the first packet
+	 */
+	private static final int ETH_SRC_FLAG = 1;
+
+	private static final int ETH_DST_FLAG = 2;
+
+	/**
+	 * 
+	 */
+	private long flowActiveTimeout;
+
+	/**
+	 * 
+	 */
+	private long flowIdleTimeout;
+
+	/**
+	 * Time in microseconds after which the timeout history of an expired flow is
+	 * forgotten; 0 keeps it until the end
+	 */
+	private long flowHistoryTimeout;
+
+	/**
+	 * 
+	 */
+	private int nFirstPackets;
+
+	/**
+	 * Maximum number of active and expired flows
+	 */
+	private int capacity;
+
+	/**
+	 * Mask for mapping hashes to slots; the number of slots is a power of two
+	 */
+	private int slotMask;
+
+	/**
+	 * Size in bytes of a slot
+	 */
+	private int slotSize;
+
+	/**
+	 * Offset in a slot of the first N packet IATs, which follow the sizes
+	 */
+	private int offNFirstIATs;
+
+	/**
+	 * Shift and mask for mapping a slot to its buffer and its index in it
+	 */
+	private int segmentShift;
+
+	/**
+	 * 
+	 */
+	private int segmentMask;
+
+	/**
+	 * Direct buffers that hold the slots
+	 */
+	private ByteBuffer[] segments;
+
+	/**
+	 * Number of slots with an active flow
+	 */
+	private int nFlows;
+
+	/**
+	 * Number of slots with the history of an expired flow
+	 */
+	private int nExpired;
+
+	/**
+	 * Number of slots that are not empty, including tombstones
+	 */
+	private int nOccupied;
+
+	/**
+	 * Number of non-empty slots after which the table is rebuilt
+	 */
+	private int maxOccupied;
+
+	/**
+	 * Reusable key for looking up the flow of each packet
+	 */
+	private FlowKey flowKey;
+
+	/**
+	 * Reusable accumulator for updating the statistics of a slot
+	 */
+	private FlowStatistics statistics;
+
+	/**
+	 * Reusable flow, key and first packet for exporting flows
+	 */
+	private Flow exportedFlow;
+
+	/**
+	 * 
+	 */
+	private FlowKey exportedKey;
+
+	/**
+	 * 
+	 */
+	private Packet exportedPacket;
+
+	/**
+	 * Expiry index of the slots of active flows; null if timeouts are disabled
+	 */
+	private IntTimerWheel timerWheel;
+
+	/**
+	 * Handler that exports the flows expired by the timer wheel
+	 */
+	private IntTimerWheel.Handler expiryHandler;
+
+	/**
+	 * Whether expired flows keep their timeout history, for numbering the
+	 * timeouts of flows that restart
+	 */
+	private boolean keepHistory;
+
+	/**
+	 * Ring of the slots of expired flows in order of expiration, with the time
+	 * they expired, for forgetting their history; null if it is never forgotten
+	 */
+	private int[] expiredSlots;
+
+	/**
+	 * 
+	 */
+	private long[] expiredTimes;
+
+	/**
+	 * 
+	 */
+	private int expiredHead;
+
+	/**
+	 * 
+	 */
+	private int expiredCount;
+
+	/**
+	 * Latest capture time in microseconds
+	 */
+	private long captureTime;
+
+	/**
+	 * 
+	 */
+	private long flowCounter;
+
+	/**
+	 * Metrics that count the exported flows; null if not counted
+	 */
+	private ParserMetrics metrics;
+
+	/**
+	 * 
+	 */
+	private FlowWriter flowWriter;
+
+	/**
+	 * 
+	 */
+	private PacketIATWriter iatWriter;
+
+	/**
+	 * @param flowWriter
+	 *            writer of the flows
+	 * @param iatWriter
+	 *            writer of the packet IAT report; null if the report is not
+	 *            generated
+	 * @param capacity
+	 *            maximum number of active flows, plus expired flows whose timeout
+	 *            history is kept
+	 * @param flowActiveTimeout
+	 * @param flowIdleTimeout
+	 * @param flowHistoryTimeout
+	 * @param features
+	 * @param nFirstPackets
+	 */
+	public OffHeapFlowManager(FlowWriter flowWriter, PacketIATWriter iatWriter, int capacity,
+			int flowActiveTimeout, int flowIdleTimeout, int flowHistoryTimeout, Set<Integer> features, int nFirstPackets) {
+		super();
+		if (capacity < 1 || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Capacity must be between 1 and " + MAX_CAPACITY);
+		}
+		// Set input parameters
+		long secToMicrosec = 1000000;
+		this.flowActiveTimeout = (long) flowActiveTimeout * secToMicrosec;
+		this.flowIdleTimeout = (long) flowIdleTimeout * secToMicrosec;
+		this.flowHistoryTimeout = (long) flowHistoryTimeout * secToMicrosec;
+		this.nFirstPackets = Math.max(0, nFirstPackets);
+		this.capacity = capacity;
+		this.flowWriter = flowWriter;
+		this.iatWriter = iatWriter;
+		// Size the slots for the first N packets and keep the load under 75%
+		offNFirstIATs = OFF_N_FIRST + (this.nFirstPackets * 4 + 7) / 8 * 8;
+		slotSize = offNFirstIATs + this.nFirstPackets * 8;
+		if (slotSize > SEGMENT_SIZE) {
+			throw new IllegalArgumentException("Number of first packets is too large for the off-heap flow table");
+		}
+		int nSlots = Integer.highestOneBit(Math.max(1024, capacity + capacity / 3));
+		if (nSlots < capacity + capacity / 3) {
+			nSlots <<= 1;
+		}
+		slotMask = nSlots - 1;
+		maxOccupied = nSlots - nSlots / 8;
+		int slotsPerSegment = Math.min(nSlots, Integer.highestOneBit(SEGMENT_SIZE / slotSize));
+		segmentShift = Integer.numberOfTrailingZeros(slotsPerSegment);
+		segmentMask = slotsPerSegment - 1;
+		segments = allocateSegments();
+		nFlows = 0;
+		nExpired = 0;
+		nOccupied = 0;
+		// Initialize reusable objects
+		flowKey = new FlowKey();
+		statistics = new FlowStatistics();
+		exportedKey = new FlowKey();
+		exportedPacket = new Packet();
+		exportedFlow = new Flow();
+		exportedFlow.setFirstPacket(exportedPacket);
+		exportedFlow.setPacketSizes(new FlowStatistics());
+		exportedFlow.setPacketIATs(new FlowStatistics());
+		exportedFlow.setNFirstPacketSizes(new ArrayList<Integer>());
+		exportedFlow.setNFirstPacketIATs(new ArrayList<Long>());
+		flowCounter = 0;
+		captureTime = 0;
+		// Expire flows as capture time advances if timeouts are enabled
+		if (this.flowActiveTimeout > 0 || this.flowIdleTimeout > 0) {
+			timerWheel = new IntTimerWheel(TIMER_TICK, Math.max(this.flowActiveTimeout, this.flowIdleTimeout));
+			expiryHandler = new IntTimerWheel.Handler() {
+				@Override
+				public long onTimer(int slot, long now) {
+					return expireFlow(slot, now);
+				}
+			};
+			// Keep the timeout history only if it is reported
+			keepHistory = features.contains(FlowFeature.PRIOR_TOS.getId())
+					|| features.contains(FlowFeature.TIME_LAST_TO.getId());
+			if (keepHistory && this.flowHistoryTimeout > 0) {
+				expiredSlots = new int[1024];
+				expiredTimes = new long[1024];
+				expiredHead = 0;
+				expiredCount = 0;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes of direct memory of the table
+	 */
+	public long getMemorySize() {
+		return (long) (slotMask + 1) * slotSize;
+	}
+
+	/**
+	 * @return new zeroed buffers for all slots
+	 */
+	private ByteBuffer[] allocateSegments() {
+		int nSegments = ((slotMask + 1) >>> segmentShift);
+		ByteBuffer[] buffers = new ByteBuffer[nSegments];
+		for (int i = 0; i < nSegments; i++) {
+			buffers[i] = ByteBuffer.allocateDirect((segmentMask + 1) * slotSize).order(ByteOrder.nativeOrder());
+		}
+		return buffers;
+	}
+
+	/**
+	 * @param slot
+	 * @return the buffer that holds the slot
+	 */
+	private ByteBuffer segment(int slot) {
+		return segments[slot >>> segmentShift];
+	}
+
+	/**
+	 * @param slot
+	 * @return the offset of the slot in its buffer
+	 */
+	private int offset(int slot) {
+		return (slot & segmentMask) * slotSize;
+	}
+
+	/**
+	 * @param packet
+	 */
+	@Override
+	public void addPacket(Packet packet) {
+		long timestamp = packet.getTimestamp();
+		// Export the flows that timed out before this packet
+		if (timerWheel != null && timestamp > captureTime) {
+			captureTime = timestamp;
+			timerWheel.advance(captureTime, expiryHandler);
+			forgetExpiredFlows();
+		}
+		// Check if packet belongs to an existing flow
+		flowKey.set(packet);
+		int slot = find(flowKey);
+		if (slot >= 0 && segment(slot).getInt(offset(slot) + OFF_STATE) == STATE_ACTIVE) {
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			long startTime = segment.getLong(offset + OFF_START_TIME);
+			long lastSeen = segment.getLong(offset + OFF_LAST_SEEN);
+			// Check if the flow finished due to active timeout
+			if (flowActiveTimeout > 0 && timestamp - startTime > flowActiveTimeout) {
+				// Compute time after last timeout
+				long timeAfterLastTO = timestamp - startTime - flowActiveTimeout;
+				// Dump timeout flow and replace it with first packet; the key stays scheduled
+				dumpFlow(segment, offset);
+				flowCounter++;
+				countExport(ExportReason.ACTIVE_TIMEOUT);
+				initializeFlow(segment, offset, packet, segment.getInt(offset + OFF_PRIOR_TOS) + 1, timeAfterLastTO);
+			} // Check if the flow finished due to idle timeout
+			else if (flowIdleTimeout > 0 && timestamp - lastSeen > flowIdleTimeout) {
+				// Compute time after last timeout
+				long timeAfterLastTO = timestamp - lastSeen - flowIdleTimeout;
+				// Dump timeout flow and replace it with first packet; the key stays scheduled
+				dumpFlow(segment, offset);
+				flowCounter++;
+				countExport(ExportReason.IDLE_TIMEOUT);
+				initializeFlow(segment, offset, packet, segment.getInt(offset + OFF_PRIOR_TOS) + 1, timeAfterLastTO);
+			} else {
+				// Update flow information
+				int packetSize = packet.getSize();
+				long packetIAT = timestamp - lastSeen;
+				statistics.readFrom(segment, offset + OFF_SIZES);
+				long n = statistics.getN();
+				statistics.addValue(packetSize);
+				statistics.writeTo(segment, offset + OFF_SIZES);
+				statistics.readFrom(segment, offset + OFF_IATS);
+				statistics.addValue(packetIAT);
+				statistics.writeTo(segment, offset + OFF_IATS);
+				if (n < nFirstPackets) {
+					segment.putInt(offset + OFF_N_FIRST + (int) n * 4, packetSize);
+					segment.putLong(offset + offNFirstIATs + (int) n * 8, packetIAT);
+				}
+				// Update last seen
+				segment.putLong(offset + OFF_LAST_SEEN, timestamp);
+				// Check if writing packet IAT report
+				if (iatWriter != null) {
+					// Write packet IAT report, keeping the index of the flow in the report
+					try {
+						segment.putLong(offset + OFF_IAT_INDEX,
+								iatWriter.write(flowKey, segment.getLong(offset + OFF_IAT_INDEX), n + 1, packetIAT));
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		} // First packet of a flow
+		else {
+			int priorTOs = 0;
+			long timeAfterLastTO = 0;
+			if (slot >= 0) {
+				// A previous flow with the same identifier expired; its slot is reused
+				ByteBuffer segment = segment(slot);
+				int offset = offset(slot);
+				nExpired--;
+				long expiredAt = segment.getLong(offset + OFF_EXPIRED_AT);
+				if (!isForgotten(expiredAt, timestamp)) {
+					long startTime = segment.getLong(offset + OFF_START_TIME);
+					long lastSeen = segment.getLong(offset + OFF_LAST_SEEN);
+					// Compute time after last timeout; zero for a packet that arrived out of order
+					if (flowActiveTimeout > 0 && timestamp - startTime > flowActiveTimeout) {
+						timeAfterLastTO = timestamp - startTime - flowActiveTimeout;
+					} else if (flowIdleTimeout > 0 && timestamp - lastSeen > flowIdleTimeout) {
+						timeAfterLastTO = timestamp - lastSeen - flowIdleTimeout;
+					}
+					priorTOs = segment.getInt(offset + OFF_PRIOR_TOS) + 1;
+				}
+			} else {
+				slot = insert(-slot - 1);
+			}
+			// Add flow to table with first packet
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			segment.putInt(offset + OFF_STATE, STATE_ACTIVE);
+			nFlows++;
+			initializeFlow(segment, offset, packet, priorTOs, timeAfterLastTO);
+			if (timerWheel != null) {
+				timerWheel.schedule(slot, getDeadline(segment, offset));
+			}
+		}
+	}
+
+	/**
+	 * Looks up the slot of a key
+	 * 
+	 * @param key
+	 * @return the slot of the active or expired flow of the key; otherwise, -1
+	 *         minus the slot where the key should be inserted
+	 */
+	private int find(FlowKey key) {
+		int hash = key.hashCode();
+		int slot = hash & slotMask;
+		int firstDeleted = -1;
+		while (true) {
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			int state = segment.getInt(offset + OFF_STATE);
+			if (state == STATE_EMPTY) {
+				return -(firstDeleted != -1 ? firstDeleted : slot) - 1;
+			}
+			if (state == STATE_DELETED) {
+				if (firstDeleted == -1) {
+					firstDeleted = slot;
+				}
+			} else if (segment.getInt(offset + OFF_HASH) == hash && key.matches(segment, offset + OFF_KEY)) {
+				return slot;
+			}
+			slot = (slot + 1) & slotMask;
+		}
+	}
+
+	/**
+	 * Writes the lookup key to a free slot, rebuilding the table first if too
+	 * few empty slots remain
+	 * 
+	 * @param slot
+	 *            the insertion slot returned by the lookup of the key
+	 * @return the slot of the key
+	 * @throws IllegalStateException
+	 *             if the table is full
+	 */
+	private int insert(int slot) {
+		if (nFlows + nExpired >= capacity && nExpired > 0 && flowHistoryTimeout > 0) {
+			// The ring only forgets in order of expiration; look for any forgotten history
+			purgeForgottenFlows();
+			slot = -find(flowKey) - 1;
+		}
+		if (nFlows + nExpired >= capacity) {
+			throw new IllegalStateException("Off-heap flow table is full with " + capacity
+					+ " flows; increase its capacity" + (keepHistory ? " or the forgetting of timeout history" : ""));
+		}
+		if (segment(slot).getInt(offset(slot) + OFF_STATE) == STATE_EMPTY) {
+			if (nOccupied + 1 > maxOccupied) {
+				rebuild();
+				slot = -find(flowKey) - 1;
+			}
+			nOccupied++;
+		}
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		segment.putInt(offset + OFF_HASH, flowKey.hashCode());
+		flowKey.writeTo(segment, offset + OFF_KEY);
+		return slot;
+	}
+
+	/**
+	 * Removes the flow of a slot, leaving a tombstone unless no probe passes
+	 * through the slot
+	 * 
+	 * @param slot
+	 */
+	private void delete(int slot) {
+		if (segment((slot + 1) & slotMask).getInt(offset((slot + 1) & slotMask) + OFF_STATE) != STATE_EMPTY) {
+			segment(slot).putInt(offset(slot) + OFF_STATE, STATE_DELETED);
+			return;
+		}
+		// Empty the slot and the tombstones that precede it
+		do {
+			segment(slot).putInt(offset(slot) + OFF_STATE, STATE_EMPTY);
+			nOccupied--;
+			slot = (slot - 1) & slotMask;
+		} while (segment(slot).getInt(offset(slot) + OFF_STATE) == STATE_DELETED);
+	}
+
+	/**
+	 * Moves the active and expired flows to new buffers without tombstones, and
+	 * rebuilds the expiry index and the order of expired flows
+	 */
+	private void rebuild() {
+		ByteBuffer[] oldSegments = segments;
+		segments = allocateSegments();
+		for (int oldSlot = 0; oldSlot <= slotMask; oldSlot++) {
+			ByteBuffer oldSegment = oldSegments[oldSlot >>> segmentShift];
+			int oldOffset = offset(oldSlot);
+			int state = oldSegment.getInt(oldOffset + OFF_STATE);
+			if (state != STATE_ACTIVE && state != STATE_EXPIRED) {
+				continue;
+			}
+			int slot = oldSegment.getInt(oldOffset + OFF_HASH) & slotMask;
+			while (segment(slot).getInt(offset(slot) + OFF_STATE) != STATE_EMPTY) {
+				slot = (slot + 1) & slotMask;
+			}
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			for (int i = 0; i < slotSize; i += 8) {
+				segment.putLong(offset + i, oldSegment.getLong(oldOffset + i));
+			}
+			// Record the new slot in the old buffer, which is discarded
+			oldSegment.putInt(oldOffset + OFF_STATE, -1 - slot);
+		}
+		nOccupied = nFlows + nExpired;
+		// Point the expired flows to their new slots
+		if (expiredSlots != null) {
+			for (int i = 0; i < expiredCount; i++) {
+				int index = (expiredHead + i) % expiredSlots.length;
+				int oldSlot = expiredSlots[index];
+				if (oldSlot != -1) {
+					int state = oldSegments[oldSlot >>> segmentShift].getInt(offset(oldSlot) + OFF_STATE);
+					expiredSlots[index] = state < 0 ? -1 - state : -1;
+				}
+			}
+		}
+		// Schedule the active flows at their new slots
+		if (timerWheel != null) {
+			timerWheel.clear();
+			for (int slot = 0; slot <= slotMask; slot++) {
+				ByteBuffer segment = segment(slot);
+				int offset = offset(slot);
+				if (segment.getInt(offset + OFF_STATE) == STATE_ACTIVE) {
+					timerWheel.schedule(slot, getDeadline(segment, offset));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the fields of a slot to a flow with its first packet
+	 * 
+	 * @param segment
+	 * @param offset
+	 * @param packet
+	 * @param priorTOs
+	 * @param timeAfterLastTO
+	 */
+	private void initializeFlow(ByteBuffer segment, int offset, Packet packet, int priorTOs, long timeAfterLastTO) {
+		segment.putLong(offset + OFF_START_TIME, packet.getTimestamp());
+		segment.putLong(offset + OFF_LAST_SEEN, packet.getTimestamp());
+		segment.putLong(offset + OFF_TIME_LAST_TO, timeAfterLastTO);
+		segment.putLong(offset + OFF_IAT_INDEX, PacketIATWriter.NO_INDEX);
+		segment.putInt(offset + OFF_PRIOR_TOS, priorTOs);
+		statistics.clear();
+		statistics.addValue(packet.getSize());
+		statistics.writeTo(segment, offset + OFF_SIZES);
+		statistics.clear();
+		statistics.writeTo(segment, offset + OFF_IATS);
+		if (nFirstPackets > 0) {
+			segment.putInt(offset + OFF_N_FIRST, packet.getSize());
+			segment.putLong(offset + offNFirstIATs, 0);
+		}
+		// First packet fields; IP addresses are part of the key
+		segment.putInt(offset + OFF_SIZE, packet.getSize());
+		segment.putInt(offset + OFF_ETH_TYPE, packet.getEthType());
+		segment.putInt(offset + OFF_VLAN_ID, packet.getVlanId());
+		segment.putInt(offset + OFF_IP_PROTO, packet.getIpProto());
+		segment.putInt(offset + OFF_PORT_SRC, packet.getPortSrc());
+		segment.putInt(offset + OFF_PORT_DST, packet.getPortDst());
+		int ethFlags = 0;
+		if (packet.getEthSrc() != null) {
+			segment.putLong(offset + OFF_ETH_SRC, pack(packet.getEthSrc()));
+			ethFlags |= ETH_SRC_FLAG;
+		}
+		if (packet.getEthDst() != null) {
+			segment.putLong(offset + OFF_ETH_DST, pack(packet.getEthDst()));
+			ethFlags |= ETH_DST_FLAG;
+		}
+		segment.putInt(offset + OFF_ETH_FLAGS, ethFlags);
+	}
+
+	/**
+	 * @param segment
+	 * @param offset
+	 * @return the capture time in microseconds after which the flow of the slot
+	 *         times out
+	 */
+	private long getDeadline(ByteBuffer segment, int offset) {
+		long deadline = Long.MAX_VALUE;
+		if (flowActiveTimeout > 0) {
+			deadline = segment.getLong(offset + OFF_START_TIME) + flowActiveTimeout;
+		}
+		if (flowIdleTimeout > 0) {
+			deadline = Math.min(deadline, segment.getLong(offset + OFF_LAST_SEEN) + flowIdleTimeout);
+		}
+		return deadline;
+	}
+
+	/**
+	 * Dumps the flow of the given slot if it timed out, and keeps its timeout
+	 * history in the slot or removes it
+	 * 
+	 * @param slot
+	 * @param now
+	 *            the current capture time in microseconds
+	 * @return the deadline of the flow; -1 if the flow expired
+	 */
+	private long expireFlow(int slot, long now) {
+		ByteBuffer segment = segment(slot);
+		int offset = offset(slot);
+		if (segment.getInt(offset + OFF_STATE) != STATE_ACTIVE) {
+			return -1;
+		}
+		long deadline = getDeadline(segment, offset);
+		if (now <= deadline) {
+			return deadline;
+		}
+		// Dump expired flow
+		dumpFlow(segment, offset);
+		flowCounter++;
+		countExport(flowActiveTimeout > 0 && deadline == segment.getLong(offset + OFF_START_TIME) + flowActiveTimeout
+				? ExportReason.ACTIVE_TIMEOUT : ExportReason.IDLE_TIMEOUT);
+		nFlows--;
+		if (keepHistory) {
+			segment.putInt(offset + OFF_STATE, STATE_EXPIRED);
+			segment.putLong(offset + OFF_EXPIRED_AT, deadline);
+			nExpired++;
+			if (expiredSlots != null) {
+				addExpiredSlot(slot, deadline);
+			}
+		} else {
+			delete(slot);
+		}
+		return -1;
+	}
+
+	/**
+	 * Appends an expired flow to the ring of expired flows, growing it if full
+	 * 
+	 * @param slot
+	 * @param expiredAt
+	 */
+	private void addExpiredSlot(int slot, long expiredAt) {
+		if (expiredCount == expiredSlots.length) {
+			int[] slots = new int[expiredSlots.length * 2];
+			long[] times = new long[expiredTimes.length * 2];
+			for (int i = 0; i < expiredCount; i++) {
+				slots[i] = expiredSlots[(expiredHead + i) % expiredSlots.length];
+				times[i] = expiredTimes[(expiredHead + i) % expiredTimes.length];
+			}
+			expiredSlots = slots;
+			expiredTimes = times;
+			expiredHead = 0;
+		}
+		int index = (expiredHead + expiredCount) % expiredSlots.length;
+		expiredSlots[index] = slot;
+		expiredTimes[index] = expiredAt;
+		expiredCount++;
+	}
+
+	/**
+	 * @param expiredAt
+	 *            capture time in microseconds when the flow timed out
+	 * @param time
+	 *            the capture time in microseconds
+	 * @return true if the history of the expired flow is forgotten (see
+	 *         {@link FlowManager})
+	 */
+	private boolean isForgotten(long expiredAt, long time) {
+		return flowHistoryTimeout > 0 && time - expiredAt > flowHistoryTimeout;
+	}
+
+	/**
+	 * Forgets the timeout history of the flows that expired longer than the
+	 * history timeout ago. Entries of flows that restarted are skipped
+	 */
+	private void forgetExpiredFlows() {
+		if (expiredSlots == null) {
+			return;
+		}
+		while (expiredCount > 0) {
+			int slot = expiredSlots[expiredHead];
+			long expiredAt = expiredTimes[expiredHead];
+			if (slot != -1 && segment(slot).getInt(offset(slot) + OFF_STATE) == STATE_EXPIRED
+					&& segment(slot).getLong(offset(slot) + OFF_EXPIRED_AT) == expiredAt) {
+				if (!isForgotten(expiredAt, captureTime)) {
+					break;
+				}
+				delete(slot);
+				nExpired--;
+			}
+			expiredHead = (expiredHead + 1) % expiredSlots.length;
+			expiredCount--;
+		}
+	}
+
+	/**
+	 * Forgets the timeout history of all the flows that expired longer than the
+	 * history timeout ago, wherever they are in the ring
+	 */
+	private void purgeForgottenFlows() {
+		for (int slot = 0; slot <= slotMask; slot++) {
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			if (segment.getInt(offset + OFF_STATE) == STATE_EXPIRED
+					&& isForgotten(segment.getLong(offset + OFF_EXPIRED_AT), captureTime)) {
+				delete(slot);
+				nExpired--;
+			}
+		}
+	}
+
+	/**
+	 * @return number of processed flows
+	 */
+	@Override
+	public long dumpLastFlows() {
+		// Dump remaining flows to file
+		for (int slot = 0; slot <= slotMask; slot++) {
+			ByteBuffer segment = segment(slot);
+			int offset = offset(slot);
+			if (segment.getInt(offset + OFF_STATE) == STATE_ACTIVE) {
+				dumpFlow(segment, offset);
+				flowCounter++;
+				countExport(ExportReason.END_OF_CAPTURE);
+			}
+		}
+		// Release the table
+		segments = null;
+		expiredSlots = null;
+		expiredTimes = null;
+		// Close file outputs
+		try {
+			flowWriter.close();
+			if (iatWriter != null) {
+				iatWriter.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return flowCounter;
+	}
+
+	/**
+	 * @param reason
+	 *            reason why a flow was exported
+	 */
+	private void countExport(ExportReason reason) {
+		if (metrics != null) {
+			metrics.flowExported(reason);
+		}
+	}
+
+	/**
+	 * @return number of active flows in the table
+	 */
+	@Override
+	public long getActiveFlows() {
+		return nFlows;
+	}
+
+	/**
+	 * @param metrics
+	 */
+	@Override
+	public void setMetrics(ParserMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Materializes the flow of a slot in the reused flow and writes it
+	 * 
+	 * @param segment
+	 * @param offset
+	 */
+	private void dumpFlow(ByteBuffer segment, int offset) {
+		// First packet
+		exportedKey.readFrom(segment, offset + OFF_KEY);
+		Packet packet = exportedPacket;
+		packet.reset();
+		packet.setTimestamp(segment.getLong(offset + OFF_START_TIME));
+		packet.setSize(segment.getInt(offset + OFF_SIZE));
+		packet.setEthType(segment.getInt(offset + OFF_ETH_TYPE));
+		packet.setVlanId(segment.getInt(offset + OFF_VLAN_ID));
+		packet.setIpProto(segment.getInt(offset + OFF_IP_PROTO));
+		packet.setPortSrc(segment.getInt(offset + OFF_PORT_SRC));
+		packet.setPortDst(segment.getInt(offset + OFF_PORT_DST));
+		int ethFlags = segment.getInt(offset + OFF_ETH_FLAGS);
+		if ((ethFlags & ETH_SRC_FLAG) != 0) {
+			unpack(segment.getLong(offset + OFF_ETH_SRC), packet.newEthSrc());
+		}
+		if ((ethFlags & ETH_DST_FLAG) != 0) {
+			unpack(segment.getLong(offset + OFF_ETH_DST), packet.newEthDst());
+		}
+		exportedKey.copyIpAddressesTo(packet);
+		// Flow
+		Flow flow = exportedFlow;
+		flow.setStartTime(segment.getLong(offset + OFF_START_TIME));
+		flow.setLastSeen(segment.getLong(offset + OFF_LAST_SEEN));
+		flow.setTimeAfterLastTO(segment.getLong(offset + OFF_TIME_LAST_TO));
+		flow.setPriorTOs(segment.getInt(offset + OFF_PRIOR_TOS));
+		flow.getPacketSizes().readFrom(segment, offset + OFF_SIZES);
+		flow.getPacketIATs().readFrom(segment, offset + OFF_IATS);
+		List<Integer> sizes = flow.getNFirstPacketSizes();
+		List<Long> iats = flow.getNFirstPacketIATs();
+		sizes.clear();
+		iats.clear();
+		long nFirst = Math.min(flow.getPacketSizes().getN(), nFirstPackets);
+		for (int i = 0; i < nFirst; i++) {
+			sizes.add(segment.getInt(offset + OFF_N_FIRST + i * 4));
+			iats.add(segment.getLong(offset + offNFirstIATs + i * 8));
+		}
+		try {
+			flowWriter.write(flow);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @param address
+	 *            Ethernet address
+	 * @return the bytes packed in big-endian order
+	 */
+	private static long pack(byte[] address) {
+		long value = 0;
+		for (int i = 0; i < address.length; i++) {
+			value = value << 8 | (address[i] & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * @param value
+	 *            bytes packed in big-endian order
+	 * @param address
+	 *            the array to fill with the bytes
+	 */
+	private static void unpack(long value, byte[] address) {
+		for (int i = address.length - 1; i >= 0; i--, value >>>= 8) {
+			address[i] = (byte) value;
+		}
+	}
+
+}
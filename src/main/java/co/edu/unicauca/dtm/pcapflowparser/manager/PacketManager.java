@@ -16,6 +16,14 @@
 
 package co.edu.unicauca.dtm.pcapflowparser.manager;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
 import org.jnetpcap.Pcap;
 import org.jnetpcap.nio.JMemory;
 import org.jnetpcap.packet.PcapPacket;
@@ -26,10 +34,25 @@ import org.jnetpcap.protocol.network.Ip6;
 import org.jnetpcap.protocol.tcpip.Tcp;
 import org.jnetpcap.protocol.tcpip.Udp;
 
+import co.edu.unicauca.dtm.pcapflowparser.io.CompressedInput;
+import co.edu.unicauca.dtm.pcapflowparser.io.MappedPcapReader;
+import co.edu.unicauca.dtm.pcapflowparser.io.PacketDecoder;
+import co.edu.unicauca.dtm.pcapflowparser.io.PcapRecordReader;
+import co.edu.unicauca.dtm.pcapflowparser.io.PcapngReader;
+import co.edu.unicauca.dtm.pcapflowparser.io.PeekableChannel;
+import co.edu.unicauca.dtm.pcapflowparser.io.StreamPcapReader;
 import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
 
 /**
- * 
+ * Reader of the packets of a PCAP file. The returned packet and its address
+ * arrays are reused for the next packet, and the jnetpcap headers are reused
+ * for every packet, so reading does not allocate; copy a packet (see
+ * {@link Packet#copy()}) to retain it. The Ethernet addresses can be skipped
+ * for IP packets when no exported feature reports them. Besides files, packets
+ * can be read as they arrive from the standard input ({@link #STDIN}) or from a
+ * named pipe. The NIO backend reads classic PCAP and pcapng captures, also
+ * compressed with gzip, zstd or LZ4, whose format is detected from their magic
+ * number.
  * 
  * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
  * 
@@ -37,81 +60,307 @@ import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
  * 
  * @author festradasolano
  */
-public class PacketManager {
+public class PacketManager implements PacketSource {
+
+	/**
+	 * Path that reads the PCAP stream from the standard input
+	 */
+	public static final String STDIN = "-";
+
+	/**
+	 * Backends for reading PCAP files
+	 */
+	public enum Backend {
+		/**
+		 * Reads through libpcap using the native jnetpcap library
+		 */
+		JNETPCAP("jnetpcap"),
+		/**
+		 * Reads classic PCAP files through memory-mapped Java NIO buffers, and
+		 * pcapng files block by block
+		 */
+		NIO("nio");
+
+		/**
+		 * 
+		 */
+		private final String name;
+
+		/**
+		 * @param name
+		 */
+		Backend(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @param name
+		 * @return the backend with the given name; null if it does not exist
+		 */
+		public static Backend byName(String name) {
+			for (Backend backend : Backend.values()) {
+				if (backend.getName().equalsIgnoreCase(name)) {
+					return backend;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Backend for reading PCAP files
+	 */
+	private Backend backend;
+
+	/**
+	 * Whether the Ethernet addresses are always decoded, or only for packets
+	 * without IP header, whose flow key consists of them
+	 */
+	private boolean ethAddresses;
 
 	/**
 	 * Reader of PCAP files
 	 */
 	private Pcap pcapReader;
 
+	/**
+	 * Reader of PCAP records for the NIO backend
+	 */
+	private PcapRecordReader recordReader;
+
+	/**
+	 * Decoder of packet headers for the NIO backend
+	 */
+	private PacketDecoder decoder;
+
+	/**
+	 * Packet returned by each read
+	 */
+	private Packet packet;
+
+	/**
+	 * Packet read by jnetpcap, which points to the libpcap buffer
+	 */
+	private PcapPacket readPacket;
+
+	/**
+	 * Reusable headers for decoding packets with jnetpcap
+	 */
+	private Ethernet eth;
+
+	/**
+	 * 
+	 */
+	private IEEE802dot1q dot1q;
+
+	/**
+	 * 
+	 */
+	private Ip4 ipv4;
+
+	/**
+	 * 
+	 */
+	private Ip6 ipv6;
+
+	/**
+	 * 
+	 */
+	private Tcp tcp;
+
+	/**
+	 * 
+	 */
+	private Udp udp;
+
+	/**
+	 * Constructor that reads PCAP files through jnetpcap
+	 */
+	public PacketManager() {
+		this(Backend.JNETPCAP);
+	}
+
+	/**
+	 * @param backend
+	 *            the backend for reading PCAP files
+	 */
+	public PacketManager(Backend backend) {
+		this(backend, true);
+	}
+
+	/**
+	 * @param backend
+	 *            the backend for reading PCAP files
+	 * @param ethAddresses
+	 *            whether to always decode the Ethernet addresses; if false, they
+	 *            are decoded only for packets without IP header
+	 */
+	public PacketManager(Backend backend, boolean ethAddresses) {
+		super();
+		this.backend = backend;
+		this.ethAddresses = ethAddresses;
+		packet = new Packet();
+	}
+
 	/**
 	 * @param pcapFilePath
+	 *            path of the PCAP file, of a named pipe, or {@link #STDIN}
 	 * @return
 	 */
 	public boolean config(String pcapFilePath) {
-		// Read PCAP file
+		if (backend == Backend.NIO) {
+			try {
+				File pcapFile = new File(pcapFilePath);
+				if (pcapFilePath.equals(STDIN)) {
+					recordReader = openStream(Channels.newChannel(System.in), "stdin");
+				} else if (pcapFile.exists() && !pcapFile.isFile()) {
+					// Named pipes and devices can not be mapped
+					recordReader = openStream(new FileInputStream(pcapFile).getChannel(), pcapFile.getName());
+				} else {
+					recordReader = openFile(pcapFile);
+				}
+			} catch (IOException e) {
+				System.err.println("ERROR: " + e.getMessage());
+				return false;
+			}
+			decoder = new PacketDecoder(ethAddresses);
+			return true;
+		}
+		// Read PCAP file; libpcap reads the standard input and named pipes too
 		StringBuilder errbuf = new StringBuilder(); // For any error msgs
 		pcapReader = Pcap.openOffline(pcapFilePath, errbuf);
 		if (pcapReader == null) {
 			System.err.println("ERROR: " + errbuf);
 			return false;
 		}
+		readPacket = new PcapPacket(JMemory.POINTER);
+		eth = new Ethernet();
+		dot1q = new IEEE802dot1q();
+		ipv4 = new Ip4();
+		ipv6 = new Ip6();
+		tcp = new Tcp();
+		udp = new Udp();
 		return true;
 	}
 
 	/**
-	 * @return
+	 * Opens a reader of a capture file: classic PCAP files are mapped, and
+	 * pcapng and compressed files are streamed
+	 * 
+	 * @param pcapFile
+	 * @return the reader of the file
+	 * @throws IOException
+	 *             if the file can not be read or is not a capture
+	 */
+	private static PcapRecordReader openFile(File pcapFile) throws IOException {
+		FileChannel channel = new FileInputStream(pcapFile).getChannel();
+		try {
+			// Positional reads do not move the channel
+			ByteBuffer magic = ByteBuffer.allocate(4);
+			if (channel.read(magic, 0) == 4
+					&& (magic.getInt(0) == PcapngReader.MAGIC || CompressedInput.isCompressed(magic.getInt(0)))) {
+				return openStream(channel, pcapFile.getName());
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		channel.close();
+		return new MappedPcapReader(pcapFile);
+	}
+
+	/**
+	 * Opens a reader of a capture stream, whose format is detected from its
+	 * magic number. Compressed streams are decompressed ahead in their own
+	 * thread, and the format of their content is detected in turn
+	 * 
+	 * @param channel
+	 *            the channel of the stream
+	 * @param name
+	 *            the name of the stream for error messages
+	 * @return the reader of the stream
+	 * @throws IOException
+	 *             if the stream can not be read or is not a capture
+	 */
+	private static PcapRecordReader openStream(ReadableByteChannel channel, String name) throws IOException {
+		PeekableChannel input = new PeekableChannel(channel, 4);
+		int magic;
+		try {
+			magic = input.peekInt();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		if (magic == PcapngReader.MAGIC) {
+			return new PcapngReader(input, name);
+		}
+		if (CompressedInput.isCompressed(magic)) {
+			return openStream(CompressedInput.open(input, name), name);
+		}
+		return new StreamPcapReader(input, name);
+	}
+
+	/**
+	 * @return the next packet, which is reused by the next read; a packet with
+	 *         timestamp -1 at the end of file; null if the packet can not be read
 	 */
 	public Packet nextPacket() {
-		PcapPacket readPacket = new PcapPacket(JMemory.POINTER);
+		packet.reset();
+		if (backend == Backend.NIO) {
+			return nextRecordPacket();
+		}
 		try {
-			Packet packet = new Packet();
-			// Read next available packet from libpcap
+			// Read next available packet from libpcap; it points to the libpcap
+			// buffer until the next read
 			int readStatus = pcapReader.nextEx(readPacket);
 			if (readStatus == Pcap.NEXT_EX_OK) {
-				PcapPacket pcapPacket = new PcapPacket(readPacket);
 				// Timestamp and size
-				packet.setTimestamp(pcapPacket.getCaptureHeader().timestampInMicros());
-				packet.setSize(pcapPacket.getPacketWirelen());
-				// Ethernet
-				Ethernet eth = new Ethernet();
-				if (pcapPacket.hasHeader(eth)) {
-					packet.setEthSrc(eth.source());
-					packet.setEthDst(eth.destination());
+				packet.setTimestamp(readPacket.getCaptureHeader().timestampInMicros());
+				packet.setSize(readPacket.getPacketWirelen());
+				// Ethernet; addresses are decoded after knowing whether they are needed
+				boolean hasEth = readPacket.hasHeader(eth);
+				if (hasEth) {
 					packet.setEthType(eth.type());
 				}
 				// IEEE 802.1Q
-				IEEE802dot1q dot1q = new IEEE802dot1q();
-				if (pcapPacket.hasHeader(dot1q)) {
+				if (readPacket.hasHeader(dot1q)) {
 					packet.setVlanId(dot1q.id());
 					packet.setEthType(dot1q.type());
 				}
 				// IPv4
-				Ip4 ipv4 = new Ip4();
-				if (pcapPacket.hasHeader(ipv4)) {
-					packet.setIpSrc(ipv4.source());
-					packet.setIpDst(ipv4.destination());
+				if (readPacket.hasHeader(ipv4)) {
+					ipv4.sourceToByteArray(packet.newIpSrc(4));
+					ipv4.destinationToByteArray(packet.newIpDst(4));
 					packet.setIpProto(ipv4.type());
 				}
 				// IPv6
-				Ip6 ipv6 = new Ip6();
-				if (pcapPacket.hasHeader(ipv6)) {
-					packet.setIpSrc(ipv6.source());
-					packet.setIpDst(ipv6.destination());
+				if (readPacket.hasHeader(ipv6)) {
+					ipv6.sourceToByteArray(packet.newIpSrc(16));
+					ipv6.destinationToByteArray(packet.newIpDst(16));
 					packet.setIpProto(ipv6.next());
 				}
 				// TCP
-				Tcp tcp = new Tcp();
-				if (pcapPacket.hasHeader(tcp)) {
+				if (readPacket.hasHeader(tcp)) {
 					packet.setPortSrc(tcp.source());
 					packet.setPortDst(tcp.destination());
 				}
 				// UDP
-				Udp udp = new Udp();
-				if (pcapPacket.hasHeader(udp)) {
+				if (readPacket.hasHeader(udp)) {
 					packet.setPortSrc(udp.source());
 					packet.setPortDst(udp.destination());
 				}
+				// Ethernet addresses
+				if (hasEth && (ethAddresses || packet.getIpSrc() == null)) {
+					eth.sourceToByteArray(packet.newEthSrc());
+					eth.destinationToByteArray(packet.newEthDst());
+				}
 				return packet;
 			} else if (readStatus == Pcap.NEXT_EX_EOF) {
 				// End of file
@@ -126,4 +375,48 @@ public class PacketManager {
 		}
 	}
 
+	/**
+	 * Reads and decodes the next packet with the NIO backend
+	 * 
+	 * @return the next packet; a packet with timestamp -1 at the end of file; null
+	 *         if the packet can not be read
+	 */
+	private Packet nextRecordPacket() {
+		try {
+			if (!recordReader.next()) {
+				// End of file
+				packet.setTimestamp(-1);
+				return packet;
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR: " + e.getMessage());
+			return null;
+		}
+		// Timestamp and size
+		packet.setTimestamp(recordReader.getTimestamp());
+		packet.setSize(recordReader.getWireLength());
+		// Headers
+		decoder.decode(recordReader.getLinkType(), recordReader.getData(), recordReader.getDataOffset(),
+				recordReader.getCaptureLength(), packet);
+		return packet;
+	}
+
+	/**
+	 * Releases the reader of the PCAP file
+	 */
+	public void close() {
+		if (pcapReader != null) {
+			pcapReader.close();
+			pcapReader = null;
+		}
+		if (recordReader != null) {
+			try {
+				recordReader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			recordReader = null;
+		}
+	}
+
 }
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Source that reads several PCAP files at once and merges their packets in
+ * timestamp order, using a min-heap over the next packet of each file. Packets
+ * with the same timestamp are taken in the order of the files.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class PacketMerger implements PacketSource {
+
+	/**
+	 * Position of the merge in a PCAP file
+	 */
+	private static class Cursor {
+
+		/**
+		 * Order of the file
+		 */
+		private final int index;
+
+		/**
+		 * Name of the file
+		 */
+		private final String name;
+
+		/**
+		 * Reader of the file
+		 */
+		private final PacketManager packetMgr;
+
+		/**
+		 * Next packet of the file
+		 */
+		private Packet head;
+
+		/**
+		 * @param index
+		 * @param name
+		 * @param packetMgr
+		 */
+		private Cursor(int index, String name, PacketManager packetMgr) {
+			this.index = index;
+			this.name = name;
+			this.packetMgr = packetMgr;
+		}
+	}
+
+	/**
+	 * Backend for reading PCAP files
+	 */
+	private PacketManager.Backend backend;
+
+	/**
+	 * Whether the Ethernet addresses are always decoded
+	 */
+	private boolean ethAddresses;
+
+	/**
+	 * Cursors ordered by the timestamp of their next packet
+	 */
+	private PriorityQueue<Cursor> heap;
+
+	/**
+	 * Cursors whose next packet must be read before taking the next packet from
+	 * the heap
+	 */
+	private List<Cursor> pending;
+
+	/**
+	 * @param backend
+	 *            the backend for reading PCAP files
+	 */
+	public PacketMerger(PacketManager.Backend backend) {
+		this(backend, true);
+	}
+
+	/**
+	 * @param backend
+	 *            the backend for reading PCAP files
+	 * @param ethAddresses
+	 *            whether to always decode the Ethernet addresses; if false, they
+	 *            are decoded only for packets without IP header
+	 */
+	public PacketMerger(PacketManager.Backend backend, boolean ethAddresses) {
+		super();
+		this.backend = backend;
+		this.ethAddresses = ethAddresses;
+		heap = new PriorityQueue<Cursor>(16, new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor c1, Cursor c2) {
+				int order = Long.compare(c1.head.getTimestamp(), c2.head.getTimestamp());
+				return order != 0 ? order : Integer.compare(c1.index, c2.index);
+			}
+		});
+		pending = new ArrayList<Cursor>();
+	}
+
+	/**
+	 * Opens the PCAP files to merge
+	 * 
+	 * @param pcapFiles
+	 * @return number of files that were opened
+	 */
+	public int config(File[] pcapFiles) {
+		int nOpened = 0;
+		for (int i = 0; i < pcapFiles.length; i++) {
+			PacketManager packetMgr = new PacketManager(backend, ethAddresses);
+			if (!packetMgr.config(pcapFiles[i].getAbsolutePath())) {
+				System.err.println("Error while opening file: " + pcapFiles[i].getName());
+			} else {
+				pending.add(new Cursor(i, pcapFiles[i].getName(), packetMgr));
+				nOpened++;
+			}
+		}
+		return nOpened;
+	}
+
+	@Override
+	public Packet nextPacket() {
+		// Read the next packet of the files whose packet was taken
+		while (!pending.isEmpty()) {
+			Cursor cursor = pending.get(pending.size() - 1);
+			Packet packet = cursor.packetMgr.nextPacket();
+			if (packet == null) {
+				return null;
+			}
+			pending.remove(pending.size() - 1);
+			if (packet.getTimestamp() == -1) {
+				System.out.println("\t... end of file: '" + cursor.name + "'");
+				cursor.packetMgr.close();
+			} else {
+				cursor.head = packet;
+				heap.add(cursor);
+			}
+		}
+		// Take the packet with the lowest timestamp
+		Cursor cursor = heap.poll();
+		if (cursor == null) {
+			Packet packet = new Packet();
+			packet.setTimestamp(-1);
+			return packet;
+		}
+		pending.add(cursor);
+		Packet packet = cursor.head;
+		cursor.head = null;
+		return packet;
+	}
+
+	@Override
+	public void close() {
+		for (Cursor cursor : pending) {
+			cursor.packetMgr.close();
+		}
+		for (Cursor cursor : heap) {
+			cursor.packetMgr.close();
+		}
+		pending.clear();
+		heap.clear();
+	}
+
+}
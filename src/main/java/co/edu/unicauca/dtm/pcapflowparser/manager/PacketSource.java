@@ -0,0 +1,43 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Source of decoded packets.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface PacketSource {
+
+	/**
+	 * @return the next packet; a packet with timestamp -1 at the end of the
+	 *         source; null if the packet can not be read
+	 */
+	Packet nextPacket();
+
+	/**
+	 * Releases the readers of the source
+	 */
+	void close();
+
+}
@@ -0,0 +1,422 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.manager;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import co.edu.unicauca.dtm.pcapflowparser.io.FlowWriter;
+import co.edu.unicauca.dtm.pcapflowparser.io.PacketIATWriter;
+import co.edu.unicauca.dtm.pcapflowparser.metrics.ParserMetrics;
+import co.edu.unicauca.dtm.pcapflowparser.model.FlowKey;
+import co.edu.unicauca.dtm.pcapflowparser.model.Packet;
+
+/**
+ * Aggregator that distributes packets among several flow managers by the hash
+ * of their flow key. Each flow manager (shard) runs in its own thread and owns
+ * its flows and timeouts, so packets of a flow are always processed by the same
+ * thread in capture order and no locks are needed on the packet path. The
+ * shards write their flows to the same flow writer.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ShardedFlowManager implements FlowAggregator {
+
+	/**
+	 * Number of packets handed over to a shard at once
+	 */
+	private static final int BATCH_SIZE = 1024;
+
+	/**
+	 * Number of batches that can be queued for each shard
+	 */
+	private static final int QUEUE_SIZE = 64;
+
+	/**
+	 * Batch of packets handed over to a shard. Batches return to the dispatcher
+	 * once processed, and their packets are reused
+	 */
+	private static class Batch {
+
+		/**
+		 * Copies of the packets
+		 */
+		private final Packet[] packets;
+
+		/**
+		 * Number of packets in the batch
+		 */
+		private int size;
+
+		/**
+		 * @param capacity
+		 */
+		private Batch(int capacity) {
+			packets = new Packet[capacity];
+			for (int i = 0; i < capacity; i++) {
+				packets[i] = new Packet();
+			}
+			size = 0;
+		}
+	}
+
+	/**
+	 * Batch that signals a shard to finish
+	 */
+	private static final Batch END_OF_PACKETS = new Batch(0);
+
+	/**
+	 * Flow manager of each shard
+	 */
+	private FlowManager[] shards;
+
+	/**
+	 * Queue of batches of each shard
+	 */
+	private List<BlockingQueue<Batch>> queues;
+
+	/**
+	 * Processed batches of each shard available for reuse
+	 */
+	private List<BlockingQueue<Batch>> freeBatches;
+
+	/**
+	 * Batch being filled for each shard
+	 */
+	private Batch[] batches;
+
+	/**
+	 * Thread of each shard
+	 */
+	private Thread[] threads;
+
+	/**
+	 * Reusable key for computing the shard of each packet
+	 */
+	private FlowKey flowKey;
+
+	/**
+	 * Shared writer of the flows
+	 */
+	private FlowWriter flowWriter;
+
+	/**
+	 * Shared writer of the packet IAT report; null if the report is not
+	 * generated
+	 */
+	private PacketIATWriter iatWriter;
+
+	/**
+	 * Whether both directions of a flow are aggregated in a single flow
+	 */
+	private boolean bidirectional;
+
+	/**
+	 * First error thrown by a shard
+	 */
+	private volatile Throwable failure;
+
+	/**
+	 * @param nShards
+	 *            number of shards
+	 * @param flowWriter
+	 *            writer of the flows shared by the shards
+	 * @param iatWriter
+	 *            writer of the packet IAT report shared by the shards; null if
+	 *            the report is not generated
+	 * @param flowActiveTimeout
+	 * @param flowIdleTimeout
+	 * @param flowHistoryTimeout
+	 * @param features
+	 * @param nFirstPackets
+	 */
+	public ShardedFlowManager(int nShards, FlowWriter flowWriter, PacketIATWriter iatWriter,
+			int flowActiveTimeout, int flowIdleTimeout, int flowHistoryTimeout, Set<Integer> features,
+			int nFirstPackets) {
+		super();
+		this.flowWriter = flowWriter;
+		this.iatWriter = iatWriter;
+		// Create and start shards
+		shards = new FlowManager[nShards];
+		queues = new ArrayList<BlockingQueue<Batch>>(nShards);
+		freeBatches = new ArrayList<BlockingQueue<Batch>>(nShards);
+		batches = new Batch[nShards];
+		threads = new Thread[nShards];
+		for (int i = 0; i < nShards; i++) {
+			shards[i] = new FlowManager(flowWriter, iatWriter, flowActiveTimeout, flowIdleTimeout,
+					flowHistoryTimeout, features, nFirstPackets);
+			queues.add(new ArrayBlockingQueue<Batch>(QUEUE_SIZE + 1));
+			// Batches are allocated as needed, up to one being filled and a full queue
+			freeBatches.add(new ArrayBlockingQueue<Batch>(QUEUE_SIZE + 1));
+			batches[i] = new Batch(BATCH_SIZE);
+			threads[i] = new Thread(new Shard(shards[i], queues.get(i), freeBatches.get(i)),
+					"FlowManager-shard-" + i);
+			threads[i].start();
+		}
+		flowKey = new FlowKey();
+	}
+
+	/**
+	 * Aggregates both directions of a flow in a single flow in all shards (see
+	 * {@link FlowManager#setBidirectional(boolean)}), so packets are mapped to
+	 * shards by their canonical key. Must be called before adding packets and
+	 * setting the memory budget
+	 * 
+	 * @param bidirectional
+	 */
+	public void setBidirectional(boolean bidirectional) {
+		this.bidirectional = bidirectional;
+		for (FlowManager shard : shards) {
+			shard.setBidirectional(bidirectional);
+		}
+	}
+
+	/**
+	 * Limits the memory of the flows of each shard to an equal part of the
+	 * budget (see {@link FlowManager#setMemoryBudget(long, File)}). Must be
+	 * called before adding packets
+	 * 
+	 * @param budget
+	 *            memory budget in bytes of the flows of all shards
+	 * @param spillFile
+	 *            the spill file, to which the number of each shard is appended
+	 * @throws IOException
+	 *             if a spill file can not be created
+	 */
+	public void setMemoryBudget(long budget, File spillFile) throws IOException {
+		for (int i = 0; i < shards.length; i++) {
+			shards[i].setMemoryBudget(budget / shards.length, new File(spillFile.getPath() + "." + i));
+		}
+	}
+
+	/**
+	 * @return the maximum number of flows kept in memory by all shards; 0 if
+	 *         flows are never spilled
+	 */
+	public long getMaxFlows() {
+		long maxFlows = 0;
+		for (FlowManager shard : shards) {
+			maxFlows += shard.getMaxFlows();
+		}
+		return maxFlows;
+	}
+
+	/**
+	 * @return number of active flows of all shards
+	 */
+	@Override
+	public long getActiveFlows() {
+		long activeFlows = 0;
+		for (FlowManager shard : shards) {
+			activeFlows += shard.getActiveFlows();
+		}
+		return activeFlows;
+	}
+
+	/**
+	 * Sets the metrics of all shards. Must be called before adding packets
+	 * 
+	 * @param metrics
+	 */
+	@Override
+	public void setMetrics(ParserMetrics metrics) {
+		for (FlowManager shard : shards) {
+			shard.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Copies the packet into the batch of its shard, since the reader reuses
+	 * the packet
+	 * 
+	 * @param packet
+	 */
+	@Override
+	public void addPacket(Packet packet) {
+		// Map the hash of the flow key to a shard using its upper bits
+		if (bidirectional) {
+			flowKey.setCanonical(packet);
+		} else {
+			flowKey.set(packet);
+		}
+		int hash = flowKey.hashCode();
+		int shard = (int) (((hash & 0xFFFFFFFFL) * shards.length) >>> 32);
+		Batch batch = batches[shard];
+		batch.packets[batch.size++].copyFrom(packet);
+		if (batch.size == BATCH_SIZE) {
+			handOver(shard, batch);
+			batches[shard] = nextBatch(shard);
+		}
+	}
+
+	/**
+	 * Queues a batch of packets for a shard, waiting while the queue is full
+	 * 
+	 * @param shard
+	 * @param batch
+	 */
+	private void handOver(int shard, Batch batch) {
+		try {
+			while (!queues.get(shard).offer(batch, 100, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while handing packets over to a shard", e);
+		}
+	}
+
+	/**
+	 * Takes a processed batch of a shard for reuse, or allocates one while the
+	 * shard has few batches
+	 * 
+	 * @param shard
+	 * @return an empty batch
+	 */
+	private Batch nextBatch(int shard) {
+		Batch batch = freeBatches.get(shard).poll();
+		if (batch != null) {
+			return batch;
+		}
+		if (queues.get(shard).size() < QUEUE_SIZE) {
+			return new Batch(BATCH_SIZE);
+		}
+		try {
+			while ((batch = freeBatches.get(shard).poll(100, TimeUnit.MILLISECONDS)) == null) {
+				checkFailure();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for a shard", e);
+		}
+		return batch;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if a shard failed
+	 */
+	private void checkFailure() {
+		if (failure != null) {
+			throw new IllegalStateException("Flow manager shard failed", failure);
+		}
+	}
+
+	/**
+	 * @return number of processed flows
+	 */
+	@Override
+	public long dumpLastFlows() {
+		// Hand over the last packets and signal the end to all shards
+		for (int i = 0; i < shards.length; i++) {
+			if (batches[i].size > 0) {
+				handOver(i, batches[i]);
+				batches[i] = null;
+			}
+			handOver(i, END_OF_PACKETS);
+		}
+		// Wait for the shards to dump their remaining flows
+		long flowCounter = 0;
+		for (int i = 0; i < shards.length; i++) {
+			try {
+				threads[i].join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flowCounter += shards[i].getFlowCounter();
+		}
+		if (failure != null) {
+			failure.printStackTrace();
+		}
+		// Close file outputs
+		try {
+			flowWriter.close();
+			if (iatWriter != null) {
+				iatWriter.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return flowCounter;
+	}
+
+	/**
+	 * Task of a shard, which processes batches of packets until the end is
+	 * signaled and then dumps its remaining flows
+	 */
+	private class Shard implements Runnable {
+
+		/**
+		 * Flow manager of the shard
+		 */
+		private final FlowManager flowManager;
+
+		/**
+		 * Queue of batches of the shard
+		 */
+		private final BlockingQueue<Batch> queue;
+
+		/**
+		 * Processed batches returned for reuse
+		 */
+		private final BlockingQueue<Batch> freeBatches;
+
+		/**
+		 * @param flowManager
+		 * @param queue
+		 * @param freeBatches
+		 */
+		private Shard(FlowManager flowManager, BlockingQueue<Batch> queue, BlockingQueue<Batch> freeBatches) {
+			this.flowManager = flowManager;
+			this.queue = queue;
+			this.freeBatches = freeBatches;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					Batch batch = queue.take();
+					if (batch == END_OF_PACKETS) {
+						break;
+					}
+					for (int i = 0; i < batch.size; i++) {
+						flowManager.addPacket(batch.packets[i]);
+					}
+					batch.size = 0;
+					freeBatches.offer(batch);
+				}
+				flowManager.dumpRemainingFlows();
+			} catch (Throwable t) {
+				if (failure == null) {
+					failure = t;
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,375 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.metrics;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import co.edu.unicauca.dtm.pcapflowparser.manager.FlowAggregator;
+
+/**
+ * Live metrics of a parsing run, registered as a JMX MBean and optionally
+ * printed as a periodic progress line. The reading thread publishes its packet
+ * counters in batches (see {@link #updatePackets(long, long, long, long)}), so
+ * the packet path is not slowed down, while flow managers of any thread count
+ * exported flows by reason.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class ParserMetrics implements ParserMetricsMBean {
+
+	/**
+	 * Name of the MBean
+	 */
+	public static final String OBJECT_NAME = "co.edu.unicauca.dtm.pcapflowparser:type=ParserMetrics";
+
+	/**
+	 * Reason why a flow is exported
+	 */
+	public enum ExportReason {
+		/**
+		 * The flow lasted longer than the active timeout
+		 */
+		ACTIVE_TIMEOUT,
+		/**
+		 * The flow was idle longer than the idle timeout
+		 */
+		IDLE_TIMEOUT,
+		/**
+		 * The capture ended
+		 */
+		END_OF_CAPTURE
+	}
+
+	/**
+	 * Interval in milliseconds between samples of the rates
+	 */
+	private static final long SAMPLE_INTERVAL = 1000;
+
+	/**
+	 * 
+	 */
+	private volatile long packets;
+
+	/**
+	 * 
+	 */
+	private volatile long errorPackets;
+
+	/**
+	 * 
+	 */
+	private volatile long bytes;
+
+	/**
+	 * 
+	 */
+	private volatile long captureTime = -1;
+
+	/**
+	 * 
+	 */
+	private volatile double packetsPerSecond;
+
+	/**
+	 * 
+	 */
+	private volatile double bytesPerSecond;
+
+	/**
+	 * Exported flows by reason
+	 */
+	private final LongAdder[] exported;
+
+	/**
+	 * Flow manager whose flows are counted; null until set
+	 */
+	private volatile FlowAggregator flowManager;
+
+	/**
+	 * Output files whose sizes are counted
+	 */
+	private final File[] outputFiles;
+
+	/**
+	 * Interval in seconds between progress lines; 0 prints none
+	 */
+	private final int progressInterval;
+
+	/**
+	 * Time in milliseconds when the metrics started
+	 */
+	private long startTime;
+
+	/**
+	 * Thread that samples the rates and prints the progress lines
+	 */
+	private Thread sampler;
+
+	/**
+	 * Name under which the MBean is registered; null if it is not
+	 */
+	private ObjectName objectName;
+
+	/**
+	 * @param outputFiles
+	 *            output files whose sizes are reported; null entries are skipped
+	 * @param progressInterval
+	 *            interval in seconds between progress lines; 0 prints none
+	 */
+	public ParserMetrics(File[] outputFiles, int progressInterval) {
+		super();
+		this.outputFiles = outputFiles;
+		this.progressInterval = progressInterval;
+		exported = new LongAdder[ExportReason.values().length];
+		for (int i = 0; i < exported.length; i++) {
+			exported[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Registers the MBean and starts sampling the rates. A failed registration
+	 * is reported, and the progress lines are printed anyway
+	 */
+	public void start() {
+		startTime = System.currentTimeMillis();
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch (JMException e) {
+			System.err.println("Error registering the metrics MBean: " + e.getMessage());
+		}
+		sampler = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				sample();
+			}
+		}, "ParserMetrics-sampler");
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	/**
+	 * Stops sampling and unregisters the MBean
+	 */
+	public void stop() {
+		if (sampler != null) {
+			sampler.interrupt();
+			try {
+				sampler.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			sampler = null;
+		}
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (JMException e) {
+				// Already unregistered
+			}
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Samples the rates every second and prints the progress lines, until
+	 * interrupted
+	 */
+	private void sample() {
+		long lastPackets = packets;
+		long lastBytes = bytes;
+		long lastTime = System.nanoTime();
+		long nextProgress = progressInterval * 1000L;
+		long elapsed = 0;
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(SAMPLE_INTERVAL);
+			} catch (InterruptedException e) {
+				break;
+			}
+			long now = System.nanoTime();
+			double seconds = (now - lastTime) / 1e9;
+			long currentPackets = packets;
+			long currentBytes = bytes;
+			packetsPerSecond = (currentPackets - lastPackets) / seconds;
+			bytesPerSecond = (currentBytes - lastBytes) / seconds;
+			lastPackets = currentPackets;
+			lastBytes = currentBytes;
+			lastTime = now;
+			elapsed += SAMPLE_INTERVAL;
+			if (progressInterval > 0 && elapsed >= nextProgress) {
+				System.out.println(progressLine());
+				nextProgress += progressInterval * 1000L;
+			}
+		}
+	}
+
+	/**
+	 * @return a line that summarizes the metrics
+	 */
+	public String progressLine() {
+		Runtime runtime = Runtime.getRuntime();
+		long heapUsed = (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024);
+		StringBuilder line = new StringBuilder();
+		line.append("Progress: ").append((System.currentTimeMillis() - startTime) / 1000).append(" s");
+		line.append(" | packets ").append(packets);
+		line.append(" (").append(Math.round(packetsPerSecond)).append(" pkt/s, ");
+		line.append(String.format("%.1f", bytesPerSecond * 8 / 1e6)).append(" Mbit/s)");
+		line.append(" | errors ").append(errorPackets);
+		line.append(" | active flows ").append(getActiveFlows());
+		line.append(" | exported ").append(getFlowsExported());
+		line.append(" (active TO ").append(getActiveTimeouts());
+		line.append(", idle TO ").append(getIdleTimeouts()).append(")");
+		line.append(" | output ").append(getOutputBytes() / (1024 * 1024)).append(" MB");
+		line.append(" | capture ").append(getCaptureDate());
+		line.append(" | heap ").append(heapUsed).append("/").append(runtime.maxMemory() / (1024 * 1024))
+				.append(" MB");
+		return line.toString();
+	}
+
+	/**
+	 * Publishes the packet counters of the reading thread
+	 * 
+	 * @param packets
+	 *            number of read packets
+	 * @param errorPackets
+	 *            number of packets that could not be read
+	 * @param bytes
+	 *            number of bytes on the wire
+	 * @param captureTime
+	 *            capture time in microseconds of the latest packet
+	 */
+	public void updatePackets(long packets, long errorPackets, long bytes, long captureTime) {
+		this.packets = packets;
+		this.errorPackets = errorPackets;
+		this.bytes = bytes;
+		this.captureTime = captureTime;
+	}
+
+	/**
+	 * Counts an exported flow; thread-safe
+	 * 
+	 * @param reason
+	 */
+	public void flowExported(ExportReason reason) {
+		exported[reason.ordinal()].increment();
+	}
+
+	/**
+	 * @param flowManager
+	 *            the flow manager whose flows are counted
+	 */
+	public void setFlowManager(FlowAggregator flowManager) {
+		this.flowManager = flowManager;
+	}
+
+	@Override
+	public long getPackets() {
+		return packets;
+	}
+
+	@Override
+	public long getErrorPackets() {
+		return errorPackets;
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public double getPacketsPerSecond() {
+		return packetsPerSecond;
+	}
+
+	@Override
+	public double getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	@Override
+	public long getActiveFlows() {
+		FlowAggregator manager = flowManager;
+		return manager != null ? manager.getActiveFlows() : 0;
+	}
+
+	@Override
+	public long getFlowsExported() {
+		long flows = 0;
+		for (LongAdder count : exported) {
+			flows += count.sum();
+		}
+		return flows;
+	}
+
+	@Override
+	public long getActiveTimeouts() {
+		return exported[ExportReason.ACTIVE_TIMEOUT.ordinal()].sum();
+	}
+
+	@Override
+	public long getIdleTimeouts() {
+		return exported[ExportReason.IDLE_TIMEOUT.ordinal()].sum();
+	}
+
+	@Override
+	public long getEndOfCaptureFlows() {
+		return exported[ExportReason.END_OF_CAPTURE.ordinal()].sum();
+	}
+
+	@Override
+	public long getOutputBytes() {
+		long size = 0;
+		for (File file : outputFiles) {
+			if (file != null) {
+				size += file.length();
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public long getCaptureTime() {
+		return captureTime;
+	}
+
+	@Override
+	public String getCaptureDate() {
+		long time = captureTime;
+		if (time < 0) {
+			return "";
+		}
+		return Instant.ofEpochSecond(time / 1000000, (time % 1000000) * 1000).toString();
+	}
+
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package co.edu.unicauca.dtm.pcapflowparser.metrics;
+
+/**
+ * Management interface of the parser metrics, exposed through JMX as
+ * {@value ParserMetrics#OBJECT_NAME}. Counters are cumulative since the start
+ * of the run; rates are measured over the last second.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public interface ParserMetricsMBean {
+
+	/**
+	 * @return number of read packets, including those with errors
+	 */
+	long getPackets();
+
+	/**
+	 * @return number of packets that could not be read
+	 */
+	long getErrorPackets();
+
+	/**
+	 * @return number of bytes on the wire of the read packets
+	 */
+	long getBytes();
+
+	/**
+	 * @return packets read per second
+	 */
+	double getPacketsPerSecond();
+
+	/**
+	 * @return bytes on the wire read per second
+	 */
+	double getBytesPerSecond();
+
+	/**
+	 * @return number of flows held by the flow manager
+	 */
+	long getActiveFlows();
+
+	/**
+	 * @return number of exported flows
+	 */
+	long getFlowsExported();
+
+	/**
+	 * @return number of flows exported due to the active timeout
+	 */
+	long getActiveTimeouts();
+
+	/**
+	 * @return number of flows exported due to the idle timeout
+	 */
+	long getIdleTimeouts();
+
+	/**
+	 * @return number of flows exported at the end of the capture
+	 */
+	long getEndOfCaptureFlows();
+
+	/**
+	 * @return number of bytes written to the output files
+	 */
+	long getOutputBytes();
+
+	/**
+	 * @return capture time in microseconds since the epoch of the latest packet;
+	 *         -1 before the first packet
+	 */
+	long getCaptureTime();
+
+	/**
+	 * @return capture time of the latest packet in ISO-8601 format; empty before
+	 *         the first packet
+	 */
+	String getCaptureDate();
+
+}
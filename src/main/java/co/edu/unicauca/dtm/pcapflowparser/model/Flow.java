@@ -16,12 +16,13 @@
 
 package co.edu.unicauca.dtm.pcapflowparser.model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
-
 /**
  * 
  * 
@@ -51,12 +52,12 @@ public class Flow {
 	/**
 	 * Summary statistics of the size in bytes of packets
 	 */
-	private SummaryStatistics packetSizes;
+	private FlowStatistics packetSizes;
 
 	/**
 	 * Summary statistics of the inter-arrival time in microseconds of packets
 	 */
-	private SummaryStatistics packetIATs;
+	private FlowStatistics packetIATs;
 
 	/**
 	 * Number of prior timeouts
@@ -78,6 +79,69 @@ public class Flow {
 	 */
 	private List<Long> nFirstPacketIATs;
 
+	/**
+	 * Statistics of a direction without packets
+	 */
+	private static final FlowStatistics NO_PACKETS = new FlowStatistics();
+
+	/**
+	 * Whether the canonical key of a bidirectional flow lists its endpoints in
+	 * the reverse order of the first packet
+	 */
+	private boolean reverseKey;
+
+	/**
+	 * Summary statistics of the size in bytes of packets in the forward
+	 * direction, i.e., that of the first packet; null unless the flow is
+	 * bidirectional
+	 */
+	private FlowStatistics fwdPacketSizes;
+
+	/**
+	 * Summary statistics of the inter-arrival time in microseconds of packets in
+	 * the forward direction; null unless the flow is bidirectional
+	 */
+	private FlowStatistics fwdPacketIATs;
+
+	/**
+	 * Summary statistics of the size in bytes of packets in the backward
+	 * direction; null unless the flow is bidirectional
+	 */
+	private FlowStatistics bwdPacketSizes;
+
+	/**
+	 * Summary statistics of the inter-arrival time in microseconds of packets in
+	 * the backward direction; null unless the flow is bidirectional
+	 */
+	private FlowStatistics bwdPacketIATs;
+
+	/**
+	 * Last seen in microseconds of the forward direction
+	 */
+	private long fwdLastSeen;
+
+	/**
+	 * Last seen in microseconds of the backward direction
+	 */
+	private long bwdLastSeen;
+
+	/**
+	 * Sketch of the quantiles of the packet sizes; null unless quantiles are
+	 * kept
+	 */
+	private QuantileSketch packetSizeSketch;
+
+	/**
+	 * Sketch of the quantiles of the packet IATs; null unless quantiles are kept
+	 */
+	private QuantileSketch packetIATSketch;
+
+	/**
+	 * Index of the flow in the packet IAT report; -1 if it has not been written
+	 * yet. It is not serialized, so a flow read back gets a new index
+	 */
+	private long iatIndex = -1;
+
 	/**
 	 * 
 	 */
@@ -109,12 +173,13 @@ public class Flow {
 	 * @param firstPacket
 	 */
 	private void initialize(Packet firstPacket) {
-		this.firstPacket = firstPacket;
+		// Keep a copy, since readers reuse packets
+		this.firstPacket = firstPacket.copy();
 		startTime = firstPacket.getTimestamp();
 		lastSeen = firstPacket.getTimestamp();
-		packetSizes = new SummaryStatistics();
+		packetSizes = new FlowStatistics();
 		packetSizes.addValue(firstPacket.getSize());
-		packetIATs = new SummaryStatistics();
+		packetIATs = new FlowStatistics();
 		nFirstPacketSizes = new ArrayList<Integer>();
 		nFirstPacketSizes.add(firstPacket.getSize());
 		nFirstPacketIATs = new ArrayList<Long>();
@@ -168,10 +233,26 @@ public class Flow {
 		this.lastSeen = lastSeen;
 	}
 
+	/**
+	 * @return the index of the flow in the packet IAT report; -1 if it has not
+	 *         been written yet
+	 */
+	public long getIatIndex() {
+		return iatIndex;
+	}
+
+	/**
+	 * @param iatIndex
+	 *            the index of the flow in the packet IAT report
+	 */
+	public void setIatIndex(long iatIndex) {
+		this.iatIndex = iatIndex;
+	}
+
 	/**
 	 * @return the packetSizes
 	 */
-	public SummaryStatistics getPacketSizes() {
+	public FlowStatistics getPacketSizes() {
 		return packetSizes;
 	}
 
@@ -179,7 +260,7 @@ public class Flow {
 	 * @param packetSizes
 	 *            the packetSizes to set
 	 */
-	public void setPacketSizes(SummaryStatistics packetSizes) {
+	public void setPacketSizes(FlowStatistics packetSizes) {
 		this.packetSizes = packetSizes;
 	}
 
@@ -189,6 +270,9 @@ public class Flow {
 	 */
 	public void addPacketSize(int packetSize, int nFirstPackets) {
 		packetSizes.addValue(packetSize);
+		if (packetSizeSketch != null) {
+			packetSizeSketch.addValue(packetSize);
+		}
 		if (nFirstPacketSizes.size() < nFirstPackets) {
 			nFirstPacketSizes.add(packetSize);
 		}
@@ -197,7 +281,7 @@ public class Flow {
 	/**
 	 * @return the packetIATs
 	 */
-	public SummaryStatistics getPacketIATs() {
+	public FlowStatistics getPacketIATs() {
 		return packetIATs;
 	}
 
@@ -205,7 +289,7 @@ public class Flow {
 	 * @param packetIATs
 	 *            the packetIATs to set
 	 */
-	public void setPacketIATs(SummaryStatistics packetIATs) {
+	public void setPacketIATs(FlowStatistics packetIATs) {
 		this.packetIATs = packetIATs;
 	}
 
@@ -215,11 +299,160 @@ public class Flow {
 	 */
 	public void addPacketIAT(long packetIAT, int nFirstPackets) {
 		packetIATs.addValue(packetIAT);
+		if (packetIATSketch != null) {
+			packetIATSketch.addValue(packetIAT);
+		}
 		if (nFirstPacketIATs.size() < nFirstPackets) {
 			nFirstPacketIATs.add(packetIAT);
 		}
 	}
 
+	/**
+	 * Keeps sketches of the quantiles of the packet sizes and IATs, starting
+	 * with the first packet
+	 */
+	public void setQuantiles() {
+		packetSizeSketch = new QuantileSketch();
+		packetSizeSketch.addValue(firstPacket.getSize());
+		packetIATSketch = new QuantileSketch();
+	}
+
+	/**
+	 * @return true if the flow keeps sketches of the quantiles
+	 */
+	public boolean hasQuantiles() {
+		return packetSizeSketch != null;
+	}
+
+	/**
+	 * @param quantile
+	 *            the quantile between 0 and 1
+	 * @return the estimated quantile of the packet sizes; NaN unless the flow
+	 *         keeps quantiles
+	 */
+	public double getPacketSizeQuantile(double quantile) {
+		return estimate(packetSizeSketch, packetSizes, quantile);
+	}
+
+	/**
+	 * @param quantile
+	 *            the quantile between 0 and 1
+	 * @return the estimated quantile of the packet IATs; NaN unless the flow
+	 *         keeps quantiles and has more than one packet
+	 */
+	public double getPacketIATQuantile(double quantile) {
+		return estimate(packetIATSketch, packetIATs, quantile);
+	}
+
+	/**
+	 * Rounds the estimate of a sketch, since sizes and IATs are integers, and
+	 * bounds it by the exact minimum and maximum
+	 * 
+	 * @param sketch
+	 * @param statistics
+	 * @param quantile
+	 * @return the estimated quantile
+	 */
+	private static double estimate(QuantileSketch sketch, FlowStatistics statistics, double quantile) {
+		if (sketch == null || sketch.getN() == 0) {
+			return Double.NaN;
+		}
+		double value = Math.round(sketch.getQuantile(quantile));
+		return Math.max(statistics.getMin(), Math.min(statistics.getMax(), value));
+	}
+
+	/**
+	 * Keeps statistics of each direction of the flow, starting with the first
+	 * packet in the forward direction
+	 * 
+	 * @param reverseKey
+	 *            whether the canonical key of the flow lists its endpoints in the
+	 *            reverse order of the first packet
+	 */
+	public void setBidirectional(boolean reverseKey) {
+		this.reverseKey = reverseKey;
+		fwdPacketSizes = new FlowStatistics();
+		fwdPacketSizes.addValue(firstPacket.getSize());
+		fwdPacketIATs = new FlowStatistics();
+		bwdPacketSizes = new FlowStatistics();
+		bwdPacketIATs = new FlowStatistics();
+		fwdLastSeen = startTime;
+		bwdLastSeen = startTime;
+	}
+
+	/**
+	 * @return true if the flow keeps statistics of each direction
+	 */
+	public boolean isBidirectional() {
+		return fwdPacketSizes != null;
+	}
+
+	/**
+	 * @param swapped
+	 *            whether the endpoints of a packet were swapped in the canonical
+	 *            key
+	 * @return true if the packet goes in the forward direction of the flow
+	 */
+	public boolean isForward(boolean swapped) {
+		return swapped == reverseKey;
+	}
+
+	/**
+	 * Adds a packet to the statistics of its direction. The inter-arrival time
+	 * of a direction is measured between its own packets
+	 * 
+	 * @param packetSize
+	 * @param timestamp
+	 *            timestamp in microseconds of the packet
+	 * @param forward
+	 *            whether the packet goes in the forward direction
+	 */
+	public void addDirectionalPacket(int packetSize, long timestamp, boolean forward) {
+		if (forward) {
+			fwdPacketSizes.addValue(packetSize);
+			fwdPacketIATs.addValue(timestamp - fwdLastSeen);
+			fwdLastSeen = timestamp;
+		} else {
+			if (bwdPacketSizes.getN() > 0) {
+				bwdPacketIATs.addValue(timestamp - bwdLastSeen);
+			}
+			bwdPacketSizes.addValue(packetSize);
+			bwdLastSeen = timestamp;
+		}
+	}
+
+	/**
+	 * @return the statistics of the packet sizes in the forward direction; empty
+	 *         unless the flow is bidirectional
+	 */
+	public FlowStatistics getFwdPacketSizes() {
+		return fwdPacketSizes != null ? fwdPacketSizes : NO_PACKETS;
+	}
+
+	/**
+	 * @return the statistics of the packet IATs in the forward direction; empty
+	 *         unless the flow is bidirectional
+	 */
+	public FlowStatistics getFwdPacketIATs() {
+		return fwdPacketIATs != null ? fwdPacketIATs : NO_PACKETS;
+	}
+
+	/**
+	 * @return the statistics of the packet sizes in the backward direction;
+	 *         empty unless the flow is bidirectional
+	 */
+	public FlowStatistics getBwdPacketSizes() {
+		return bwdPacketSizes != null ? bwdPacketSizes : NO_PACKETS;
+	}
+
+	/**
+	 * @return the statistics of the packet IATs in the backward direction;
+	 *         empty unless the flow is bidirectional
+	 */
+	public FlowStatistics getBwdPacketIATs() {
+		return bwdPacketIATs != null ? bwdPacketIATs : NO_PACKETS;
+	}
+
 	/**
 	 * @return the priorTOs
 	 */
@@ -281,143 +514,265 @@ public class Flow {
 	}
 
 	/**
+	 * Writes the state of the flow to a stream, e.g., for keeping it on disk
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		firstPacket.writeTo(out);
+		out.writeLong(startTime);
+		out.writeLong(lastSeen);
+		packetSizes.writeTo(out);
+		packetIATs.writeTo(out);
+		out.writeInt(priorTOs);
+		out.writeLong(timeAfterLastTO);
+		out.writeInt(nFirstPacketSizes.size());
+		for (int i = 0; i < nFirstPacketSizes.size(); i++) {
+			out.writeInt(nFirstPacketSizes.get(i));
+		}
+		out.writeInt(nFirstPacketIATs.size());
+		for (int i = 0; i < nFirstPacketIATs.size(); i++) {
+			out.writeLong(nFirstPacketIATs.get(i));
+		}
+		out.writeBoolean(isBidirectional());
+		if (isBidirectional()) {
+			out.writeBoolean(reverseKey);
+			out.writeLong(fwdLastSeen);
+			out.writeLong(bwdLastSeen);
+			fwdPacketSizes.writeTo(out);
+			fwdPacketIATs.writeTo(out);
+			bwdPacketSizes.writeTo(out);
+			bwdPacketIATs.writeTo(out);
+		}
+		out.writeBoolean(hasQuantiles());
+		if (hasQuantiles()) {
+			packetSizeSketch.writeTo(out);
+			packetIATSketch.writeTo(out);
+		}
+	}
+
+	/**
+	 * Sets the state of the flow to that written to a stream
+	 * 
+	 * @param in
+	 * @return this flow
+	 * @throws IOException
+	 */
+	public Flow readFrom(DataInput in) throws IOException {
+		firstPacket = new Packet().readFrom(in);
+		startTime = in.readLong();
+		lastSeen = in.readLong();
+		packetSizes = new FlowStatistics().readFrom(in);
+		packetIATs = new FlowStatistics().readFrom(in);
+		priorTOs = in.readInt();
+		timeAfterLastTO = in.readLong();
+		int n = in.readInt();
+		nFirstPacketSizes = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++) {
+			nFirstPacketSizes.add(in.readInt());
+		}
+		n = in.readInt();
+		nFirstPacketIATs = new ArrayList<Long>(n);
+		for (int i = 0; i < n; i++) {
+			nFirstPacketIATs.add(in.readLong());
+		}
+		if (in.readBoolean()) {
+			reverseKey = in.readBoolean();
+			fwdLastSeen = in.readLong();
+			bwdLastSeen = in.readLong();
+			fwdPacketSizes = new FlowStatistics().readFrom(in);
+			fwdPacketIATs = new FlowStatistics().readFrom(in);
+			bwdPacketSizes = new FlowStatistics().readFrom(in);
+			bwdPacketIATs = new FlowStatistics().readFrom(in);
+		}
+		if (in.readBoolean()) {
+			packetSizeSketch = new QuantileSketch().readFrom(in);
+			packetIATSketch = new QuantileSketch().readFrom(in);
+		}
+		return this;
+	}
+
+	/**
+	 * @param features
 	 * @param nFirstPackets
-	 * @return
+	 * @return the values of the included features separated by commas
 	 */
 	public String toCSV(Set<Integer> features, int nFirstPackets) {
 		StringBuilder csv = new StringBuilder();
-		// Check if all features are included
-		if (features.containsAll(FlowFeature.allFeatureIds())) {
+		appendCSV(csv, FlowFeature.columns(features), nFirstPackets);
+		return csv.toString();
+	}
+
+	/**
+	 * Appends the values of the given columns separated by commas
+	 * 
+	 * @param csv
+	 *            the builder to append to
+	 * @param columns
+	 *            the included features in order (see
+	 *            {@link FlowFeature#columns(Set)})
+	 * @param nFirstPackets
+	 */
+	public void appendCSV(StringBuilder csv, FlowFeature[] columns, int nFirstPackets) {
+		appendCSV(csv, columns, nFirstPackets, 1);
+	}
+
+	/**
+	 * Appends the values of the given columns separated by commas, with the
+	 * packet and byte counters scaled, e.g., by the packet sampling rate
+	 * 
+	 * @param csv
+	 *            the builder to append to
+	 * @param columns
+	 *            the included features in order (see
+	 *            {@link FlowFeature#columns(Set)})
+	 * @param nFirstPackets
+	 * @param scale
+	 *            factor of the packet and byte counters
+	 */
+	public void appendCSV(StringBuilder csv, FlowFeature[] columns, int nFirstPackets, long scale) {
+		int start = csv.length();
+		for (FlowFeature column : columns) {
+			switch (column) {
 			// Add time info: start and end time
-			csv.append(startTime).append(",");
-			csv.append(lastSeen).append(",");
+			case START_TIME:
+				csv.append(startTime).append(",");
+				break;
+			case END_TIME:
+				csv.append(lastSeen).append(",");
+				break;
 			// Add first packet info
-			csv.append(firstPacket.getEthSrcString()).append(",");
-			csv.append(firstPacket.getEthDstString()).append(",");
-			csv.append(firstPacket.getVlanId()).append(",");
-			csv.append(firstPacket.getEthType()).append(",");
-			csv.append(firstPacket.getIpSrcString()).append(",");
-			csv.append(firstPacket.getIpDstString()).append(",");
-			csv.append(firstPacket.getIpProto()).append(",");
-			csv.append(firstPacket.getPortSrc()).append(",");
-			csv.append(firstPacket.getPortDst()).append(",");
+			case ETH_SRC:
+				csv.append(firstPacket.getEthSrcString()).append(",");
+				break;
+			case ETH_DST:
+				csv.append(firstPacket.getEthDstString()).append(",");
+				break;
+			case VLAN_ID:
+				csv.append(firstPacket.getVlanId()).append(",");
+				break;
+			case ETH_TYPE:
+				csv.append(firstPacket.getEthType()).append(",");
+				break;
+			case IP_SRC:
+				csv.append(firstPacket.getIpSrcString()).append(",");
+				break;
+			case IP_DST:
+				csv.append(firstPacket.getIpDstString()).append(",");
+				break;
+			case IP_PROTO:
+				csv.append(firstPacket.getIpProto()).append(",");
+				break;
+			case PORT_SRC:
+				csv.append(firstPacket.getPortSrc()).append(",");
+				break;
+			case PORT_DST:
+				csv.append(firstPacket.getPortDst()).append(",");
+				break;
 			// Add flow info: size, packets, duration, meanIAT, stdIAT, maxIAT, minIAT
-			csv.append(packetSizes.getSum()).append(",");
-			csv.append(packetSizes.getN()).append(",");
-			csv.append(lastSeen - startTime).append(",");
-			csv.append(packetIATs.getMean()).append(",");
-			csv.append(packetIATs.getStandardDeviation()).append(",");
-			csv.append(packetIATs.getMax()).append(",");
-			csv.append(packetIATs.getMin()).append(",");
+			case TOTAL_SIZE:
+				csv.append(packetSizes.getSum() * scale).append(",");
+				break;
+			case TOTAL_PACKETS:
+				csv.append(packetSizes.getN() * scale).append(",");
+				break;
+			case DURATION:
+				csv.append(lastSeen - startTime).append(",");
+				break;
+			case IAT_MEAN:
+				csv.append(packetIATs.getMean()).append(",");
+				break;
+			case IAT_STD:
+				csv.append(packetIATs.getStandardDeviation()).append(",");
+				break;
+			case IAT_MAX:
+				csv.append(packetIATs.getMax()).append(",");
+				break;
+			case IAT_MIN:
+				csv.append(packetIATs.getMin()).append(",");
+				break;
+			// Add quantiles of packet size and IAT
+			case SIZE_P50:
+			case SIZE_P90:
+			case SIZE_P99:
+				csv.append(getPacketSizeQuantile(column.getQuantile())).append(",");
+				break;
+			case IAT_P50:
+			case IAT_P90:
+			case IAT_P99:
+				csv.append(getPacketIATQuantile(column.getQuantile())).append(",");
+				break;
+			// Add forward and backward info: size, packets, meanIAT, stdIAT, maxIAT, minIAT
+			case FWD_SIZE:
+				csv.append(getFwdPacketSizes().getSum() * scale).append(",");
+				break;
+			case FWD_PACKETS:
+				csv.append(getFwdPacketSizes().getN() * scale).append(",");
+				break;
+			case FWD_IAT_MEAN:
+				csv.append(getFwdPacketIATs().getMean()).append(",");
+				break;
+			case FWD_IAT_STD:
+				csv.append(getFwdPacketIATs().getStandardDeviation()).append(",");
+				break;
+			case FWD_IAT_MAX:
+				csv.append(getFwdPacketIATs().getMax()).append(",");
+				break;
+			case FWD_IAT_MIN:
+				csv.append(getFwdPacketIATs().getMin()).append(",");
+				break;
+			case BWD_SIZE:
+				csv.append(getBwdPacketSizes().getSum() * scale).append(",");
+				break;
+			case BWD_PACKETS:
+				csv.append(getBwdPacketSizes().getN() * scale).append(",");
+				break;
+			case BWD_IAT_MEAN:
+				csv.append(getBwdPacketIATs().getMean()).append(",");
+				break;
+			case BWD_IAT_STD:
+				csv.append(getBwdPacketIATs().getStandardDeviation()).append(",");
+				break;
+			case BWD_IAT_MAX:
+				csv.append(getBwdPacketIATs().getMax()).append(",");
+				break;
+			case BWD_IAT_MIN:
+				csv.append(getBwdPacketIATs().getMin()).append(",");
+				break;
 			// Add timeout info: prior timeouts and time after last timeout
-			csv.append(priorTOs).append(",");
-			csv.append(timeAfterLastTO).append(",");
+			case PRIOR_TOS:
+				csv.append(priorTOs).append(",");
+				break;
+			case TIME_LAST_TO:
+				csv.append(timeAfterLastTO).append(",");
+				break;
 			// Add N first packet sizes
-			for (int i = 0; i < nFirstPackets; i++) {
-				if (i < nFirstPacketSizes.size()) {
-					csv.append(nFirstPacketSizes.get(i)).append(",");
-				} else {
-					csv.append(Double.NaN).append(",");
+			case PACKET_SIZE:
+				for (int i = 0; i < nFirstPackets; i++) {
+					if (i < nFirstPacketSizes.size()) {
+						csv.append(nFirstPacketSizes.get(i).intValue()).append(",");
+					} else {
+						csv.append(Double.NaN).append(",");
+					}
 				}
-			}
+				break;
 			// Add N first packet inter-arrival times
-			for (int i = 0; i < nFirstPackets; i++) {
-				if (i < nFirstPacketIATs.size()) {
-					csv.append(nFirstPacketIATs.get(i)).append(",");
-				} else {
-					csv.append(Double.NaN).append(",");
+			case PACKET_IAT:
+				for (int i = 0; i < nFirstPackets; i++) {
+					if (i < nFirstPacketIATs.size()) {
+						csv.append(nFirstPacketIATs.get(i).longValue()).append(",");
+					} else {
+						csv.append(Double.NaN).append(",");
+					}
 				}
+				break;
 			}
-			csv.deleteCharAt(csv.length() - 1);
-			return csv.toString();
-		}
-		// Check included features
-		// Add time info: start and end time
-		if (features.contains(FlowFeature.START_TIME.getId())) {
-			csv.append(startTime).append(",");
-		}
-		if (features.contains(FlowFeature.END_TIME.getId())) {
-			csv.append(lastSeen).append(",");
-		}
-		// Add first packet info
-		if (features.contains(FlowFeature.ETH_SRC.getId())) {
-			csv.append(firstPacket.getEthSrcString()).append(",");
-		}
-		if (features.contains(FlowFeature.ETH_DST.getId())) {
-			csv.append(firstPacket.getEthDstString()).append(",");
-		}
-		if (features.contains(FlowFeature.VLAN_ID.getId())) {
-			csv.append(firstPacket.getVlanId()).append(",");
-		}
-		if (features.contains(FlowFeature.ETH_TYPE.getId())) {
-			csv.append(firstPacket.getEthType()).append(",");
-		}
-		if (features.contains(FlowFeature.IP_SRC.getId())) {
-			csv.append(firstPacket.getIpSrcString()).append(",");
 		}
-		if (features.contains(FlowFeature.IP_DST.getId())) {
-			csv.append(firstPacket.getIpDstString()).append(",");
+		// Remove the last comma
+		if (csv.length() > start) {
+			csv.setLength(csv.length() - 1);
 		}
-		if (features.contains(FlowFeature.IP_PROTO.getId())) {
-			csv.append(firstPacket.getIpProto()).append(",");
-		}
-		if (features.contains(FlowFeature.PORT_SRC.getId())) {
-			csv.append(firstPacket.getPortSrc()).append(",");
-		}
-		if (features.contains(FlowFeature.PORT_DST.getId())) {
-			csv.append(firstPacket.getPortDst()).append(",");
-		}
-		// Add flow info: size, packets, duration, meanIAT, stdIAT, maxIAT, minIAT
-		if (features.contains(FlowFeature.TOTAL_SIZE.getId())) {
-			csv.append(packetSizes.getSum()).append(",");
-		}
-		if (features.contains(FlowFeature.TOTAL_PACKETS.getId())) {
-			csv.append(packetSizes.getN()).append(",");
-		}
-		if (features.contains(FlowFeature.DURATION.getId())) {
-			csv.append(lastSeen - startTime).append(",");
-		}
-		if (features.contains(FlowFeature.IAT_MEAN.getId())) {
-			csv.append(packetIATs.getMean()).append(",");
-		}
-		if (features.contains(FlowFeature.IAT_STD.getId())) {
-			csv.append(packetIATs.getStandardDeviation()).append(",");
-		}
-		if (features.contains(FlowFeature.IAT_MAX.getId())) {
-			csv.append(packetIATs.getMax()).append(",");
-		}
-		if (features.contains(FlowFeature.IAT_MIN.getId())) {
-			csv.append(packetIATs.getMin()).append(",");
-		}
-		// Add timeout info: prior timeouts and time after last timeout
-		if (features.contains(FlowFeature.PRIOR_TOS.getId())) {
-			csv.append(priorTOs).append(",");
-		}
-		if (features.contains(FlowFeature.TIME_LAST_TO.getId())) {
-			csv.append(timeAfterLastTO).append(",");
-		}
-		// Add N first packet sizes
-		if (features.contains(FlowFeature.PACKET_SIZE.getId())) {
-			for (int i = 0; i < nFirstPackets; i++) {
-				if (i < nFirstPacketSizes.size()) {
-					csv.append(nFirstPacketSizes.get(i)).append(",");
-				} else {
-					csv.append(Double.NaN).append(",");
-				}
-			}
-		}
-		// Add N first packet inter-arrival times
-		if (features.contains(FlowFeature.PACKET_IAT.getId())) {
-			for (int i = 0; i < nFirstPackets; i++) {
-				if (i < nFirstPacketIATs.size()) {
-					csv.append(nFirstPacketIATs.get(i)).append(",");
-				} else {
-					csv.append(Double.NaN).append(",");
-				}
-			}
-		}
-		csv.deleteCharAt(csv.length() - 1);
-		return csv.toString();
 	}
 
 }
@@ -1,17 +1,53 @@
 package co.edu.unicauca.dtm.pcapflowparser.model;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public enum FlowFeature {
 
-	START_TIME("start_time", 0), END_TIME("end_time", 1), ETH_SRC("eth_src", 2), ETH_DST("eth_dst", 3), VLAN_ID(
-			"vlan_id", 4), ETH_TYPE("eth_type", 5), IP_SRC("ip_src", 6), IP_DST("ip_dst", 7), IP_PROTO("ip_proto",
-					8), PORT_SRC("port_src", 9), PORT_DST("port_dst", 10), TOTAL_SIZE("tot_size", 11), TOTAL_PACKETS(
-							"tot_pkts", 12), DURATION("duration", 13), IAT_MEAN("iat_mean", 14), IAT_STD("iat_std",
-									15), IAT_MAX("iat_max", 16), IAT_MIN("iat_min", 17), PRIOR_TOS("prior_tos",
-											18), TIME_LAST_TO("time_last_to", 19), PACKET_SIZE("size_pkt", 20,
-													true), PACKET_IAT("iat_pkt", 21, true);
+	START_TIME("start_time", 0),
+	END_TIME("end_time", 1),
+	ETH_SRC("eth_src", 2),
+	ETH_DST("eth_dst", 3),
+	VLAN_ID("vlan_id", 4),
+	ETH_TYPE("eth_type", 5),
+	IP_SRC("ip_src", 6),
+	IP_DST("ip_dst", 7),
+	IP_PROTO("ip_proto", 8),
+	PORT_SRC("port_src", 9),
+	PORT_DST("port_dst", 10),
+	TOTAL_SIZE("tot_size", 11),
+	TOTAL_PACKETS("tot_pkts", 12),
+	DURATION("duration", 13),
+	IAT_MEAN("iat_mean", 14),
+	IAT_STD("iat_std", 15),
+	IAT_MAX("iat_max", 16),
+	IAT_MIN("iat_min", 17),
+	SIZE_P50("size_p50", 34, 0.5),
+	SIZE_P90("size_p90", 35, 0.9),
+	SIZE_P99("size_p99", 36, 0.99),
+	IAT_P50("iat_p50", 37, 0.5),
+	IAT_P90("iat_p90", 38, 0.9),
+	IAT_P99("iat_p99", 39, 0.99),
+	FWD_SIZE("fwd_size", 22, false, true),
+	FWD_PACKETS("fwd_pkts", 23, false, true),
+	FWD_IAT_MEAN("fwd_iat_mean", 24, false, true),
+	FWD_IAT_STD("fwd_iat_std", 25, false, true),
+	FWD_IAT_MAX("fwd_iat_max", 26, false, true),
+	FWD_IAT_MIN("fwd_iat_min", 27, false, true),
+	BWD_SIZE("bwd_size", 28, false, true),
+	BWD_PACKETS("bwd_pkts", 29, false, true),
+	BWD_IAT_MEAN("bwd_iat_mean", 30, false, true),
+	BWD_IAT_STD("bwd_iat_std", 31, false, true),
+	BWD_IAT_MAX("bwd_iat_max", 32, false, true),
+	BWD_IAT_MIN("bwd_iat_min", 33, false, true),
+	PRIOR_TOS("prior_tos", 18),
+	TIME_LAST_TO("time_last_to", 19),
+	PACKET_SIZE("size_pkt", 20, true),
+	PACKET_IAT("iat_pkt", 21, true);
+
 
 	/**
 	 * 
@@ -28,6 +64,16 @@ public enum FlowFeature {
 	 */
 	private final boolean isNFirst;
 
+	/**
+	 * Whether the feature describes one direction of a bidirectional flow
+	 */
+	private final boolean isDirectional;
+
+	/**
+	 * Quantile estimated by the feature; 0 if the feature is not a quantile
+	 */
+	private final double quantile;
+
 	/**
 	 * @param name
 	 * @param id
@@ -36,6 +82,8 @@ public enum FlowFeature {
 		this.name = name;
 		this.id = id;
 		this.isNFirst = false;
+		this.isDirectional = false;
+		this.quantile = 0;
 	}
 
 	/**
@@ -47,6 +95,35 @@ public enum FlowFeature {
 		this.name = name;
 		this.id = id;
 		this.isNFirst = isNFirst;
+		this.isDirectional = false;
+		this.quantile = 0;
+	}
+
+	/**
+	 * @param name
+	 * @param id
+	 * @param isNFirst
+	 * @param isDirectional
+	 */
+	FlowFeature(String name, int id, boolean isNFirst, boolean isDirectional) {
+		this.name = name;
+		this.id = id;
+		this.isNFirst = isNFirst;
+		this.isDirectional = isDirectional;
+		this.quantile = 0;
+	}
+
+	/**
+	 * @param name
+	 * @param id
+	 * @param quantile
+	 */
+	FlowFeature(String name, int id, double quantile) {
+		this.name = name;
+		this.id = id;
+		this.isNFirst = false;
+		this.isDirectional = false;
+		this.quantile = quantile;
 	}
 
 	/**
@@ -71,16 +148,80 @@ public enum FlowFeature {
 	}
 
 	/**
-	 * @return
+	 * @return true if the feature describes one direction of a bidirectional
+	 *         flow
+	 */
+	public boolean isDirectional() {
+		return isDirectional;
+	}
+
+	/**
+	 * @return true if the feature is a quantile estimated by a sketch of the
+	 *         values of the flow
+	 */
+	public boolean isQuantile() {
+		return quantile > 0;
+	}
+
+	/**
+	 * @return the quantile estimated by the feature, e.g., 0.5 for the median;
+	 *         0 if the feature is not a quantile
+	 */
+	public double getQuantile() {
+		return quantile;
+	}
+
+	/**
+	 * @return the identifiers of all features of unidirectional flows, without
+	 *         the quantiles
 	 */
 	public static Set<Integer> allFeatureIds() {
+		return allFeatureIds(false);
+	}
+
+	/**
+	 * @param bidirectional
+	 *            whether to include the features of each direction of
+	 *            bidirectional flows
+	 * @return the identifiers of all features, without the quantiles, which
+	 *         add a sketch to each flow and are only included on demand
+	 */
+	public static Set<Integer> allFeatureIds(boolean bidirectional) {
+		Set<Integer> ids = new HashSet<Integer>();
+		for (FlowFeature feature : FlowFeature.values()) {
+			if ((bidirectional || !feature.isDirectional()) && !feature.isQuantile()) {
+				ids.add(feature.getId());
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * @return the identifiers of the quantile features
+	 */
+	public static Set<Integer> quantileFeatureIds() {
 		Set<Integer> ids = new HashSet<Integer>();
 		for (FlowFeature feature : FlowFeature.values()) {
-			ids.add(feature.getId());
+			if (feature.isQuantile()) {
+				ids.add(feature.getId());
+			}
 		}
 		return ids;
 	}
 
+	/**
+	 * @param featureIds
+	 * @return true if any of the features is a quantile
+	 */
+	public static boolean hasQuantiles(Set<Integer> featureIds) {
+		for (FlowFeature feature : FlowFeature.values()) {
+			if (feature.isQuantile() && featureIds.contains(feature.getId())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * @param features
 	 * @return
@@ -103,6 +244,22 @@ public enum FlowFeature {
 		return ids;
 	}
 
+	/**
+	 * Compiles the included features into the ordered columns of the output
+	 * 
+	 * @param featureIds
+	 * @return the included features in the order of the CSV header
+	 */
+	public static FlowFeature[] columns(Set<Integer> featureIds) {
+		List<FlowFeature> columns = new ArrayList<FlowFeature>();
+		for (FlowFeature feature : FlowFeature.values()) {
+			if (featureIds.contains(feature.getId())) {
+				columns.add(feature);
+			}
+		}
+		return columns.toArray(new FlowFeature[columns.size()]);
+	}
+
 	/**
 	 * @param featureIds
 	 * @param nFirstPackets
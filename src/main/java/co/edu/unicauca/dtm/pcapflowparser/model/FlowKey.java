@@ -0,0 +1,475 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jnetpcap.packet.format.FormatUtils;
+
+/**
+ * This class models the identifier of a flow in a fixed binary layout: the
+ * source/destination addresses of either IP (IPv4/IPv6) or Ethernet, the IP
+ * protocol or the Ethernet type, the TCP/UDP source/destination ports, and the
+ * VLAN identifier. These fields were selected based on the hash function that
+ * Open vSwitch version >= 2.4 applies for bucket selection. The hash code is
+ * computed once when the key is set, and the textual identifier is only built
+ * by {@link #toString()}.
+ * 
+ * Keys are mutable so that a single instance can be reused for looking up
+ * every packet; a key stored in a map must be a {@link #copy()}.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FlowKey {
+
+	/**
+	 * Number of bytes of a key written to a buffer
+	 */
+	public static final int BYTES = 40;
+
+	/**
+	 * Address family of a key without addresses
+	 */
+	private static final int FAMILY_NONE = 0;
+
+	/**
+	 * Address family of a key with Ethernet addresses
+	 */
+	private static final int FAMILY_ETHERNET = 1;
+
+	/**
+	 * Address family of a key with IPv4 addresses
+	 */
+	private static final int FAMILY_IPV4 = 2;
+
+	/**
+	 * Address family of a key with IPv6 addresses
+	 */
+	private static final int FAMILY_IPV6 = 3;
+
+	/**
+	 * Bit of the metadata that flags the presence of TCP/UDP ports
+	 */
+	private static final long PORTS_FLAG = 1L << 18;
+
+	/**
+	 * Bit of the metadata that flags the presence of a VLAN identifier
+	 */
+	private static final long VLAN_FLAG = 1L << 51;
+
+	/**
+	 * Upper 64 bits of the source address
+	 */
+	private long srcHigh;
+
+	/**
+	 * Lower 64 bits of the source address
+	 */
+	private long srcLow;
+
+	/**
+	 * Upper 64 bits of the destination address
+	 */
+	private long dstHigh;
+
+	/**
+	 * Lower 64 bits of the destination address
+	 */
+	private long dstLow;
+
+	/**
+	 * Address family (bits 0-1), IP protocol or Ethernet type (bits 2-17), ports
+	 * flag (bit 18), source port (bits 19-34), destination port (bits 35-50), VLAN
+	 * flag (bit 51) and VLAN identifier (bits 52-63)
+	 */
+	private long meta;
+
+	/**
+	 * Precomputed hash code
+	 */
+	private int hash;
+
+	/**
+	 * Constructor of an empty key
+	 */
+	public FlowKey() {
+		super();
+	}
+
+	/**
+	 * @param packet
+	 *            the packet for generating the flow key
+	 */
+	public FlowKey(Packet packet) {
+		super();
+		set(packet);
+	}
+
+	/**
+	 * Sets the key to the flow identifier of a packet
+	 * 
+	 * @param packet
+	 *            the packet for generating the flow key
+	 * @return this key
+	 */
+	public FlowKey set(Packet packet) {
+		fill(packet);
+		hash = computeHash();
+		return this;
+	}
+
+	/**
+	 * Sets the key to the canonical flow identifier of a packet, whose endpoints
+	 * (address and port) are ordered so that the packets of both directions of
+	 * a flow have the same key
+	 * 
+	 * @param packet
+	 *            the packet for generating the flow key
+	 * @return true if the endpoints of the packet were swapped, i.e., the packet
+	 *         goes from the higher to the lower endpoint
+	 */
+	public boolean setCanonical(Packet packet) {
+		fill(packet);
+		int order = Long.compareUnsigned(srcHigh, dstHigh);
+		if (order == 0) {
+			order = Long.compareUnsigned(srcLow, dstLow);
+		}
+		if (order == 0 && (meta & PORTS_FLAG) != 0) {
+			order = Long.compare(meta >>> 19 & 0xFFFF, meta >>> 35 & 0xFFFF);
+		}
+		boolean swapped = order > 0;
+		if (swapped) {
+			long high = srcHigh;
+			long low = srcLow;
+			srcHigh = dstHigh;
+			srcLow = dstLow;
+			dstHigh = high;
+			dstLow = low;
+			if ((meta & PORTS_FLAG) != 0) {
+				long ports = (meta >>> 19 & 0xFFFF) << 35 | (meta >>> 35 & 0xFFFF) << 19;
+				meta = meta & ~(0xFFFFFFFFL << 19) | ports;
+			}
+		}
+		hash = computeHash();
+		return swapped;
+	}
+
+	/**
+	 * Sets the key fields to the flow identifier of a packet, without the hash
+	 * code
+	 * 
+	 * @param packet
+	 */
+	private void fill(Packet packet) {
+		long meta;
+		// Check if IPv4/IPv6 source/destination addresses exist
+		if (packet.getIpSrc() != null && packet.getIpDst() != null) {
+			byte[] src = packet.getIpSrc();
+			byte[] dst = packet.getIpDst();
+			srcHigh = high(src);
+			srcLow = low(src);
+			dstHigh = high(dst);
+			dstLow = low(dst);
+			meta = (src.length == 4 ? FAMILY_IPV4 : FAMILY_IPV6) | (long) (packet.getIpProto() & 0xFFFF) << 2;
+		} // Check if Ethernet source/destination addresses exist
+		else if (packet.getEthSrc() != null && packet.getEthDst() != null) {
+			srcHigh = 0;
+			srcLow = low(packet.getEthSrc());
+			dstHigh = 0;
+			dstLow = low(packet.getEthDst());
+			meta = FAMILY_ETHERNET | (long) (packet.getEthType() & 0xFFFF) << 2;
+		} else {
+			srcHigh = 0;
+			srcLow = 0;
+			dstHigh = 0;
+			dstLow = 0;
+			meta = FAMILY_NONE;
+		}
+		// Check if TCP/UDP source/destination ports exist
+		if (packet.getPortSrc() != -1 && packet.getPortDst() != -1) {
+			meta |= PORTS_FLAG | (long) (packet.getPortSrc() & 0xFFFF) << 19
+					| (long) (packet.getPortDst() & 0xFFFF) << 35;
+		}
+		// Check if VLAN ID exists
+		if (packet.getVlanId() != -1) {
+			meta |= VLAN_FLAG | (long) (packet.getVlanId() & 0x0FFF) << 52;
+		}
+		this.meta = meta;
+	}
+
+	/**
+	 * @return a copy of this key that can be stored
+	 */
+	public FlowKey copy() {
+		FlowKey key = new FlowKey();
+		key.srcHigh = srcHigh;
+		key.srcLow = srcLow;
+		key.dstHigh = dstHigh;
+		key.dstLow = dstLow;
+		key.meta = meta;
+		key.hash = hash;
+		return key;
+	}
+
+	/**
+	 * Writes the key fields to a buffer, without the hash code
+	 * 
+	 * @param buffer
+	 * @param offset
+	 *            absolute offset of the {@link #BYTES} bytes to write
+	 */
+	public void writeTo(ByteBuffer buffer, int offset) {
+		buffer.putLong(offset, srcHigh);
+		buffer.putLong(offset + 8, srcLow);
+		buffer.putLong(offset + 16, dstHigh);
+		buffer.putLong(offset + 24, dstLow);
+		buffer.putLong(offset + 32, meta);
+	}
+
+	/**
+	 * Sets the key to the fields written to a buffer
+	 * 
+	 * @param buffer
+	 * @param offset
+	 *            absolute offset of the {@link #BYTES} bytes to read
+	 * @return this key
+	 */
+	public FlowKey readFrom(ByteBuffer buffer, int offset) {
+		srcHigh = buffer.getLong(offset);
+		srcLow = buffer.getLong(offset + 8);
+		dstHigh = buffer.getLong(offset + 16);
+		dstLow = buffer.getLong(offset + 24);
+		meta = buffer.getLong(offset + 32);
+		hash = computeHash();
+		return this;
+	}
+
+	/**
+	 * Writes the key fields to a stream, without the hash code
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(srcHigh);
+		out.writeLong(srcLow);
+		out.writeLong(dstHigh);
+		out.writeLong(dstLow);
+		out.writeLong(meta);
+	}
+
+	/**
+	 * Sets the key to the fields written to a stream
+	 * 
+	 * @param in
+	 * @return this key
+	 * @throws IOException
+	 */
+	public FlowKey readFrom(DataInput in) throws IOException {
+		srcHigh = in.readLong();
+		srcLow = in.readLong();
+		dstHigh = in.readLong();
+		dstLow = in.readLong();
+		meta = in.readLong();
+		hash = computeHash();
+		return this;
+	}
+
+	/**
+	 * @param buffer
+	 * @param offset
+	 *            absolute offset of the key fields written to the buffer
+	 * @return true if the written key is equal to this key
+	 */
+	public boolean matches(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset + 32) == meta && buffer.getLong(offset + 8) == srcLow
+				&& buffer.getLong(offset + 24) == dstLow && buffer.getLong(offset) == srcHigh
+				&& buffer.getLong(offset + 16) == dstHigh;
+	}
+
+	/**
+	 * Sets the IP addresses of a packet to those of the key, if it is an IP key
+	 * 
+	 * @param packet
+	 *            the reset packet whose addresses are set
+	 */
+	public void copyIpAddressesTo(Packet packet) {
+		int family = (int) (meta & 0x3);
+		if (family != FAMILY_IPV4 && family != FAMILY_IPV6) {
+			return;
+		}
+		int length = family == FAMILY_IPV4 ? 4 : 16;
+		unpack(srcHigh, srcLow, packet.newIpSrc(length));
+		unpack(dstHigh, dstLow, packet.newIpDst(length));
+	}
+
+	/**
+	 * @return the hash of the key fields, mixed with the finalizer of MurmurHash3
+	 */
+	private int computeHash() {
+		long h = srcHigh;
+		h = h * 31 + srcLow;
+		h = h * 31 + dstHigh;
+		h = h * 31 + dstLow;
+		h = h * 31 + meta;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int) h;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof FlowKey)) {
+			return false;
+		}
+		FlowKey other = (FlowKey) obj;
+		return hash == other.hash && meta == other.meta && srcLow == other.srcLow && dstLow == other.dstLow
+				&& srcHigh == other.srcHigh && dstHigh == other.dstHigh;
+	}
+
+	/**
+	 * @return the textual identifier of the flow, e.g.,
+	 *         10.0.0.1-10.0.0.2_6_1024-80_100
+	 */
+	@Override
+	public String toString() {
+		StringBuilder flowId = new StringBuilder();
+		int family = (int) (meta & 0x3);
+		int type = (int) (meta >>> 2 & 0xFFFF);
+		if (family == FAMILY_IPV4) {
+			flowId.append(FormatUtils.ip(bytes(srcHigh, srcLow, 4)));
+			flowId.append("-");
+			flowId.append(FormatUtils.ip(bytes(dstHigh, dstLow, 4)));
+			flowId.append("_");
+			flowId.append(type);
+			flowId.append("_");
+		} else if (family == FAMILY_IPV6) {
+			flowId.append(FormatUtils.ip(bytes(srcHigh, srcLow, 16)));
+			flowId.append("-");
+			flowId.append(FormatUtils.ip(bytes(dstHigh, dstLow, 16)));
+			flowId.append("_");
+			flowId.append(type);
+			flowId.append("_");
+		} else if (family == FAMILY_ETHERNET) {
+			flowId.append(FormatUtils.mac(bytes(srcHigh, srcLow, 6)));
+			flowId.append("-");
+			flowId.append(FormatUtils.mac(bytes(dstHigh, dstLow, 6)));
+			flowId.append("_");
+			flowId.append(type);
+			flowId.append("_");
+		} else {
+			flowId.append("noAddresses");
+			flowId.append("_");
+		}
+		if ((meta & PORTS_FLAG) != 0) {
+			flowId.append(meta >>> 19 & 0xFFFF);
+			flowId.append("-");
+			flowId.append(meta >>> 35 & 0xFFFF);
+			flowId.append("_");
+		}
+		if ((meta & VLAN_FLAG) != 0) {
+			flowId.append(meta >>> 52 & 0x0FFF);
+		}
+		return flowId.toString();
+	}
+
+	/**
+	 * @param address
+	 *            address of up to 16 bytes
+	 * @return the upper 64 bits of a 16-byte address; zero for shorter addresses
+	 */
+	private static long high(byte[] address) {
+		if (address.length <= 8) {
+			return 0;
+		}
+		return pack(address, 0, address.length - 8);
+	}
+
+	/**
+	 * @param address
+	 *            address of up to 16 bytes
+	 * @return the lower 64 bits of the address
+	 */
+	private static long low(byte[] address) {
+		int from = Math.max(0, address.length - 8);
+		return pack(address, from, address.length);
+	}
+
+	/**
+	 * @param bytes
+	 * @param from
+	 *            inclusive
+	 * @param to
+	 *            exclusive
+	 * @return the bytes packed in big-endian order
+	 */
+	private static long pack(byte[] bytes, int from, int to) {
+		long value = 0;
+		for (int i = from; i < to; i++) {
+			value = value << 8 | (bytes[i] & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * @param high
+	 *            upper 64 bits
+	 * @param low
+	 *            lower 64 bits
+	 * @param length
+	 *            length of the address in bytes
+	 * @return the address bytes in big-endian order
+	 */
+	private static byte[] bytes(long high, long low, int length) {
+		byte[] address = new byte[length];
+		unpack(high, low, address);
+		return address;
+	}
+
+	/**
+	 * @param high
+	 *            upper 64 bits
+	 * @param low
+	 *            lower 64 bits
+	 * @param address
+	 *            the array to fill with the address bytes in big-endian order
+	 */
+	private static void unpack(long high, long low, byte[] address) {
+		for (int i = address.length - 1, shift = 0; i >= 0; i--, shift += 8) {
+			address[i] = (byte) (shift < 64 ? low >>> shift : high >>> (shift - 64));
+		}
+	}
+
+}
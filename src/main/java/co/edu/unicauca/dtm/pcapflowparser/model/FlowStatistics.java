@@ -0,0 +1,253 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming accumulator of the count, sum, minimum, maximum, mean and sum of
+ * squared deviations (M2) of a series of values. It computes the same results
+ * as the commons-math SummaryStatistics for these statistics, using the same
+ * Welford updates, but keeps them in flat primitive fields.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class FlowStatistics {
+
+	/**
+	 * Number of bytes of the statistics written to a buffer
+	 */
+	public static final int BYTES = 48;
+
+	/**
+	 * Number of values
+	 */
+	private long n;
+
+	/**
+	 * Sum of values
+	 */
+	private double sum;
+
+	/**
+	 * Minimum value; NaN if there are no values
+	 */
+	private double min;
+
+	/**
+	 * Maximum value; NaN if there are no values
+	 */
+	private double max;
+
+	/**
+	 * Mean of values; NaN if there are no values
+	 */
+	private double mean;
+
+	/**
+	 * Sum of squared deviations from the mean
+	 */
+	private double m2;
+
+	/**
+	 * 
+	 */
+	public FlowStatistics() {
+		super();
+		clear();
+	}
+
+	/**
+	 * Removes all values
+	 */
+	public void clear() {
+		n = 0;
+		sum = 0;
+		min = Double.NaN;
+		max = Double.NaN;
+		mean = Double.NaN;
+		m2 = Double.NaN;
+	}
+
+	/**
+	 * @param value
+	 *            the value to add
+	 */
+	public void addValue(double value) {
+		if (n == 0) {
+			mean = 0;
+			m2 = 0;
+		}
+		n++;
+		sum += value;
+		if (value < min || Double.isNaN(min)) {
+			min = value;
+		}
+		if (value > max || Double.isNaN(max)) {
+			max = value;
+		}
+		double dev = value - mean;
+		double nDev = dev / n;
+		mean += nDev;
+		m2 += ((double) n - 1) * dev * nDev;
+	}
+
+	/**
+	 * Writes the accumulator fields to a buffer
+	 * 
+	 * @param buffer
+	 * @param offset
+	 *            absolute offset of the {@link #BYTES} bytes to write
+	 */
+	public void writeTo(ByteBuffer buffer, int offset) {
+		buffer.putLong(offset, n);
+		buffer.putDouble(offset + 8, sum);
+		buffer.putDouble(offset + 16, min);
+		buffer.putDouble(offset + 24, max);
+		buffer.putDouble(offset + 32, mean);
+		buffer.putDouble(offset + 40, m2);
+	}
+
+	/**
+	 * Sets the accumulator fields to those written to a buffer
+	 * 
+	 * @param buffer
+	 * @param offset
+	 *            absolute offset of the {@link #BYTES} bytes to read
+	 * @return these statistics
+	 */
+	public FlowStatistics readFrom(ByteBuffer buffer, int offset) {
+		n = buffer.getLong(offset);
+		sum = buffer.getDouble(offset + 8);
+		min = buffer.getDouble(offset + 16);
+		max = buffer.getDouble(offset + 24);
+		mean = buffer.getDouble(offset + 32);
+		m2 = buffer.getDouble(offset + 40);
+		return this;
+	}
+
+	/**
+	 * Writes the accumulator fields to a stream
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(n);
+		out.writeDouble(sum);
+		out.writeDouble(min);
+		out.writeDouble(max);
+		out.writeDouble(mean);
+		out.writeDouble(m2);
+	}
+
+	/**
+	 * Sets the accumulator fields to those written to a stream
+	 * 
+	 * @param in
+	 * @return these statistics
+	 * @throws IOException
+	 */
+	public FlowStatistics readFrom(DataInput in) throws IOException {
+		n = in.readLong();
+		sum = in.readDouble();
+		min = in.readDouble();
+		max = in.readDouble();
+		mean = in.readDouble();
+		m2 = in.readDouble();
+		return this;
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public long getN() {
+		return n;
+	}
+
+	/**
+	 * @return the sum of values
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the minimum value; NaN if there are no values
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the maximum value; NaN if there are no values
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the mean of values; NaN if there are no values
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	/**
+	 * @return the sum of squared deviations from the mean; NaN if there are no
+	 *         values
+	 */
+	public double getM2() {
+		return m2;
+	}
+
+	/**
+	 * @return the sample variance; 0 for a single value; NaN if there are no
+	 *         values
+	 */
+	public double getVariance() {
+		if (n == 0) {
+			return Double.NaN;
+		}
+		if (n == 1) {
+			return 0;
+		}
+		return m2 / (n - 1d);
+	}
+
+	/**
+	 * @return the sample standard deviation; 0 for a single value; NaN if there
+	 *         are no values
+	 */
+	public double getStandardDeviation() {
+		if (n == 0) {
+			return Double.NaN;
+		}
+		if (n == 1) {
+			return 0;
+		}
+		return Math.sqrt(getVariance());
+	}
+
+}
@@ -16,6 +16,10 @@
 
 package co.edu.unicauca.dtm.pcapflowparser.model;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.jnetpcap.packet.format.FormatUtils;
 
 /**
@@ -84,6 +88,27 @@ public class Packet {
 	 */
 	private int portDst;
 
+	/**
+	 * Address arrays of a previous packet decoded into this one, reused for the
+	 * addresses of the next packet
+	 */
+	private byte[] spareEthSrc;
+
+	/**
+	 * 
+	 */
+	private byte[] spareEthDst;
+
+	/**
+	 * 
+	 */
+	private byte[] spareIpSrc;
+
+	/**
+	 * 
+	 */
+	private byte[] spareIpDst;
+
 	/**
 	 * Constructor that initializes the parameters to zeros
 	 */
@@ -311,4 +336,209 @@ public class Packet {
 		this.portDst = portDst;
 	}
 
+	/**
+	 * Clears the fields for decoding another packet into this one. The address
+	 * arrays are kept for reuse, so they must not be retained after a reset (see
+	 * {@link #copy()})
+	 */
+	public void reset() {
+		timestamp = -1;
+		size = -1;
+		ethType = -1;
+		vlanId = -1;
+		ipProto = -1;
+		portSrc = -1;
+		portDst = -1;
+		if (ethSrc != null) {
+			spareEthSrc = ethSrc;
+			ethSrc = null;
+		}
+		if (ethDst != null) {
+			spareEthDst = ethDst;
+			ethDst = null;
+		}
+		if (ipSrc != null) {
+			spareIpSrc = ipSrc;
+			ipSrc = null;
+		}
+		if (ipDst != null) {
+			spareIpDst = ipDst;
+			ipDst = null;
+		}
+	}
+
+	/**
+	 * Sets the Ethernet source address to an array for the caller to fill,
+	 * reusing the array of a previous packet
+	 * 
+	 * @return the array of 6 bytes of the Ethernet source address
+	 */
+	public byte[] newEthSrc() {
+		ethSrc = reuse(spareEthSrc, 6);
+		spareEthSrc = null;
+		return ethSrc;
+	}
+
+	/**
+	 * Sets the Ethernet destination address to an array for the caller to fill,
+	 * reusing the array of a previous packet
+	 * 
+	 * @return the array of 6 bytes of the Ethernet destination address
+	 */
+	public byte[] newEthDst() {
+		ethDst = reuse(spareEthDst, 6);
+		spareEthDst = null;
+		return ethDst;
+	}
+
+	/**
+	 * Sets the IP source address to an array for the caller to fill, reusing the
+	 * array of a previous packet
+	 * 
+	 * @param length
+	 *            4 for IPv4; 16 for IPv6
+	 * @return the array of the IP source address
+	 */
+	public byte[] newIpSrc(int length) {
+		ipSrc = reuse(spareIpSrc, length);
+		spareIpSrc = null;
+		return ipSrc;
+	}
+
+	/**
+	 * Sets the IP destination address to an array for the caller to fill,
+	 * reusing the array of a previous packet
+	 * 
+	 * @param length
+	 *            4 for IPv4; 16 for IPv6
+	 * @return the array of the IP destination address
+	 */
+	public byte[] newIpDst(int length) {
+		ipDst = reuse(spareIpDst, length);
+		spareIpDst = null;
+		return ipDst;
+	}
+
+	/**
+	 * @param spare
+	 * @param length
+	 * @return the spare array if it has the given length; a new array otherwise
+	 */
+	private static byte[] reuse(byte[] spare, int length) {
+		if (spare != null && spare.length == length) {
+			return spare;
+		}
+		return new byte[length];
+	}
+
+	/**
+	 * Copies the fields of the given packet into this one, reusing the address
+	 * arrays of this packet
+	 * 
+	 * @param packet
+	 *            the packet to copy
+	 */
+	public void copyFrom(Packet packet) {
+		reset();
+		timestamp = packet.timestamp;
+		size = packet.size;
+		ethType = packet.ethType;
+		vlanId = packet.vlanId;
+		ipProto = packet.ipProto;
+		portSrc = packet.portSrc;
+		portDst = packet.portDst;
+		if (packet.ethSrc != null) {
+			System.arraycopy(packet.ethSrc, 0, newEthSrc(), 0, 6);
+		}
+		if (packet.ethDst != null) {
+			System.arraycopy(packet.ethDst, 0, newEthDst(), 0, 6);
+		}
+		if (packet.ipSrc != null) {
+			System.arraycopy(packet.ipSrc, 0, newIpSrc(packet.ipSrc.length), 0, packet.ipSrc.length);
+		}
+		if (packet.ipDst != null) {
+			System.arraycopy(packet.ipDst, 0, newIpDst(packet.ipDst.length), 0, packet.ipDst.length);
+		}
+	}
+
+	/**
+	 * @return a copy of the packet that shares no arrays with it, for retaining
+	 *         a packet that will be reused
+	 */
+	public Packet copy() {
+		Packet packet = new Packet();
+		packet.copyFrom(this);
+		return packet;
+	}
+
+	/**
+	 * Writes the fields of the packet to a stream
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(timestamp);
+		out.writeInt(size);
+		out.writeInt(ethType);
+		out.writeInt(vlanId);
+		out.writeInt(ipProto);
+		out.writeInt(portSrc);
+		out.writeInt(portDst);
+		writeAddress(out, ethSrc);
+		writeAddress(out, ethDst);
+		writeAddress(out, ipSrc);
+		writeAddress(out, ipDst);
+	}
+
+	/**
+	 * Sets the fields of the packet to those written to a stream
+	 * 
+	 * @param in
+	 * @return this packet
+	 * @throws IOException
+	 */
+	public Packet readFrom(DataInput in) throws IOException {
+		reset();
+		timestamp = in.readLong();
+		size = in.readInt();
+		ethType = in.readInt();
+		vlanId = in.readInt();
+		ipProto = in.readInt();
+		portSrc = in.readInt();
+		portDst = in.readInt();
+		int length = in.readByte();
+		if (length >= 0) {
+			in.readFully(newEthSrc());
+		}
+		length = in.readByte();
+		if (length >= 0) {
+			in.readFully(newEthDst());
+		}
+		length = in.readByte();
+		if (length >= 0) {
+			in.readFully(newIpSrc(length));
+		}
+		length = in.readByte();
+		if (length >= 0) {
+			in.readFully(newIpDst(length));
+		}
+		return this;
+	}
+
+	/**
+	 * @param out
+	 * @param address
+	 *            address of up to 16 bytes; null if it does not exist
+	 * @throws IOException
+	 */
+	private static void writeAddress(DataOutput out, byte[] address) throws IOException {
+		if (address == null) {
+			out.writeByte(-1);
+		} else {
+			out.writeByte(address.length);
+			out.write(address);
+		}
+	}
+
 }
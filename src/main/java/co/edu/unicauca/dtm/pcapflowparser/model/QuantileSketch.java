@@ -0,0 +1,231 @@
+/*
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at:
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package co.edu.unicauca.dtm.pcapflowparser.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Sketch of the quantiles of a series of non-negative values with bounded
+ * relative error and memory (DDSketch). Values are counted in bins of
+ * logarithmically growing width, so any quantile is estimated within
+ * {@link #RELATIVE_ACCURACY} of its value. Bins are kept in a dense array
+ * between the lowest and the highest bin seen; once it spans
+ * {@link #MAX_BINS} bins, the lowest bins are collapsed into one, so only the
+ * lowest quantiles of very wide series lose accuracy. Values below 1 (e.g.,
+ * IATs of packets with the same timestamp) are counted as 0.
+ * 
+ * Copyright 2018 Felipe Estrada-Solano <festradasolano at gmail>
+ * 
+ * Distributed under the Apache License, Version 2.0 (see LICENSE for details)
+ * 
+ * @author festradasolano
+ */
+public class QuantileSketch {
+
+	/**
+	 * Maximum relative error of the estimated quantiles
+	 */
+	public static final double RELATIVE_ACCURACY = 0.02;
+
+	/**
+	 * Maximum number of bins, which spans values from 1 to about 5e8 before
+	 * bins are collapsed
+	 */
+	public static final int MAX_BINS = 512;
+
+	/**
+	 * Initial number of bins
+	 */
+	private static final int INITIAL_BINS = 16;
+
+	/**
+	 * Ratio between the upper bounds of consecutive bins
+	 */
+	private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+
+	/**
+	 * 
+	 */
+	private static final double LOG_GAMMA = Math.log(GAMMA);
+
+	/**
+	 * Number of values
+	 */
+	private long n;
+
+	/**
+	 * Number of values below 1
+	 */
+	private long zeroCount;
+
+	/**
+	 * Counts of the bins from {@link #offset}; null until a value of at least 1
+	 * is added
+	 */
+	private int[] counts;
+
+	/**
+	 * Index of the first bin of the counts
+	 */
+	private int offset;
+
+	/**
+	 * 
+	 */
+	public QuantileSketch() {
+		super();
+		n = 0;
+		zeroCount = 0;
+	}
+
+	/**
+	 * @param value
+	 */
+	public void addValue(double value) {
+		n++;
+		if (!(value >= 1)) {
+			zeroCount++;
+			return;
+		}
+		// Bin i holds the values in (GAMMA^(i-1), GAMMA^i]
+		int index = (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+		if (counts == null) {
+			counts = new int[INITIAL_BINS];
+			offset = index - INITIAL_BINS / 2;
+		} else if (index < offset || index >= offset + counts.length) {
+			grow(index);
+		}
+		// Values below the collapsed bins are counted in the lowest bin
+		counts[Math.max(index - offset, 0)]++;
+	}
+
+	/**
+	 * Extends the bins to an index, doubling them up to {@link #MAX_BINS} and
+	 * collapsing the lowest bins if needed
+	 * 
+	 * @param index
+	 */
+	private void grow(int index) {
+		int high = Math.max(offset + counts.length - 1, index);
+		int low = Math.max(Math.min(offset, index), high - MAX_BINS + 1);
+		int length = Math.min(MAX_BINS, Math.max(high - low + 1, counts.length * 2));
+		if (length == counts.length && low == offset) {
+			return;
+		}
+		// Leave the spare bins on the side of the new index
+		int newOffset = index < offset ? high - length + 1 : low;
+		int[] newCounts = new int[length];
+		for (int i = 0; i < counts.length; i++) {
+			newCounts[Math.max(offset + i - newOffset, 0)] += counts[i];
+		}
+		counts = newCounts;
+		offset = newOffset;
+	}
+
+	/**
+	 * @return the number of values
+	 */
+	public long getN() {
+		return n;
+	}
+
+	/**
+	 * @param quantile
+	 *            the quantile between 0 and 1, e.g., 0.5 for the median
+	 * @return the estimated value of the quantile; NaN if there are no values
+	 */
+	public double getQuantile(double quantile) {
+		if (n == 0) {
+			return Double.NaN;
+		}
+		double rank = quantile * (n - 1);
+		long count = zeroCount;
+		if (count > rank) {
+			return 0;
+		}
+		int last = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0) {
+				continue;
+			}
+			count += counts[i];
+			last = i;
+			if (count > rank) {
+				break;
+			}
+		}
+		// Middle of the bin, within the relative accuracy of its values
+		return 2 * Math.pow(GAMMA, offset + last) / (GAMMA + 1);
+	}
+
+	/**
+	 * Writes the sketch to a stream, without empty bins at its ends
+	 * 
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeLong(n);
+		out.writeLong(zeroCount);
+		if (counts == null) {
+			out.writeInt(0);
+			return;
+		}
+		int first = 0;
+		while (first < counts.length - 1 && counts[first] == 0) {
+			first++;
+		}
+		int last = counts.length - 1;
+		while (last > first && counts[last] == 0) {
+			last--;
+		}
+		out.writeInt(last - first + 1);
+		out.writeInt(offset + first);
+		for (int i = first; i <= last; i++) {
+			out.writeInt(counts[i]);
+		}
+	}
+
+	/**
+	 * Sets the sketch to that written to a stream
+	 * 
+	 * @param in
+	 * @return this sketch
+	 * @throws IOException
+	 */
+	public QuantileSketch readFrom(DataInput in) throws IOException {
+		n = in.readLong();
+		zeroCount = in.readLong();
+		int length = in.readInt();
+		if (length < 0 || length > MAX_BINS) {
+			throw new IOException("Invalid number of bins of a quantile sketch: " + length);
+		}
+		if (length == 0) {
+			counts = null;
+			return this;
+		}
+		offset = in.readInt();
+		counts = new int[Math.max(length, INITIAL_BINS)];
+		for (int i = 0; i < length; i++) {
+			counts[i] = in.readInt();
+		}
+		return this;
+	}
+
+}
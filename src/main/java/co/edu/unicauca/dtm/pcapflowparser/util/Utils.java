@@ -7,22 +7,33 @@ import java.io.File;
 
 /**
  * @author festradasolano
- *
+ * 
  */
 public final class Utils {
 	
+	/**
+	 * Extensions of compressed files, which are removed along with the extension
+	 * of their content
+	 */
+	private static final String[] COMPRESSION_EXTENSIONS = { ".gz", ".zst", ".lz4" };
+	
 	/**
 	 * @param file
 	 * @param suffix
 	 * @return
 	 */
 	public static String getFileName(File file, String suffix) {
-		String name;
+		String name = file.getName();
+		// Remove compression extension if exists
+		for (String extension : COMPRESSION_EXTENSIONS) {
+			if (name.endsWith(extension) && name.length() > extension.length()) {
+				name = name.substring(0, name.length() - extension.length());
+				break;
+			}
+		}
 		// Get file name; remove extension if exists
-		if (file.getName().lastIndexOf(".") > 0) {
-			name = file.getName().substring(0, file.getName().lastIndexOf("."));
-		} else {
-			name = file.getName();
+		if (name.lastIndexOf(".") > 0) {
+			name = name.substring(0, name.lastIndexOf("."));
 		}
 		// Add suffix
 		name += suffix;